@@ -0,0 +1,197 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal benchmark harness in single-shot mode: every iteration runs the operation once and measures its time.
+ * Warm-up iterations are run first and are not reported. Results are written as JSON with the layout of JMH
+ * results ({@code -rf json}: benchmark, mode, params, primaryMetric with rawData), so runs of different releases
+ * can be compared by the same scripts. It is not produced by JMH, so fields of JMH itself (e.g. jmhVersion)
+ * are missing.
+ * <p>
+ * Score error is the half-width of 99.9% confidence interval (normal approximation), as in JMH reports.
+ */
+public class BenchmarkRunner {
+
+    /** Quantile of normal distribution for 99.9% confidence interval */
+    private static final double CONFIDENCE_QUANTILE = 3.29;
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final Pattern include;
+    private final List<Result> results = new ArrayList<>();
+
+
+    /**
+     * Operation measured by the runner.
+     */
+    @FunctionalInterface
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+
+    /**
+     * @param warmupIterations count of not reported iterations
+     * @param measurementIterations count of measured iterations
+     * @param include regular expression, only benchmarks with matching name (with parameters) are run
+     */
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, String include) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = Math.max(1, measurementIterations);
+        this.include = Pattern.compile(include);
+    }
+
+
+    /**
+     * Measure operation and store the result.
+     * @param benchmark name of benchmark (class.method in JMH reports)
+     * @param params benchmark parameters
+     * @param operation measured operation
+     */
+    public void run(String benchmark, Map<String, String> params, Operation operation) {
+        String label = benchmark + " " + params;
+        if(!include.matcher(label).find()) {
+            return;
+        }
+
+        double[] times = new double[measurementIterations];
+        try {
+            for(int i = 0; i < warmupIterations; i++) {
+                operation.run();
+            }
+            for(int i = 0; i < measurementIterations; i++) {
+                long start = System.nanoTime();
+                operation.run();
+                times[i] = (System.nanoTime() - start) / 1e6;
+            }
+        } catch (Exception | OutOfMemoryError e) {
+            System.err.println(label + " failed: " + e);
+            return;
+        }
+
+        Result result = new Result(benchmark, new LinkedHashMap<>(params), times);
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-80s %12.3f +- %.3f ms/op%n", label, result.score(), result.error());
+    }
+
+    /**
+     * Write all results to the JSON file.
+     */
+    public void writeJson(Path file) throws IOException {
+        try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("[\n");
+            for(int i = 0; i < results.size(); i++) {
+                writer.write(results.get(i).toJson());
+                writer.write(i + 1 < results.size() ? ",\n" : "\n");
+            }
+            writer.write("]\n");
+        }
+    }
+
+
+    private static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for(char c : value.toCharArray()) {
+            switch(c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                default -> {
+                    if(c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+
+    private class Result {
+        final String benchmark;
+        final Map<String, String> params;
+        final double[] times;
+
+        Result(String benchmark, Map<String, String> params, double[] times) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.times = times;
+        }
+
+        double score() {
+            double sum = 0;
+            for(double time : times) {
+                sum += time;
+            }
+            return sum / times.length;
+        }
+
+        double error() {
+            if(times.length < 2) {
+                return Double.NaN;
+            }
+            double mean = score();
+            double variance = 0;
+            for(double time : times) {
+                variance += (time - mean) * (time - mean);
+            }
+            variance /= times.length - 1;
+            return CONFIDENCE_QUANTILE * Math.sqrt(variance / times.length);
+        }
+
+        String toJson() {
+            double score = score();
+            double error = error();
+            double errorValue = Double.isNaN(error) ? 0 : error;
+
+            StringBuilder json = new StringBuilder("    {\n");
+            json.append("        \"benchmark\" : ").append(quote(benchmark)).append(",\n");
+            json.append("        \"mode\" : \"ss\",\n");
+            json.append("        \"threads\" : 1,\n");
+            json.append("        \"forks\" : 0,\n");
+            json.append("        \"jdkVersion\" : ").append(quote(System.getProperty("java.version"))).append(",\n");
+            json.append("        \"vmName\" : ").append(quote(System.getProperty("java.vm.name"))).append(",\n");
+            json.append("        \"availableProcessors\" : ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+            json.append("        \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+            json.append("        \"measurementIterations\" : ").append(measurementIterations).append(",\n");
+            json.append("        \"params\" : {\n");
+            int index = 0;
+            for(Map.Entry<String, String> param : params.entrySet()) {
+                json.append("            ").append(quote(param.getKey())).append(" : ").append(quote(param.getValue()));
+                json.append(++index < params.size() ? ",\n" : "\n");
+            }
+            json.append("        },\n");
+            json.append("        \"primaryMetric\" : {\n");
+            json.append("            \"score\" : ").append(number(score)).append(",\n");
+            json.append("            \"scoreError\" : ").append(Double.isNaN(error) ? "\"NaN\"" : number(error)).append(",\n");
+            json.append("            \"scoreConfidence\" : [ ").append(number(score - errorValue)).append(", ")
+                    .append(number(score + errorValue)).append(" ],\n");
+            json.append("            \"scoreUnit\" : \"ms/op\",\n");
+            json.append("            \"rawData\" : [ [ ");
+            for(int i = 0; i < times.length; i++) {
+                json.append(number(times[i])).append(i + 1 < times.length ? ", " : "");
+            }
+            json.append(" ] ]\n");
+            json.append("        }\n");
+            json.append("    }");
+            return json.toString();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package benchmarks;
+
+import utils.ConvolutionEngine;
+import utils.ConvolutionKernel;
+import utils.FFTConvolution;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures cost of convolution versus kernel size: separable Gaussian kernels (two 1D passes),
+ * the same kernels with broken separability (direct 2D sum), frequency-domain convolution
+ * and java.awt.image.ConvolveOp as reference. Column "auto" shows path chosen by cost model
+ * of {@link FFTConvolution#isPreferred(ConvolutionKernel, int, int)} for non-separable kernel.
+ * <p>
+ * Usage: ConvolutionBenchmark [width height [repetitions]]
+ */
+public class ConvolutionBenchmark {
+
+    private static final int[] KERNEL_SIZES = { 3, 5, 7, 9, 11, 15, 31, 61 };
+    /** Max kernel size measured with non-separable and ConvolveOp variants (larger ones take minutes) */
+    private static final int MAX_DIRECT_SIZE = 15;
+
+
+    public static void main(String[] args) {
+        int width = args.length > 1 ? Integer.parseInt(args[0]) : 2048;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1536;
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        BufferedImage image = randomImage(width, height);
+        System.out.printf("Image %dx%d TYPE_INT_RGB, median of %d runs [ms]%n", width, height, repetitions);
+        System.out.printf("%8s %12s %12s %12s %12s %6s%n", "kernel", "separable", "direct 2D", "FFT", "ConvolveOp", "auto");
+
+        for(int size : KERNEL_SIZES) {
+            ConvolutionKernel separable = ConvolutionKernel.gaussian(size);
+            String separableTime = format(measure(repetitions, () -> ConvolutionEngine.convolve(image, separable)));
+            ConvolutionKernel direct = nonSeparable(separable);
+            String fftTime = format(measure(repetitions, () -> FFTConvolution.convolve(image, direct)));
+            String directTime = "-";
+            String awtTime = "-";
+            if(size <= MAX_DIRECT_SIZE) {
+                ConvolveOp op = new ConvolveOp(separable.toAwtKernel());
+                directTime = format(measure(repetitions, () -> ConvolutionEngine.convolve(image, direct)));
+                awtTime = format(measure(repetitions, () -> op.filter(image, null)));
+            }
+            String chosen = FFTConvolution.isPreferred(direct, width, height) ? "FFT" : "2D";
+            System.out.printf("%8s %12s %12s %12s %12s %6s%n", size + "x" + size, separableTime, directTime, fftTime, awtTime, chosen);
+        }
+    }
+
+
+    private static BufferedImage randomImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Return copy of kernel with slightly changed corner element, so that it is not rank-1 anymore.
+     */
+    private static ConvolutionKernel nonSeparable(ConvolutionKernel kernel) {
+        float[] data = kernel.getData();
+        data[0] += 0.01f;
+        return new ConvolutionKernel(kernel.getWidth(), kernel.getHeight(), data);
+    }
+
+    /**
+     * Run task (after single warm-up run) and return median time in nanoseconds.
+     */
+    private static long measure(int repetitions, Runnable task) {
+        task.run();
+        long[] times = new long[repetitions];
+        for(int i = 0; i < repetitions; i++) {
+            long start = System.nanoTime();
+            task.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[repetitions / 2];
+    }
+
+    private static String format(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+}
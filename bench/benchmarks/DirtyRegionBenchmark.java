@@ -0,0 +1,98 @@
+package benchmarks;
+
+import model.recipe.ColorAdjustmentOperation;
+import model.recipe.EditRecipe;
+import model.recipe.FiltrationOperation;
+import model.recipe.GrayScaleOperation;
+import model.recipe.IncrementalRender;
+import utils.ConvolutionKernel;
+import utils.TileExecutor;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares full render of the recipe (fused by ImageChain) with incremental update of {@link IncrementalRender}
+ * after a square region of the source image changes. For every region size it shows median times, count
+ * of recomputed tiles per update and validates the updated result against the full render of the changed
+ * image (the process exits with status 1 if they differ). Processing runs on the caller thread.
+ * <p>
+ * Usage: DirtyRegionBenchmark [width height [repetitions]]
+ */
+public class DirtyRegionBenchmark {
+
+    private static final int[] REGION_SIZES = { 16, 64, 256, 1024 };
+
+    public static void main(String[] args) {
+        int width = args.length > 1 ? Integer.parseInt(args[0]) : 2048;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1536;
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        TileExecutor.setParallelism(1);
+
+        EditRecipe recipe = EditRecipe.empty()
+                .with(new FiltrationOperation(ConvolutionKernel.gaussian(9)))
+                .with(new ColorAdjustmentOperation(20, 1.2f))
+                .with(new GrayScaleOperation())
+                .with(new FiltrationOperation(ConvolutionKernel.square(new float[] { 0, -1, 0, -1, 5, -1, 0, -1, 0 })));
+        BufferedImage source = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        paint(source, new Rectangle(0, 0, width, height), random);
+        IncrementalRender render = recipe.renderIncrementally(source, 1);
+
+        System.out.printf("Image %dx%d TYPE_INT_RGB, recipe %s, median of %d runs%n", width, height,
+                recipe.getOperations(), repetitions);
+        System.out.printf("%-12s %12s %12s %14s %10s%n", "region", "full [ms]", "update [ms]", "tiles/update", "equal");
+
+        boolean equal = true;
+        for(int size : REGION_SIZES) {
+            if(size > width || size > height) {
+                continue;
+            }
+            Rectangle dirty = new Rectangle((width - size) / 2, (height - size) / 2, size, size);
+            // warm-up run
+            paint(source, dirty, random);
+            render.update(dirty);
+            recipe.apply(source, 1);
+
+            long[] full = new long[repetitions];
+            long[] update = new long[repetitions];
+            long tiles = render.getUpdatedTileCount();
+            for(int i = 0; i < repetitions; i++) {
+                paint(source, dirty, random);
+                long start = System.nanoTime();
+                render.update(dirty);
+                update[i] = System.nanoTime() - start;
+                start = System.nanoTime();
+                recipe.apply(source, 1);
+                full[i] = System.nanoTime() - start;
+            }
+            tiles = (render.getUpdatedTileCount() - tiles) / repetitions;
+            boolean same = Arrays.equals(pixels(render.getResult()), pixels(recipe.apply(source, 1)));
+            equal &= same;
+            Arrays.sort(full);
+            Arrays.sort(update);
+            System.out.printf("%-12s %12.1f %12.1f %14d %10s%n", size + "x" + size,
+                    full[repetitions / 2] / 1e6, update[repetitions / 2] / 1e6, tiles, same);
+        }
+
+        if(!equal) {
+            System.out.println("FAILED: incremental update differs from the full render");
+            System.exit(1);
+        }
+    }
+
+
+    private static void paint(BufferedImage image, Rectangle region, Random random) {
+        for(int y = region.y; y < region.y + region.height; y++) {
+            for(int x = region.x; x < region.x + region.width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
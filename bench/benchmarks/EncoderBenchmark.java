@@ -0,0 +1,132 @@
+package benchmarks;
+
+import utils.ChannelImageOutputStream;
+import utils.EncoderSettings;
+import utils.IOManager;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures encoding of the image with different {@link EncoderSettings}. For every setting it shows median time
+ * of writing through the default ImageIO file stream (FileImageOutputStream) and through
+ * {@link ChannelImageOutputStream} used by {@link IOManager}, and the size of the written file.
+ * Without an input image a synthetic photo-like image (smooth gradients with noise) is encoded.
+ * <p>
+ * Usage: EncoderBenchmark [input-image | width height] [--repetitions n]
+ */
+public class EncoderBenchmark {
+
+    private static final EncoderSettings[] SETTINGS = {
+            EncoderSettings.jpeg(0.5f, false),
+            EncoderSettings.jpeg(0.75f, false),
+            EncoderSettings.jpeg(0.9f, false),
+            EncoderSettings.jpeg(1.0f, false),
+            EncoderSettings.jpeg(0.75f, true),
+            EncoderSettings.jpeg(0.9f, true),
+            EncoderSettings.png(0),
+            EncoderSettings.png(1),
+            EncoderSettings.png(4),
+            EncoderSettings.png(6),
+            EncoderSettings.png(9),
+            EncoderSettings.of(EncoderSettings.Format.BMP),
+    };
+
+    public static void main(String[] args) throws IOException {
+        int repetitions = 3;
+        int width = 2048;
+        int height = 1536;
+        String input = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--repetitions")) {
+                repetitions = Integer.parseInt(args[++i]);
+            } else if(i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                width = Integer.parseInt(args[i]);
+                height = Integer.parseInt(args[++i]);
+            } else {
+                input = args[i];
+            }
+        }
+
+        BufferedImage image = input != null ? ImageIO.read(new File(input)) : syntheticImage(width, height);
+        Path directory = Files.createTempDirectory("encoder-benchmark");
+        try {
+            System.out.printf("Image %dx%d %s, median of %d runs%n", image.getWidth(), image.getHeight(),
+                    input != null ? input : "synthetic", repetitions);
+            System.out.printf("%-28s %14s %14s %12s%n", "settings", "ImageIO [ms]", "channel [ms]", "size [kB]");
+            for(EncoderSettings settings : SETTINGS) {
+                File file = directory.resolve("image." + settings.getExtension()).toFile();
+                long imageIO = measure(repetitions, () -> writeImageIO(image, file, settings));
+                long channel = measure(repetitions,
+                        () -> IOManager.saveImage(image, directory.resolve("image").toString(), settings, null));
+                System.out.printf("%-28s %14.1f %14.1f %12.1f%n", settings, imageIO / 1e6, channel / 1e6,
+                        file.length() / 1024.0);
+            }
+        } finally {
+            for(File file : directory.toFile().listFiles()) {
+                file.delete();
+            }
+            Files.delete(directory);
+        }
+    }
+
+
+    @FunctionalInterface
+    private interface Encoding {
+        void run() throws IOException;
+    }
+
+    /**
+     * Write image by the ImageIO writer to the default file stream with the same parameters as IOManager.
+     */
+    private static void writeImageIO(BufferedImage image, File file, EncoderSettings settings) throws IOException {
+        file.delete();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(settings.getExtension()).next();
+        try(ImageOutputStream output = new FileImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), settings.createWriteParam(writer));
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Run encoding (after single warm-up run) and return median time in nanoseconds.
+     */
+    private static long measure(int repetitions, Encoding encoding) throws IOException {
+        encoding.run();
+        long[] times = new long[repetitions];
+        for(int i = 0; i < repetitions; i++) {
+            long start = System.nanoTime();
+            encoding.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[repetitions / 2];
+    }
+
+    private static BufferedImage syntheticImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int noise = random.nextInt(16);
+                int r = (255 * x / width + noise) & 0xff;
+                int g = (255 * y / height + noise) & 0xff;
+                int b = (int) (127 + 100 * Math.sin((x + y) / 64.0)) + noise / 2;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+}
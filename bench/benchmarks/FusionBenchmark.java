@@ -0,0 +1,94 @@
+package benchmarks;
+
+import utils.ConvolutionKernel;
+import utils.ImageChain;
+import utils.ImageProcessing;
+import utils.TileExecutor;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares eager evaluation of operation chains (every operation allocates and writes a full image)
+ * with fused evaluation by {@link ImageChain}. For both variants it shows median time and bytes allocated
+ * per chain, which is the upper bound of heap needed by intermediate images and proportional to memory traffic.
+ * Processing runs on the caller thread, so allocations of the chain are measured on that thread.
+ * <p>
+ * Usage: FusionBenchmark [width height [repetitions]]
+ */
+public class FusionBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 1 ? Integer.parseInt(args[0]) : 2048;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1536;
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        TileExecutor.setParallelism(1);
+
+        BufferedImage image = randomImage(width, height);
+        ConvolutionKernel blur = ConvolutionKernel.gaussian(7);
+        ConvolutionKernel sharpen = ConvolutionKernel.square(new float[] { 0, -1, 0, -1, 5, -1, 0, -1, 0 });
+
+        System.out.printf("Image %dx%d TYPE_INT_RGB, median of %d runs%n", width, height, repetitions);
+        System.out.printf("%-36s %12s %12s %12s %12s%n", "chain", "eager [ms]", "fused [ms]", "eager [MB]", "fused [MB]");
+
+        compare("brightness, contrast, brightness", repetitions,
+                () -> ImageProcessing.colorAdjustment(ImageProcessing.colorAdjustment(
+                        ImageProcessing.colorAdjustment(image, 20, 1), 0, 1.3f), -10, 1),
+                () -> ImageChain.of(image).colorAdjustment(20, 1).colorAdjustment(0, 1.3f).colorAdjustment(-10, 1).render());
+        compare("blur 7x7, brightness, contrast", repetitions,
+                () -> ImageProcessing.colorAdjustment(ImageProcessing.colorAdjustment(
+                        ImageProcessing.linearFiltration(image, blur), 20, 1), 0, 1.3f),
+                () -> ImageChain.of(image).filter(blur).colorAdjustment(20, 1).colorAdjustment(0, 1.3f).render());
+        compare("contrast, blur 7x7, brightness", repetitions,
+                () -> ImageProcessing.colorAdjustment(ImageProcessing.linearFiltration(
+                        ImageProcessing.colorAdjustment(image, 0, 1.3f), blur), 20, 1),
+                () -> ImageChain.of(image).colorAdjustment(0, 1.3f).filter(blur).colorAdjustment(20, 1).render());
+        compare("gray, sharpen 3x3, contrast", repetitions,
+                () -> ImageProcessing.colorAdjustment(ImageProcessing.linearFiltration(
+                        ImageProcessing.RGBtoGray(image), sharpen), 0, 1.3f),
+                () -> ImageChain.of(image).gray().filter(sharpen).colorAdjustment(0, 1.3f).render());
+    }
+
+
+    private static void compare(String name, int repetitions, Supplier<BufferedImage> eager, Supplier<BufferedImage> fused) {
+        long[] eagerResult = measure(repetitions, eager);
+        long[] fusedResult = measure(repetitions, fused);
+        System.out.printf("%-36s %12.1f %12.1f %12.1f %12.1f%n", name,
+                eagerResult[0] / 1e6, fusedResult[0] / 1e6, eagerResult[1] / 1e6, fusedResult[1] / 1e6);
+    }
+
+    /**
+     * Run task (after single warm-up run) and return median time in nanoseconds and median allocated bytes.
+     */
+    private static long[] measure(int repetitions, Supplier<BufferedImage> task) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        task.get();
+        long[] times = new long[repetitions];
+        long[] bytes = new long[repetitions];
+        for(int i = 0; i < repetitions; i++) {
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            task.get();
+            times[i] = System.nanoTime() - start;
+            bytes[i] = threads.getThreadAllocatedBytes(thread) - allocated;
+        }
+        Arrays.sort(times);
+        Arrays.sort(bytes);
+        return new long[] { times[repetitions / 2], bytes[repetitions / 2] };
+    }
+
+    private static BufferedImage randomImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,151 @@
+package benchmarks;
+
+import utils.GrayscaleEngine;
+import utils.PixelKernels;
+import utils.TileExecutor;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the original gray scale conversion (setRGB per pixel into TYPE_BYTE_GRAY) with {@link GrayscaleEngine}
+ * for every supported input layout and validates the result: with linear luminance weights the engine
+ * has to differ from the original conversion by at most 1 gray level (the process exits with status 1 otherwise).
+ * Times are medians of engine conversion with the scalar and vector (if available) backend, with Rec.601 weights
+ * and in place. Processing runs on the caller thread.
+ * <p>
+ * Usage: GrayscaleBenchmark [width height [repetitions]]
+ */
+public class GrayscaleBenchmark {
+
+    private static final int[] TYPES = {
+            BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR,
+            BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR
+    };
+    private static final String[] TYPE_NAMES = { "INT_RGB", "INT_ARGB", "INT_BGR", "3BYTE_BGR", "4BYTE_ABGR" };
+    private static final int WARM_UP_RUNS = 3;
+
+    public static void main(String[] args) {
+        int width = args.length > 1 ? Integer.parseInt(args[0]) : 2048;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1536;
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        TileExecutor.setParallelism(1);
+        boolean vector = PixelKernels.vector() != null;
+
+        System.out.printf("Image %dx%d, median of %d runs, vector backend %s%n", width, height, repetitions,
+                vector ? PixelKernels.vector().getName() : "not available");
+        System.out.printf("%-12s %12s %12s %12s %12s %12s %10s %10s%n", "type", "setRGB [ms]", "scalar [ms]",
+                "vector [ms]", "rec601 [ms]", "in place [ms]", "max diff", "diff px");
+
+        int worst = 0;
+        for(int t = 0; t < TYPES.length; t++) {
+            int type = TYPES[t];
+            BufferedImage image = randomImage(width, height, type);
+
+            BufferedImage reference = setRGBGray(image);
+            long original = measure(repetitions, () -> setRGBGray(image));
+            PixelKernels.setVectorized(false);
+            long scalar = measure(repetitions, () -> GrayscaleEngine.convert(image, GrayscaleEngine.Weights.LINEAR_LUMINANCE));
+            int[] scalarDiff = difference(reference, GrayscaleEngine.convert(image, GrayscaleEngine.Weights.LINEAR_LUMINANCE));
+            PixelKernels.setVectorized(true);
+            long vectorized = measure(repetitions, () -> GrayscaleEngine.convert(image, GrayscaleEngine.Weights.LINEAR_LUMINANCE));
+            int[] vectorDiff = difference(reference, GrayscaleEngine.convert(image, GrayscaleEngine.Weights.LINEAR_LUMINANCE));
+            long rec601 = measure(repetitions, () -> GrayscaleEngine.convert(image, GrayscaleEngine.Weights.REC_601));
+            // every in-place run converts its own copy, copying is not measured
+            long inPlace = measureInPlace(repetitions, image);
+            int[] inPlaceDiff = difference(reference,
+                    GrayscaleEngine.convertInPlace(copy(image), GrayscaleEngine.Weights.LINEAR_LUMINANCE));
+
+            int maxDiff = Math.max(scalarDiff[0], Math.max(vectorDiff[0], inPlaceDiff[0]));
+            int pixels = Math.max(scalarDiff[1], Math.max(vectorDiff[1], inPlaceDiff[1]));
+            worst = Math.max(worst, maxDiff);
+            System.out.printf("%-12s %12.1f %12.1f %12s %12.1f %12.1f %10d %10d%n", TYPE_NAMES[t],
+                    original / 1e6, scalar / 1e6, vector ? String.format("%.1f", vectorized / 1e6) : "-",
+                    rec601 / 1e6, inPlace / 1e6, maxDiff, pixels);
+        }
+
+        if(worst > 1) {
+            System.out.println("FAILED: engine differs from setRGB conversion by " + worst + " gray levels");
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * The original conversion of the editor.
+     */
+    private static BufferedImage setRGBGray(BufferedImage input) {
+        BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        for(int y = 0; y < input.getHeight(); y++) {
+            for(int x = 0; x < input.getWidth(); x++) {
+                output.setRGB(x, y, input.getRGB(x, y));
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Return max absolute difference of gray samples and count of different pixels.
+     */
+    private static int[] difference(BufferedImage expected, BufferedImage actual) {
+        int max = 0;
+        int count = 0;
+        for(int y = 0; y < expected.getHeight(); y++) {
+            for(int x = 0; x < expected.getWidth(); x++) {
+                int diff = Math.abs(expected.getRaster().getSample(x, y, 0) - actual.getRaster().getSample(x, y, 0));
+                max = Math.max(max, diff);
+                count += diff > 0 ? 1 : 0;
+            }
+        }
+        return new int[] { max, count };
+    }
+
+    /**
+     * Run task (after warm-up runs) and return median time in nanoseconds.
+     */
+    private static long measure(int repetitions, Supplier<BufferedImage> task) {
+        for(int i = 0; i < WARM_UP_RUNS; i++) {
+            task.get();
+        }
+        long[] times = new long[repetitions];
+        for(int i = 0; i < repetitions; i++) {
+            long start = System.nanoTime();
+            task.get();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[repetitions / 2];
+    }
+
+    private static long measureInPlace(int repetitions, BufferedImage image) {
+        long[] times = new long[WARM_UP_RUNS + repetitions];
+        for(int i = 0; i < times.length; i++) {
+            BufferedImage input = copy(image);
+            long start = System.nanoTime();
+            GrayscaleEngine.convertInPlace(input, GrayscaleEngine.Weights.LINEAR_LUMINANCE);
+            times[i] = System.nanoTime() - start;
+        }
+        long[] measured = Arrays.copyOfRange(times, WARM_UP_RUNS, times.length);
+        Arrays.sort(measured);
+        return measured[repetitions / 2];
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        copy.setData(image.getRaster());
+        return copy;
+    }
+
+    private static BufferedImage randomImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(1);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
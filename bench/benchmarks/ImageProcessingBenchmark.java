@@ -0,0 +1,167 @@
+package benchmarks;
+
+import utils.ConvolutionKernel;
+import utils.IOManager;
+import utils.ImageProcessing;
+import views.modals.FiltrationDialog;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks of image processing hot paths: RGBtoGray, linearFiltration with every preset of the filtration dialog,
+ * colorAdjustment (brightness only, contrast only, both) and IOManager load/save, parameterized by image size
+ * and raster type. Results are written as JMH-compatible JSON (see {@link BenchmarkRunner}).
+ * <p>
+ * Options (all optional):
+ * <pre>
+ *   --sizes 1,12,50          image sizes in megapixels (4:3 aspect ratio)
+ *   --types INT_RGB,INT_ARGB  raster types (INT_RGB, INT_ARGB, INT_BGR, 3BYTE_BGR, 4BYTE_ABGR, BYTE_GRAY)
+ *   --include regex          run only benchmarks whose name and parameters match
+ *   --warmup 2               count of warm-up iterations
+ *   --iterations 5           count of measured iterations
+ *   --output results.json    JSON output file
+ * </pre>
+ * 50 MP images need large heap (e.g. -Xmx8g).
+ */
+public class ImageProcessingBenchmark {
+
+    private static final Map<String, Integer> TYPES = new LinkedHashMap<>();
+    static {
+        TYPES.put("INT_RGB", BufferedImage.TYPE_INT_RGB);
+        TYPES.put("INT_ARGB", BufferedImage.TYPE_INT_ARGB);
+        TYPES.put("INT_BGR", BufferedImage.TYPE_INT_BGR);
+        TYPES.put("3BYTE_BGR", BufferedImage.TYPE_3BYTE_BGR);
+        TYPES.put("4BYTE_ABGR", BufferedImage.TYPE_4BYTE_ABGR);
+        TYPES.put("BYTE_GRAY", BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        String[] sizes = options.getOrDefault("sizes", "1,12,50").split(",");
+        String[] types = options.getOrDefault("types", "INT_RGB,INT_ARGB,3BYTE_BGR,BYTE_GRAY").split(",");
+        BenchmarkRunner runner = new BenchmarkRunner(
+                Integer.parseInt(options.getOrDefault("warmup", "2")),
+                Integer.parseInt(options.getOrDefault("iterations", "5")),
+                options.getOrDefault("include", ".*")
+        );
+        Path output = Paths.get(options.getOrDefault("output", "results.json"));
+        Map<String, ConvolutionKernel> presets = FiltrationDialog.getPresetKernels();
+        Path directory = Files.createTempDirectory("photo-editor-benchmark");
+
+        try {
+            for(String size : sizes) {
+                double megapixels = Double.parseDouble(size.trim());
+                for(String typeName : types) {
+                    Integer type = TYPES.get(typeName.trim());
+                    if(type == null) {
+                        throw new IllegalArgumentException("Unknown raster type: " + typeName);
+                    }
+                    BufferedImage image = testImage(megapixels, type);
+                    runAll(runner, image, size.trim(), typeName.trim(), presets, directory);
+                }
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+
+        runner.writeJson(output);
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+
+
+    private static void runAll(BenchmarkRunner runner, BufferedImage image, String size, String type,
+                               Map<String, ConvolutionKernel> presets, Path directory) throws IOException {
+        String prefix = ImageProcessingBenchmark.class.getSimpleName() + ".";
+
+        runner.run(prefix + "RGBtoGray", params(size, type), () -> ImageProcessing.RGBtoGray(image));
+
+        for(Map.Entry<String, ConvolutionKernel> preset : presets.entrySet()) {
+            Map<String, String> params = params(size, type);
+            params.put("preset", preset.getKey());
+            runner.run(prefix + "linearFiltration", params, () -> ImageProcessing.linearFiltration(image, preset.getValue()));
+        }
+
+        Map<String, String> brightness = params(size, type);
+        brightness.put("adjustment", "brightness");
+        runner.run(prefix + "colorAdjustment", brightness, () -> ImageProcessing.colorAdjustment(image, 40, 1));
+        Map<String, String> contrast = params(size, type);
+        contrast.put("adjustment", "contrast");
+        runner.run(prefix + "colorAdjustment", contrast, () -> ImageProcessing.colorAdjustment(image, 0, 1.5f));
+        Map<String, String> both = params(size, type);
+        both.put("adjustment", "both");
+        runner.run(prefix + "colorAdjustment", both, () -> ImageProcessing.colorAdjustment(image, 40, 1.5f));
+
+        for(String format : new String[] { "png", "jpg" }) {
+            if(format.equals("jpg") && image.getColorModel().hasAlpha()) {
+                // ImageIO does not write JPEG with alpha channel
+                continue;
+            }
+            String path = directory.resolve("image-" + size + "-" + type).toString();
+            Map<String, String> params = params(size, type);
+            params.put("format", format);
+            runner.run(prefix + "saveImage", params, () -> IOManager.saveImage(image, path, format));
+            IOManager.saveImage(image, path, format);
+            runner.run(prefix + "loadImage", params, () -> IOManager.loadImage(path + "." + format));
+        }
+    }
+
+    private static Map<String, String> params(String size, String type) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("megapixels", size);
+        params.put("type", type);
+        return params;
+    }
+
+    /**
+     * Create image with smooth gradients and noise (compresses like a photo, not like a flat or random image).
+     */
+    private static BufferedImage testImage(double megapixels, int type) {
+        int width = (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+        int height = (int) Math.round(megapixels * 1e6 / width);
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(width * 31L + height);
+        int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int noise = random.nextInt(16);
+                int r = (x * 255 / width + noise) & 0xff;
+                int g = (y * 255 / height + noise) & 0xff;
+                int b = ((x + y) * 127 / (width + height) + 64 + noise) & 0xff;
+                int a = 128 + (x * 127 / width);
+                row[x] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for(int i = 0; i < args.length; i++) {
+            if(!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static void deleteDirectory(Path directory) {
+        File[] files = directory.toFile().listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        directory.toFile().delete();
+    }
+}
@@ -0,0 +1,122 @@
+package benchmarks;
+
+import utils.ConvolutionEngine;
+import utils.ConvolutionKernel;
+import utils.PixelKernels;
+import utils.PointPipeline;
+import utils.TileExecutor;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares scalar and vector (Vector API) backends of {@link PixelKernels} on the same inputs. For every operation
+ * it shows median time of both backends, throughput in megapixels per second and whether the results are equal.
+ * Processing runs on the caller thread. The vector backend is available only with the incubator module:
+ * <p>
+ * Usage: java --add-modules jdk.incubator.vector benchmarks.VectorBenchmark [width height [repetitions]]
+ */
+public class VectorBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 1 ? Integer.parseInt(args[0]) : 2048;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1536;
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        TileExecutor.setParallelism(1);
+
+        if(PixelKernels.vector() == null) {
+            System.out.println("Vector API is not available, run with --add-modules jdk.incubator.vector");
+            return;
+        }
+
+        BufferedImage color = randomImage(width, height, BufferedImage.TYPE_INT_RGB);
+        BufferedImage gray = randomImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        int[] pixels = color.getRGB(0, 0, width, height, null, 0, width);
+        PointPipeline brightness = new PointPipeline().brightness(20);
+        ConvolutionKernel blur = ConvolutionKernel.gaussian(9);
+        float[] weights = new float[25];
+        Random random = new Random(2);
+        for(int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextInt(9) - 3;
+        }
+        ConvolutionKernel random5x5 = new ConvolutionKernel(5, 5, weights);
+
+        System.out.printf("Image %dx%d, median of %d runs, %s backend%n", width, height, repetitions,
+                PixelKernels.vector().getName());
+        System.out.printf("%-32s %12s %12s %12s %12s %8s%n",
+                "operation", "scalar [ms]", "vector [ms]", "scalar MP/s", "vector MP/s", "equal");
+
+        compare("gray weighted sum (kernel)", repetitions, width * height, () -> {
+            byte[] out = new byte[width * height];
+            PixelKernels.get().grayRow(pixels, 0, pixels.length, 19595, 38470, 7471, out, 0);
+            return out;
+        });
+        compare("LUT INT_RGB (brightness)", repetitions, width * height, () -> brightness.apply(color));
+        compare("LUT BYTE_GRAY (brightness)", repetitions, width * height, () -> brightness.apply(gray));
+        compare("convolution 9x9 separable", repetitions, width * height,
+                () -> ConvolutionEngine.convolve(color, blur));
+        compare("convolution 5x5 direct", repetitions, width * height,
+                () -> ConvolutionEngine.convolve(color, random5x5));
+        compare("convolution 5x5 direct gray", repetitions, width * height,
+                () -> ConvolutionEngine.convolve(gray, random5x5));
+        PixelKernels.setVectorized(true);
+    }
+
+
+    @FunctionalInterface
+    private interface Operation {
+        Object run();
+    }
+
+    private static void compare(String name, int repetitions, int pixels, Operation operation) {
+        PixelKernels.setVectorized(false);
+        long scalar = measure(repetitions, operation);
+        Object scalarResult = contents(operation.run());
+        PixelKernels.setVectorized(true);
+        long vector = measure(repetitions, operation);
+        Object vectorResult = contents(operation.run());
+        System.out.printf("%-32s %12.1f %12.1f %12.1f %12.1f %8s%n", name, scalar / 1e6, vector / 1e6,
+                pixels / (scalar / 1e3), pixels / (vector / 1e3),
+                Arrays.deepEquals(new Object[] { scalarResult }, new Object[] { vectorResult }));
+    }
+
+    /**
+     * Run operation (after warm-up runs) and return median time in nanoseconds.
+     */
+    private static long measure(int repetitions, Operation operation) {
+        for(int i = 0; i < 3; i++) {
+            operation.run();
+        }
+        long[] times = new long[repetitions];
+        for(int i = 0; i < repetitions; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[repetitions / 2];
+    }
+
+    /**
+     * Return pixels of the image result as array (other results are returned as they are).
+     */
+    private static Object contents(Object result) {
+        if(result instanceof BufferedImage) {
+            BufferedImage image = (BufferedImage) result;
+            return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        }
+        return result;
+    }
+
+    private static BufferedImage randomImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(1);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
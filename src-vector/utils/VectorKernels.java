@@ -0,0 +1,142 @@
+package utils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD backend of {@link PixelKernels} written with the Vector API. Loops process as many pixels at once
+ * as the preferred int vector of the platform holds, the remaining pixels are processed by the scalar loops.
+ * Table lookups are vector gathers. 8-bit samples are loaded and stored as byte vectors with the same lane count,
+ * so platforms with less than 8 int lanes (e.g. 128-bit vectors) are not supported and the scalar backend is used.
+ * <p>
+ * It is instantiated only by {@link PixelKernels} when the jdk.incubator.vector module is available.
+ */
+final class VectorKernels extends PixelKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = INTS.length();
+    private static final VectorSpecies<Byte> BYTES = LANES >= 8
+            ? VectorSpecies.of(byte.class, VectorShape.forBitSize(LANES * Byte.SIZE)) : null;
+
+
+    VectorKernels() {
+        if(BYTES == null) {
+            throw new UnsupportedOperationException("Preferred int vector has only " + LANES + " lanes");
+        }
+    }
+
+
+    @Override
+    public String getName() {
+        return "vector " + INTS.vectorBitSize() + "-bit";
+    }
+
+    @Override
+    public void grayRow(int[] argb, int argbOffset, int length, int redWeight, int greenWeight, int blueWeight,
+                        byte[] gray, int grayOffset) {
+        int bound = INTS.loopBound(length);
+        int x = 0;
+        for(; x < bound; x += LANES) {
+            IntVector p = IntVector.fromArray(INTS, argb, argbOffset + x);
+            IntVector sum = p.lanewise(VectorOperators.LSHR, 16).and(0xff).mul(redWeight)
+                    .add(p.lanewise(VectorOperators.LSHR, 8).and(0xff).mul(greenWeight))
+                    .add(p.and(0xff).mul(blueWeight));
+            toBytes(graySample(sum)).intoArray(gray, grayOffset + x);
+        }
+        super.grayRow(argb, argbOffset + x, length - x, redWeight, greenWeight, blueWeight, gray, grayOffset + x);
+    }
+
+    @Override
+    public void grayRow(int[] argb, int argbOffset, int length, int[] redTable, int[] greenTable, int[] blueTable,
+                        byte[] gray, int grayOffset) {
+        int[] index = new int[LANES];
+        int bound = INTS.loopBound(length);
+        int x = 0;
+        for(; x < bound; x += LANES) {
+            IntVector p = IntVector.fromArray(INTS, argb, argbOffset + x);
+            IntVector sum = gather(redTable, p.lanewise(VectorOperators.LSHR, 16).and(0xff), index)
+                    .add(gather(greenTable, p.lanewise(VectorOperators.LSHR, 8).and(0xff), index))
+                    .add(gather(blueTable, p.and(0xff), index));
+            toBytes(graySample(sum)).intoArray(gray, grayOffset + x);
+        }
+        super.grayRow(argb, argbOffset + x, length - x, redTable, greenTable, blueTable, gray, grayOffset + x);
+    }
+
+    @Override
+    public void lookupChannels(int[] argb, int length, int[] table) {
+        int[] index = new int[LANES];
+        int bound = INTS.loopBound(length);
+        int x = 0;
+        for(; x < bound; x += LANES) {
+            IntVector p = IntVector.fromArray(INTS, argb, x);
+            IntVector red = gather(table, p.lanewise(VectorOperators.LSHR, 16).and(0xff), index);
+            IntVector green = gather(table, p.lanewise(VectorOperators.LSHR, 8).and(0xff), index);
+            IntVector blue = gather(table, p.and(0xff), index);
+            p.and(0xff000000)
+                    .or(red.lanewise(VectorOperators.LSHL, 16))
+                    .or(green.lanewise(VectorOperators.LSHL, 8))
+                    .or(blue)
+                    .intoArray(argb, x);
+        }
+        for(; x < length; x++) {
+            int p = argb[x];
+            argb[x] = (p & 0xff000000)
+                    | (table[(p >> 16) & 0xff] << 16)
+                    | (table[(p >> 8) & 0xff] << 8)
+                    | table[p & 0xff];
+        }
+    }
+
+    @Override
+    public void lookupSamples(byte[] in, int inOffset, byte[] out, int outOffset, int length, int[] table) {
+        int[] index = new int[LANES];
+        int bound = INTS.loopBound(length);
+        int x = 0;
+        for(; x < bound; x += LANES) {
+            IntVector samples = (IntVector) ByteVector.fromArray(BYTES, in, inOffset + x)
+                    .convertShape(VectorOperators.B2I, INTS, 0);
+            toBytes(gather(table, samples.and(0xff), index)).intoArray(out, outOffset + x);
+        }
+        super.lookupSamples(in, inOffset + x, out, outOffset + x, length - x, table);
+    }
+
+    @Override
+    public void multiplyAdd(int[] sums, int[] plane, int offset, int weight, int fromX, int toX) {
+        int bound = fromX + INTS.loopBound(toX - fromX);
+        int x = fromX;
+        for(; x < bound; x += LANES) {
+            IntVector.fromArray(INTS, sums, x)
+                    .add(IntVector.fromArray(INTS, plane, offset + x).mul(weight))
+                    .intoArray(sums, x);
+        }
+        for(; x < toX; x++) {
+            sums[x] += weight * plane[offset + x];
+        }
+    }
+
+
+    /**
+     * Load table entries at the indices (the index array is a scratch buffer of the gather).
+     */
+    private static IntVector gather(int[] table, IntVector indices, int[] index) {
+        indices.intoArray(index, 0);
+        return IntVector.fromArray(INTS, table, 0, index, 0);
+    }
+
+    /**
+     * Round 16-bit fixed-point sums to gray samples in range [0, 255].
+     */
+    private static IntVector graySample(IntVector sum) {
+        return sum.add(0x8000).lanewise(VectorOperators.LSHR, 16).min(255);
+    }
+
+    /**
+     * Narrow int lanes in range [0, 255] to bytes.
+     */
+    private static ByteVector toBytes(IntVector values) {
+        return (ByteVector) values.convertShape(VectorOperators.I2B, BYTES, 0);
+    }
+}
@@ -1,12 +1,18 @@
 import com.formdev.flatlaf.FlatIntelliJLaf;
 import controller.AppController;
+import controller.BatchController;
 import model.ImageModel;
 import views.MainWindow;
 
 import javax.swing.*;
+import java.util.Arrays;
 
 public class App {
     public static void main(String[] args) {
+        if(args.length > 0 && args[0].equals("batch")) {
+            System.exit(BatchController.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         try {
             UIManager.setLookAndFeel(new FlatIntelliJLaf());
         } catch (Exception e) {
@@ -3,109 +3,278 @@ package controller;
 import com.sun.jdi.InvalidTypeException;
 import utils.IOManager;
 import model.ImageModel;
+import model.ResultCache;
+import model.history.EditHistory;
+import model.recipe.ColorAdjustmentOperation;
+import model.recipe.EditOperation;
+import model.recipe.EditRecipe;
+import model.recipe.FiltrationOperation;
+import model.recipe.GrayScaleOperation;
+import utils.ConvolutionKernel;
+import utils.EncoderSettings;
 import utils.ImageProcessing;
+import utils.RegionDecoder;
+import utils.TiledImage;
 import views.MainView;
 
 import javax.swing.*;
+import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
-import java.util.Stack;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 /**
  * AppController plays the Controller role in M(VC)-architecture.
  * It handles requests received from user by MainView and return responses.
  */
 public class AppController {
+    /**
+     * Images with more decoded bytes are loaded as reduced preview and full resolution regions are decoded on demand,
+     * the limit can be changed by photoeditor.largeImageMegabytes system property (default quarter of max heap)
+     */
+    private static final long LARGE_IMAGE_BYTES = Long.getLong("photoeditor.largeImageMegabytes",
+            Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024)) * 1024 * 1024;
+    /** Max count of pixels of preview of the large image */
+    private static final long MAX_PREVIEW_PIXELS = 16_000_000;
+    /** Max time of waiting for pending saves on exit */
+    private static final long EXIT_TRANSFER_TIMEOUT_SECONDS = 120;
+
     private ImageModel imageModel;
     private MainView mainView;
 
-    private final Stack<BufferedImage> undoStack;
-    private final Stack<BufferedImage> redoStack;
+    private final EditHistory history;
+    /** Results of operations on the processed image (or its preview) with the parameters the user already tried */
+    private final ResultCache resultCache = new ResultCache();
+    /** Recipes (with their original images) of states in the history, in the same order as history images */
+    private final Deque<RecipeState> undoRecipes = new ArrayDeque<>();
+    private final Deque<RecipeState> redoRecipes = new ArrayDeque<>();
+    /** Originals of the processed image and of the states in the history */
+    private final List<OriginalState> originals = new ArrayList<>();
+    /** Original of the processed image, null before the first image is loaded */
+    private OriginalState currentOriginal = null;
+
+    /** True if the view shows downsampled preview instead of the full resolution displayed image */
+    private boolean previewDisplayed = false;
+
+    /** True after exit was requested (pending saves are being finished) */
+    private boolean exiting = false;
+
+    /** True if displayed image does not contain result of the last requested color adjustment yet */
+    private boolean displayedImageStale = false;
+    private long colorRequestsCount = 0;
+
+    private final RenderScheduler renderScheduler = new RenderScheduler(
+            e -> mainView.showStatus("Preview render failed: " + e.getMessage()));
+    private final TransferScheduler transfers = new TransferScheduler();
 
     public AppController() {
-        this.undoStack = new Stack<>();
-        this.redoStack = new Stack<>();
+        this.history = new EditHistory();
+        history.setErrorListener(message -> SwingUtilities.invokeLater(() -> mainView.showStatus(message)));
     }
 
     public void setView(MainView mainView) {
         this.mainView = mainView;
+        this.transfers.setView(mainView);
     }
 
     public void setModel(ImageModel imageModel) {
         this.imageModel = imageModel;
     }
 
-    /** Get image absolute path from user and load this image */
+    /** Get image absolute path from user and load this image in the background */
     public void handleLoadImage() {
         String filename = mainView.getImageSourceFromUser();
         if (filename == null) {
             return;
         }
 
-        BufferedImage input = null;
+        transfers.submit("Loading " + new File(filename).getName(), false,
+                transfer -> loadInput(filename, transfer),
+                this::showLoadedImage,
+                e -> transferFailed("Image not loaded", e));
+    }
+
+    /**
+     * Load image or reduced preview of the large image (called on the transfer thread).
+     */
+    private static LoadedImage loadInput(String filename, IOManager.Transfer transfer) throws IOException, InvalidTypeException {
+        RegionDecoder source = RegionDecoder.open(new File(filename));
+        if(source.getPixelCount() * Integer.BYTES <= LARGE_IMAGE_BYTES) {
+            source.close();
+            return new LoadedImage(IOManager.loadImage(filename, transfer), null, 1);
+        }
         try {
-            input = IOManager.loadImage(filename);
-        } catch (InvalidTypeException e) {
-            JOptionPane.showMessageDialog(new JFrame(), "Invalid Image Type", e.getMessage(), JOptionPane.ERROR_MESSAGE);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            long previewPixels = Math.min(MAX_PREVIEW_PIXELS, LARGE_IMAGE_BYTES / Integer.BYTES / 4);
+            int downsampling = Math.max(2, source.subsamplingFor(previewPixels));
+            return new LoadedImage(source.readSubsampled(downsampling, transfer), source, downsampling);
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
         }
+    }
 
+    private void showLoadedImage(LoadedImage loaded) {
+        addToUndoStack(imageModel.getProcessedImage());
+        OriginalState original = new OriginalState(loaded.image, loaded.source, loaded.downsampling);
+        originals.add(original);
+        switchOriginal(original);
+        imageModel.setOriginalImage(loaded.image, loaded.source, loaded.downsampling);
+        mainView.setViewMode(true);
+        mainView.enableUndo(true);
 
-        if(input != null) {
-            addToUndoStack(imageModel.getProcessedImage());
-            imageModel.setOriginalImage(input);
-            mainView.setViewMode(true);
-            mainView.enableUndo(true);
-
-            mainView.displayImage(input);
+        showDisplayedImage();
+        if(loaded.source != null) {
+            mainView.showStatus(String.format("Large image %dx%d, editing preview reduced %dx",
+                    loaded.source.getWidth(), loaded.source.getHeight(), loaded.downsampling));
         }
     }
 
 
-    /** Get absolute path from user and save there processed image (as jpg) */
+    /**
+     * Get absolute path and encoder settings from user and save there processed image in the background,
+     * the image can be edited while it is being saved.
+     */
     public void handleSaveImage() {
         String dirname = mainView.getImageDestinationFromUser();
         if(dirname == null) {
             return;
         }
-        IOManager.saveImage(imageModel.getProcessedImage(), dirname, "jpg");
+        EncoderSettings settings = mainView.getEncoderSettings();
+        String filename = dirname + "." + settings.getExtension();
+        String description = "Saving " + new File(filename).getName();
+        // processed images are not modified, the task keeps the state of the moment of saving
+        BufferedImage processed = imageModel.getProcessedImage();
+        RegionDecoder source = imageModel.getOriginalSource();
+        EditRecipe recipe = imageModel.getRecipe();
+        if(source == null) {
+            transfers.submit(description, true,
+                    transfer -> {
+                        IOManager.saveImage(processed, dirname, settings, transfer);
+                        return "Saved " + filename + " (" + settings + ")";
+                    },
+                    mainView::showStatus,
+                    e -> transferFailed("Image not saved", e));
+            return;
+        }
+        transfers.submit(description, true,
+                transfer -> saveFullResolution(source, recipe, dirname, settings, transfer),
+                mainView::showStatus,
+                e -> transferFailed("Image not saved", e));
     }
 
-    /** Push current processed image to the undo stack, pull image from the redo stack */
+    /**
+     * Render recipe of the large image on its full resolution out-of-core original (tile-by-tile in the scratch file)
+     * and save the result (called on the transfer thread).
+     */
+    private String saveFullResolution(RegionDecoder source, EditRecipe recipe, String dirname, EncoderSettings settings,
+                                      IOManager.Transfer transfer) throws IOException {
+        TiledImage original = imageModel.getFullResolutionOriginal(source);
+        transfer.checkCancelled();
+        try(TiledImage result = recipe.apply(original)) {
+            transfer.checkCancelled();
+            IOManager.saveImage(result, dirname, settings, transfer);
+            return String.format("Saved %s.%s in full resolution %dx%d (%s)", dirname, settings.getExtension(),
+                    result.getWidth(), result.getHeight(), settings);
+        }
+    }
+
+    /** Abort running loading or saving and cancel waiting ones */
+    public void handleCancelTransfer() {
+        transfers.cancelAll();
+    }
+
+    private void transferFailed(String title, Exception e) {
+        if(e instanceof CancellationException) {
+            mainView.showStatus("Cancelled");
+        } else if(e instanceof InvalidTypeException) {
+            mainView.showError("Invalid Image Type", e.getMessage());
+        } else {
+            mainView.showError(title, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    /** Get path from user and save there recipe of the processed image */
+    public void handleSaveRecipe() {
+        String path = mainView.getRecipeDestinationFromUser();
+        if(path == null) {
+            return;
+        }
+        try {
+            imageModel.getRecipe().save(Paths.get(path));
+        } catch (IOException e) {
+            mainView.showError("Recipe not saved", e.getMessage());
+        }
+    }
+
+    /** Get recipe file from user and replay it against the original image (it replaces current edits) */
+    public void handleLoadRecipe() {
+        String path = mainView.getRecipeSourceFromUser();
+        if(path == null) {
+            return;
+        }
+        EditRecipe recipe;
+        try {
+            recipe = EditRecipe.load(Paths.get(path));
+        } catch (IOException e) {
+            mainView.showError("Recipe not loaded", e.getMessage());
+            return;
+        }
+
+        BufferedImage resultImage = recipe.apply(imageModel.getOriginalImage(), imageModel.getOriginalScale());
+        addToUndoStack(imageModel.getProcessedImage());
+        imageModel.setProcessedImage(resultImage);
+        imageModel.setRecipe(recipe);
+        showDisplayedImage();
+    }
+
+    /** Push current processed image to the undo history, pull image from the redo history */
     public void handleRedo() {
-        if(redoStack.empty()) {
+        if(!history.canRedo()) {
             return;
         }
 
-        undoStack.push(imageModel.getProcessedImage());
+        BufferedImage next = history.redo(imageModel.getProcessedImage());
+        undoRecipes.push(currentRecipeState());
+        restoreRecipeState(redoRecipes.pop());
+        trimRecipes();
         mainView.enableUndo(true);
-
-        BufferedImage next = redoStack.pop();
-        if(redoStack.empty()) {
+        if(!history.canRedo()) {
             mainView.enableRedo(false);
         }
 
         imageModel.setProcessedImage(next);
-        mainView.displayImage(next);
+        showDisplayedImage();
+        mainView.showStatus(history.getReport());
     }
 
-    /** Push current processed image to the redo stack, pull image from the undo stack */
+    /** Push current processed image to the redo history, pull image from the undo history */
     public void handleUndo() {
-        if(undoStack.empty()) {
+        if(!history.canUndo()) {
             return;
         }
 
-        redoStack.push(imageModel.getProcessedImage());
+        BufferedImage prev = history.undo(imageModel.getProcessedImage());
+        redoRecipes.push(currentRecipeState());
+        restoreRecipeState(undoRecipes.pop());
+        trimRecipes();
         mainView.enableRedo(true);
-
-        BufferedImage prev = undoStack.pop();
-        if(undoStack.empty()) {
+        if(!history.canUndo()) {
             mainView.enableUndo(false);
         }
 
         imageModel.setProcessedImage(prev);
-        mainView.displayImage(prev);
+        showDisplayedImage();
+        mainView.showStatus(history.getReport());
     }
 
 
@@ -117,68 +286,398 @@ public class AppController {
         }
 
         addToUndoStack(input);
-        BufferedImage resultImage = ImageProcessing.RGBtoGray(input);
+        GrayScaleOperation operation = new GrayScaleOperation();
+        BufferedImage resultImage = resultCache.computeIfAbsent(resultKey(1, operation),
+                () -> operation.apply(input, imageModel.getOriginalScale()));
         imageModel.setProcessedImage(resultImage);
-        mainView.displayImage(resultImage);
+        appendToRecipe(operation);
+        showDisplayedImage();
+        mainView.showStatus(resultCache.getReport());
     }
 
     /** Filter processed image with the specified kernel */
-    public void handleFiltration(float[] kernelElements) {
+    public void handleFiltration(ConvolutionKernel kernel) {
+        renderScheduler.cancel();
         BufferedImage input = imageModel.getProcessedImage();
         addToUndoStack(input);
-        BufferedImage resultImage = ImageProcessing.linearFiltration(input, kernelElements);
+        // preview of the large image is filtered with kernel reduced to its resolution
+        FiltrationOperation operation = new FiltrationOperation(kernel);
+        BufferedImage resultImage = resultCache.computeIfAbsent(resultKey(1, operation),
+                () -> operation.apply(input, imageModel.getOriginalScale()));
         imageModel.setProcessedImage(resultImage);
-        mainView.displayImage(resultImage);
+        appendToRecipe(operation);
+        showDisplayedImage();
+        mainView.showStatus(resultCache.getReport());
     }
 
-    /** Change processed image brightness with specified offset */
-    public void handleBrightness(int offset) {
+    /**
+     * Render filtration preview in the background and display it over the processed image, only the newest render
+     * is displayed. Only the visible region is filtered (together with the kernel halo, so its pixels are the same
+     * as of the full pass), zoomed out image is previewed on the downsampled copy with the screen resolution.
+     * The processed image does not change until the filtration is applied.
+     */
+    public void handleFiltrationPreview(ConvolutionKernel kernel) {
+        if(imageModel.getProcessedImage() == null) {
+            // the dialog can be opened before any image is loaded
+            return;
+        }
+        int downsampling = zoomDownsampling();
+        BufferedImage input = imageModel.getPreviewImage(downsampling);
+        double scale = imageModel.getOriginalScale() / downsampling;
+        FiltrationOperation operation = new FiltrationOperation(kernel);
+
+        // the view works in full resolution coordinates, input is reduced by the preview and by the large image
+        int factor = downsampling * imageModel.getOriginalDownsampling();
+        Rectangle visible = mainView.getVisibleImageRegion();
+        int fromX = Math.max(0, Math.floorDiv(visible.x, factor));
+        int fromY = Math.max(0, Math.floorDiv(visible.y, factor));
+        int toX = Math.min(input.getWidth(), Math.floorDiv(visible.x + visible.width + factor - 1, factor));
+        int toY = Math.min(input.getHeight(), Math.floorDiv(visible.y + visible.height + factor - 1, factor));
+        if(fromX >= toX || fromY >= toY) {
+            return;
+        }
+        Rectangle region = new Rectangle(fromX, fromY, toX - fromX, toY - fromY);
+
+        renderScheduler.submit(
+                () -> ImageProcessing.mapRegion(input, region, operation.getHalo(scale), image -> operation.apply(image, scale)),
+                resultImage -> {
+                    mainView.displayOverlay(resultImage, new Rectangle(region.x * factor, region.y * factor,
+                            region.width * factor, region.height * factor));
+                    mainView.showStatus(String.format(
+                            "Filter preview of %dx%d pixels: %d ms (max %d ms), superseded renders: %d",
+                            region.width,
+                            region.height,
+                            renderScheduler.getLastLatencyMillis(),
+                            renderScheduler.getMaxLatencyMillis(),
+                            renderScheduler.getSupersededCount()
+                    ));
+                }
+        );
+    }
+
+    /**
+     * Change processed image brightness with specified offset.
+     * @param adjusting True if user is still changing the value (only preview is rendered then)
+     */
+    public void handleBrightness(int offset, boolean adjusting) {
         imageModel.setDisplayedImageOffset(offset);
-        handleColor();
+        handleColor(adjusting);
     }
 
-    /** Change processed image contrast with specified scale */
-    public void handleContrast(float scale) {
+    /**
+     * Change processed image contrast with specified scale.
+     * @param adjusting True if user is still changing the value (only preview is rendered then)
+     */
+    public void handleContrast(float scale, boolean adjusting) {
         imageModel.setDisplayedImageScale(scale);
-        handleColor();
+        handleColor(adjusting);
     }
 
-    private void handleColor() {
-        BufferedImage input = imageModel.getProcessedImage();
-        BufferedImage resultImage = ImageProcessing.colorAdjustment(
-                input,
-                imageModel.getDisplayedImageOffset(),
-                imageModel.getDisplayedImageScale()
+    /**
+     * Render color adjustment of the processed image in the background, only the newest render is displayed.
+     * Preview is computed on downsampled copy of the processed image, that has roughly the size of the visible area.
+     */
+    private void handleColor(boolean preview) {
+        int downsampling = preview ? previewDownsampling() : 1;
+        BufferedImage input = imageModel.getPreviewImage(downsampling);
+        int offset = imageModel.getDisplayedImageOffset();
+        float scale = imageModel.getDisplayedImageScale();
+        ResultCache.Key key = resultKey(downsampling, new ColorAdjustmentOperation(offset, scale));
+
+        long request = ++colorRequestsCount;
+        displayedImageStale = true;
+        renderScheduler.submit(
+                () -> colorAdjustment(input, offset, scale, key),
+                resultImage -> {
+                    previewDisplayed = downsampling > 1;
+                    if(previewDisplayed) {
+                        mainView.displayPreview(resultImage, downsampling * imageModel.getOriginalDownsampling());
+                    } else {
+                        imageModel.setDisplayedImage(resultImage);
+                        displayedImageStale = request != colorRequestsCount;
+                        showDisplayedImage();
+                    }
+                    mainView.showStatus(String.format(
+                            "Render latency: %d ms (max %d ms), superseded renders: %d, cached results: %d hits / %d misses",
+                            renderScheduler.getLastLatencyMillis(),
+                            renderScheduler.getMaxLatencyMillis(),
+                            renderScheduler.getSupersededCount(),
+                            resultCache.getHitCount(),
+                            resultCache.getMissCount()
+                    ));
+                }
         );
-        imageModel.setDisplayedImage(resultImage);
-        mainView.displayImage(resultImage);
+    }
+
+    /**
+     * Compute downsampling factor for the preview of the whole image. Its resolution is at least the lower of the zoom
+     * and the scale, at which the image covers the viewport (1/factor is rounded up from that scale). Zoomed out image
+     * gets at least the screen resolution, while the preview of zoomed in image stays at the covering scale
+     * (it is magnified on the screen), so its cost does not grow with the zoom.
+     */
+    private int previewDownsampling() {
+        BufferedImage image = imageModel.getProcessedImage();
+        Dimension viewport = mainView.getViewportSize();
+        double fitScale = Math.max(
+                viewport.getWidth() / image.getWidth(),
+                viewport.getHeight() / image.getHeight()
+        );
+        // zoom is relative to the full resolution image, processed image can be its reduced preview
+        double zoom = mainView.getZoom() * imageModel.getOriginalDownsampling();
+        double scale = Math.min(1, Math.min(zoom, fitScale));
+        if(scale <= 0) {
+            return 1;
+        }
+        return Math.max(1, (int) Math.floor(1 / scale));
+    }
+
+
+    /**
+     * Compute downsampling factor for the preview of the visible region, so that preview is not smaller
+     * than the image on the screen.
+     */
+    private int zoomDownsampling() {
+        double zoom = mainView.getZoom() * imageModel.getOriginalDownsampling();
+        if(zoom <= 0 || zoom >= 1) {
+            return 1;
+        }
+        return Math.max(1, (int) Math.floor(1 / zoom));
     }
 
 
     /** Save current displayed image as processed image */
     public void applyChanges() {
+        renderScheduler.cancel();
+        if(displayedImageStale) {
+            int offset = imageModel.getDisplayedImageOffset();
+            float scale = imageModel.getDisplayedImageScale();
+            imageModel.setDisplayedImage(colorAdjustment(imageModel.getProcessedImage(), offset, scale,
+                    resultKey(1, new ColorAdjustmentOperation(offset, scale))));
+            displayedImageStale = false;
+        }
+        previewDisplayed = false;
+        int offset = imageModel.getDisplayedImageOffset();
+        float scale = imageModel.getDisplayedImageScale();
         imageModel.setDisplayedImageScale(1f);
         imageModel.setDisplayedImageOffset(0);
         addToUndoStack(imageModel.getProcessedImage());
         imageModel.setProcessedImage(imageModel.getDisplayedImage());
+        if(offset != 0 || scale != 1) {
+            appendToRecipe(new ColorAdjustmentOperation(offset, scale));
+        }
     }
 
     public void closedDialogWindow() {
+        renderScheduler.cancel();
+        displayedImageStale = false;
         imageModel.setDisplayedImageScale(1f);
         imageModel.setDisplayedImageOffset(0);
-        mainView.displayImage(imageModel.getProcessedImage());
+        imageModel.setDisplayedImage(imageModel.getProcessedImage());
+        previewDisplayed = false;
+        showDisplayedImage();
     }
 
+    /**
+     * Drop filtration preview, which was not applied.
+     */
+    public void closedFiltrationDialog() {
+        renderScheduler.cancel();
+        mainView.displayOverlay(null, null);
+    }
+
+    /**
+     * Exit after pending saves are finished (so saved files are complete), pending loads are cancelled.
+     * The window is disabled meanwhile, but it shows the progress and the saving can be cancelled.
+     */
     public void exit() {
-        System.exit(0);
+        if(exiting) {
+            return;
+        }
+        exiting = true;
+        renderScheduler.cancel();
+        mainView.disableActions();
+        transfers.shutdown(EXIT_TRANSFER_TIMEOUT_SECONDS, () -> {
+            history.close();
+            System.exit(0);
+        });
+    }
+
+
+    /**
+     * Display the displayed image of the model, preview of large image is displayed with source of full resolution
+     * regions rendered by the recipe (and by the color adjustment, which is displayed but not applied yet).
+     */
+    private void showDisplayedImage() {
+        RegionDecoder source = imageModel.getOriginalSource();
+        if(source == null) {
+            mainView.displayImage(imageModel.getDisplayedPyramid());
+            return;
+        }
+        EditRecipe recipe = imageModel.getRecipe();
+        int offset = imageModel.getDisplayedImageOffset();
+        float scale = imageModel.getDisplayedImageScale();
+        if(offset != 0 || scale != 1) {
+            recipe = recipe.with(new ColorAdjustmentOperation(offset, scale));
+        }
+        mainView.displayImage(imageModel.getDisplayedPyramid(), imageModel.getOriginalDownsampling(),
+                new RecipeRegionSource(source, recipe));
     }
 
+    /**
+     * Return key of the result of the operation applied to the processed image (or its preview).
+     * @param downsampling downsampling factor of the preview (1 for the processed image itself)
+     */
+    private ResultCache.Key resultKey(int downsampling, EditOperation operation) {
+        return resultCache.key(currentOriginal, imageModel.getRecipe(), downsampling, operation);
+    }
+
+    /**
+     * Change brightness and contrast of the image or return cached result (it can be called on any thread).
+     */
+    private BufferedImage colorAdjustment(BufferedImage input, int offset, float scale, ResultCache.Key key) {
+        if(offset == 0 && scale == 1) {
+            return input;
+        }
+        return resultCache.computeIfAbsent(key, () -> ImageProcessing.colorAdjustment(input, offset, scale));
+    }
 
     private void addToUndoStack(BufferedImage prevImage) {
-        undoStack.push(prevImage);
+        history.push(prevImage);
+        undoRecipes.push(currentRecipeState());
+        redoRecipes.clear();
+        trimRecipes();
+        mainView.enableUndo(true);
 
         mainView.enableRedo(false);
-        redoStack.clear();
+    }
+
+    private void appendToRecipe(EditOperation operation) {
+        imageModel.setRecipe(imageModel.getRecipe().with(operation));
+    }
+
+    private RecipeState currentRecipeState() {
+        return new RecipeState(currentOriginal, imageModel.getRecipe());
+    }
+
+    private void restoreRecipeState(RecipeState state) {
+        OriginalState original = state.original;
+        switchOriginal(original);
+        if(original == null) {
+            imageModel.restoreRecipe(null, null, 1, state.recipe);
+        } else {
+            imageModel.restoreRecipe(original.image, original.source, original.downsampling, state.recipe);
+        }
+    }
+
+    /**
+     * Make the original current. Image of the previous current original is stored by the history (so it counts
+     * to its budget), it is restored when the original becomes current again.
+     */
+    private void switchOriginal(OriginalState original) {
+        if(original == currentOriginal) {
+            return;
+        }
+        if(currentOriginal != null && currentOriginal.image != null) {
+            if(currentOriginal.stored == null) {
+                currentOriginal.stored = history.storeImage(currentOriginal.image);
+            }
+            currentOriginal.image = null;
+        }
+        if(original != null && original.image == null) {
+            original.image = history.restore(original.stored);
+        }
+        currentOriginal = original;
+    }
+
+    /**
+     * Drop recipes of the oldest states, which were evicted from the history (and redo states cleared by new edit).
+     * Originals, which are not used by any state anymore, are released from the history and their sources closed.
+     */
+    private void trimRecipes() {
+        while(undoRecipes.size() > history.getUndoCount()) {
+            undoRecipes.removeLast();
+        }
+        while(redoRecipes.size() > history.getRedoCount()) {
+            redoRecipes.removeLast();
+        }
+
+        Set<OriginalState> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        used.add(currentOriginal);
+        for(RecipeState state : undoRecipes) {
+            used.add(state.original);
+        }
+        for(RecipeState state : redoRecipes) {
+            used.add(state.original);
+        }
+        for(Iterator<OriginalState> it = originals.iterator(); it.hasNext(); ) {
+            OriginalState original = it.next();
+            if(!used.contains(original)) {
+                it.remove();
+                release(original);
+            }
+        }
+    }
+
+    private void release(OriginalState original) {
+        if(original.stored != null) {
+            history.release(original.stored);
+        }
+        if(original.source != null) {
+            try {
+                original.source.close();
+            } catch (IOException e) {
+                // nothing is read from the source anymore
+            }
+        }
+    }
+
+
+    /**
+     * Loaded image or reduced preview of the large image with its full resolution source.
+     */
+    private static class LoadedImage {
+        final BufferedImage image;
+        final RegionDecoder source;
+        final int downsampling;
+
+        LoadedImage(BufferedImage image, RegionDecoder source, int downsampling) {
+            this.image = image;
+            this.source = source;
+            this.downsampling = downsampling;
+        }
+    }
+
+    /**
+     * Loaded original image (with its full resolution source, if it is reduced preview) shared by all history
+     * states edited from it. Only the current original holds its image, image of other originals is stored
+     * by the history.
+     */
+    private static class OriginalState {
+        final RegionDecoder source;
+        final int downsampling;
+        /** Image of the current original, null otherwise */
+        BufferedImage image;
+        /** Image stored by the history, null until the original stops being current for the first time */
+        EditHistory.StoredImage stored;
+
+        OriginalState(BufferedImage image, RegionDecoder source, int downsampling) {
+            this.image = image;
+            this.source = source;
+            this.downsampling = downsampling;
+        }
+    }
+
+    /**
+     * Original (null before the first image is loaded) with recipe of one history state.
+     */
+    private static class RecipeState {
+        final OriginalState original;
+        final EditRecipe recipe;
+
+        RecipeState(OriginalState original, EditRecipe recipe) {
+            this.original = original;
+            this.recipe = recipe;
+        }
     }
 
 
@@ -0,0 +1,243 @@
+package controller;
+
+import model.recipe.ColorAdjustmentOperation;
+import model.recipe.EditRecipe;
+import model.recipe.FiltrationOperation;
+import model.recipe.GrayScaleOperation;
+import utils.ConvolutionKernel;
+import utils.EncoderSettings;
+import utils.IOManager;
+import utils.TileExecutor;
+import views.modals.FiltrationDialog;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless command line mode, which applies chain of operations to all images in the directory tree.
+ * Output files keep relative paths of input files. Files are processed by {@link BatchPipeline},
+ * every image is processed on a single thread and images are processed in parallel.
+ * Operations are collected into an {@link EditRecipe}, so they are fused the same way as recipes of the editor.
+ */
+public class BatchController {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: java -jar photo-editor.jar batch --input DIR --output DIR [options] [operations]",
+            "Operations (applied in the given order):",
+            "  --gray                   convert to gray scale",
+            "  --gray-weights W         convert to gray scale with weights linear (as --gray), rec601 or rec709",
+            "  --filter NAME            linear filtration with preset of filtration dialog",
+            "  --kernel V1,V2,...       linear filtration with square kernel (normalized by the sum of elements)",
+            "  --brightness OFFSET      change brightness (-255..255)",
+            "  --contrast SCALE         change contrast (e.g. 1.5)",
+            "  --recipe FILE            all edits of recipe saved by the editor",
+            "Options:",
+            "  --format jpg|png|bmp     output format (default jpg)",
+            "  --quality Q              JPEG quality 0..1 (default 0.75)",
+            "  --progressive            write progressive JPEG",
+            "  --compression LEVEL      PNG compression level 0..9 (default 4)",
+            "  --threads N              count of processing threads (default count of processors)",
+            "  --io-threads N           count of decoding and of encoding threads (default half of processors)");
+
+    private static final String[] INPUT_EXTENSIONS = { ".jpg", ".jpeg", ".png", ".bmp", ".gif" };
+    private static final long PROGRESS_PERIOD_SECONDS = 5;
+
+
+    /**
+     * Run batch processing with command line arguments and return process exit code.
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        Path input = null;
+        Path output = null;
+        String format = "jpg";
+        float quality = EncoderSettings.DEFAULT_JPEG_QUALITY;
+        boolean progressive = false;
+        int compression = EncoderSettings.DEFAULT_PNG_COMPRESSION;
+        int threads = processors;
+        int ioThreads = Math.max(1, processors / 2);
+        EditRecipe operations = EditRecipe.empty();
+        EncoderSettings settings;
+
+        try {
+            for(int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if(option.equals("--gray")) {
+                    operations = operations.with(new GrayScaleOperation());
+                    continue;
+                }
+                if(option.equals("--progressive")) {
+                    progressive = true;
+                    continue;
+                }
+                if(i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + option);
+                }
+                String value = args[++i];
+                switch(option) {
+                    case "--input" -> input = Paths.get(value);
+                    case "--output" -> output = Paths.get(value);
+                    case "--format" -> format = value.toLowerCase(Locale.ROOT);
+                    case "--quality" -> quality = Float.parseFloat(value);
+                    case "--compression" -> compression = Integer.parseInt(value);
+                    case "--threads" -> threads = Integer.parseInt(value);
+                    case "--io-threads" -> ioThreads = Integer.parseInt(value);
+                    case "--gray-weights" -> operations = operations.with(
+                            new GrayScaleOperation(GrayScaleOperation.parseWeights(value)));
+                    case "--filter" -> operations = operations.with(new FiltrationOperation(presetKernel(value)));
+                    case "--kernel" -> operations = operations.with(new FiltrationOperation(parseKernel(value)));
+                    case "--brightness" -> operations = operations.with(
+                            new ColorAdjustmentOperation(Integer.parseInt(value), 1));
+                    case "--contrast" -> operations = operations.with(
+                            new ColorAdjustmentOperation(0, Float.parseFloat(value)));
+                    case "--recipe" -> operations = operations.then(loadRecipe(value));
+                    default -> throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            if(input == null || output == null) {
+                throw new IllegalArgumentException("Input and output directories are required");
+            }
+            settings = switch(EncoderSettings.Format.forExtension(format)) {
+                case JPEG -> EncoderSettings.jpeg(quality, progressive);
+                case PNG -> EncoderSettings.png(compression);
+                case BMP -> EncoderSettings.of(EncoderSettings.Format.BMP);
+            };
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        List<Path> files;
+        try {
+            files = findImages(input);
+        } catch (IOException e) {
+            System.err.println("Failed to list input directory: " + e);
+            return 1;
+        }
+
+        // images are processed in parallel, so every image is processed on a single thread
+        TileExecutor.setParallelism(1);
+        BatchPipeline pipeline = new BatchPipeline(ioThreads, threads, ioThreads, 2 * threads);
+        Path inputRoot = input;
+        Path outputRoot = output;
+        EncoderSettings outputSettings = settings;
+        EditRecipe chain = operations;
+
+        System.out.println("Processing " + files.size() + " images with " + threads + " processing threads");
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "batch-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        progress.scheduleAtFixedRate(() -> report(pipeline, files.size(), start),
+                PROGRESS_PERIOD_SECONDS, PROGRESS_PERIOD_SECONDS, TimeUnit.SECONDS);
+        try {
+            pipeline.run(
+                    files,
+                    file -> IOManager.loadImage(file.toString()),
+                    chain::render,
+                    (image, file) -> save(image, outputFile(inputRoot, outputRoot, file), outputSettings)
+            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } finally {
+            progress.shutdownNow();
+        }
+
+        report(pipeline, files.size(), start);
+        return pipeline.getFailedCount() == 0 ? 0 : 1;
+    }
+
+
+    private static EditRecipe loadRecipe(String path) {
+        try {
+            return EditRecipe.load(Paths.get(path));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to load recipe " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static ConvolutionKernel presetKernel(String name) {
+        Map<String, ConvolutionKernel> presets = FiltrationDialog.getPresetKernels();
+        ConvolutionKernel kernel = presets.get(name);
+        if(kernel == null) {
+            throw new IllegalArgumentException("Unknown filter " + name + ", available: " + presets.keySet());
+        }
+        return kernel;
+    }
+
+    private static ConvolutionKernel parseKernel(String values) {
+        String[] elements = values.split(",");
+        float[] data = new float[elements.length];
+        for(int i = 0; i < elements.length; i++) {
+            data[i] = Float.parseFloat(elements[i].trim());
+        }
+        return ConvolutionKernel.square(data).normalized();
+    }
+
+    private static List<Path> findImages(Path root) throws IOException {
+        try(Stream<Path> paths = Files.walk(root)) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .filter(path -> {
+                        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+                        for(String extension : INPUT_EXTENSIONS) {
+                            if(name.endsWith(extension)) {
+                                return true;
+                            }
+                        }
+                        return false;
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Return output path (without extension of the output format) with the same path relative to output directory
+     * as input file. Extension of the input file is kept (a.png is saved as a.png.jpg), so that inputs differing
+     * only by extension do not overwrite each other.
+     */
+    private static Path outputFile(Path inputRoot, Path outputRoot, Path file) {
+        return outputRoot.resolve(inputRoot.relativize(file));
+    }
+
+    private static void save(BufferedImage image, Path file, EncoderSettings settings) throws IOException {
+        Files.createDirectories(file.getParent());
+        if(settings.getFormat() == EncoderSettings.Format.JPEG && image.getColorModel().hasAlpha()) {
+            // JPEG writer does not support alpha channel
+            BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = opaque.createGraphics();
+            g2d.drawImage(image, 0, 0, Color.WHITE, null);
+            g2d.dispose();
+            image = opaque;
+        }
+        IOManager.saveImage(image, file.toString(), settings, null);
+    }
+
+    private static void report(BatchPipeline pipeline, int total, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long completed = pipeline.getCompletedCount();
+        double megapixels = pipeline.getCompletedPixels() / 1e6;
+        System.out.printf(Locale.ROOT, "%d/%d images, %d failed, %.1f s, %.2f images/s, %.1f MP/s%n",
+                completed, total, pipeline.getFailedCount(), seconds,
+                completed / Math.max(seconds, 1e-9), megapixels / Math.max(seconds, 1e-9));
+    }
+}
@@ -0,0 +1,198 @@
+package controller;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Three-stage pipeline for batch processing of image files: decode -> process -> encode.
+ * <p>
+ * Every stage runs on its own threads and stages are connected by bounded queues, so reading and writing
+ * of files overlaps with processing and count of images held in memory is bounded by the queue capacities.
+ * A file that fails in any stage (with an exception or an error, e.g. OutOfMemoryError) is counted as failed
+ * and the pipeline continues with other files. End markers are passed to the next stage even if a thread
+ * of the stage is interrupted, so the pipeline cannot hang waiting for them.
+ */
+public class BatchPipeline {
+
+    /**
+     * Reads image from the file.
+     */
+    @FunctionalInterface
+    public interface Decoder {
+        BufferedImage decode(Path file) throws Exception;
+    }
+
+    /**
+     * Writes processed image of the source file.
+     */
+    @FunctionalInterface
+    public interface Encoder {
+        void encode(BufferedImage image, Path sourceFile) throws Exception;
+    }
+
+
+    /** Marks the end of the queue */
+    private static final Item END = new Item(null, null, 0);
+
+    private final int decodeThreads;
+    private final int processThreads;
+    private final int encodeThreads;
+    private final int queueCapacity;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong completedPixels = new AtomicLong();
+
+
+    /**
+     * @param decodeThreads count of threads reading files
+     * @param processThreads count of threads processing images
+     * @param encodeThreads count of threads writing files
+     * @param queueCapacity capacity of every queue between stages
+     */
+    public BatchPipeline(int decodeThreads, int processThreads, int encodeThreads, int queueCapacity) {
+        this.decodeThreads = Math.max(1, decodeThreads);
+        this.processThreads = Math.max(1, processThreads);
+        this.encodeThreads = Math.max(1, encodeThreads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+
+    /**
+     * Process all files and return when all of them are written (or failed).
+     */
+    public void run(List<Path> files, Decoder decoder, UnaryOperator<BufferedImage> process, Encoder encoder)
+            throws InterruptedException {
+        ConcurrentLinkedQueue<Path> pending = new ConcurrentLinkedQueue<>(files);
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> processed = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger runningDecoders = new AtomicInteger(decodeThreads);
+        AtomicInteger runningProcessors = new AtomicInteger(processThreads);
+
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < decodeThreads; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    Path file;
+                    while((file = pending.poll()) != null) {
+                        try {
+                            BufferedImage image = decoder.decode(file);
+                            decoded.put(new Item(file, image, (long) image.getWidth() * image.getHeight()));
+                        } catch (InterruptedException e) {
+                            return;
+                        } catch (Exception | Error e) {
+                            fail(file, "decode", e);
+                        }
+                    }
+                } finally {
+                    endStage(runningDecoders, decoded, processThreads);
+                }
+            }, "batch-decode-" + i));
+        }
+        for(int i = 0; i < processThreads; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    Item item;
+                    while((item = decoded.take()) != END) {
+                        try {
+                            processed.put(new Item(item.file, process.apply(item.image), item.pixels));
+                        } catch (RuntimeException | Error e) {
+                            fail(item.file, "process", e);
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    endStage(runningProcessors, processed, encodeThreads);
+                }
+            }, "batch-process-" + i));
+        }
+        for(int i = 0; i < encodeThreads; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    Item item;
+                    while((item = processed.take()) != END) {
+                        try {
+                            encoder.encode(item.image, item.file);
+                            completed.incrementAndGet();
+                            completedPixels.addAndGet(item.pixels);
+                        } catch (Exception | Error e) {
+                            fail(item.file, "encode", e);
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }, "batch-encode-" + i));
+        }
+
+        for(Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for(Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for(Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+    }
+
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** Count of pixels of completed images (measured on decoded images) */
+    public long getCompletedPixels() {
+        return completedPixels.get();
+    }
+
+
+    private void fail(Path file, String stage, Throwable e) {
+        failed.incrementAndGet();
+        System.err.println("Failed to " + stage + " " + file + ": " + e);
+    }
+
+    /**
+     * The last finished thread of the stage passes end markers to all threads of the next stage.
+     */
+    private static void endStage(AtomicInteger running, BlockingQueue<Item> next, int nextThreads) {
+        if(running.decrementAndGet() != 0) {
+            return;
+        }
+        try {
+            for(int i = 0; i < nextThreads; i++) {
+                next.put(END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static class Item {
+        final Path file;
+        final BufferedImage image;
+        final long pixels;
+
+        Item(Path file, BufferedImage image, long pixels) {
+            this.file = file;
+            this.image = image;
+            this.pixels = pixels;
+        }
+    }
+}
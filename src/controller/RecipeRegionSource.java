@@ -0,0 +1,66 @@
+package controller;
+
+import model.recipe.EditRecipe;
+import utils.RegionDecoder;
+import views.viewarea.RegionSource;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Full resolution regions of the edited large image: region is decoded from the original file together with halo
+ * needed by the recipe operations (neighbour pixels of convolutions), the recipe is applied with the resolution
+ * of the subsampling and the halo is cropped, so the region is the same as the part of the whole edited image.
+ */
+class RecipeRegionSource implements RegionSource {
+
+    private final RegionDecoder decoder;
+    private final EditRecipe recipe;
+
+
+    RecipeRegionSource(RegionDecoder decoder, EditRecipe recipe) {
+        this.decoder = decoder;
+        this.recipe = recipe;
+    }
+
+
+    @Override
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    @Override
+    public BufferedImage readRegion(Rectangle region, int subsampling) throws IOException {
+        double scale = 1.0 / subsampling;
+        Rectangle bounds = new Rectangle(0, 0, decoder.getWidth(), decoder.getHeight());
+        Rectangle clipped = region.intersection(bounds);
+        // halo in full resolution pixels is multiple of the subsampling, so decoded pixels stay aligned
+        int halo = recipe.getHalo(scale) * subsampling;
+        Rectangle expanded = new Rectangle(clipped.x - halo, clipped.y - halo,
+                clipped.width + 2 * halo, clipped.height + 2 * halo).intersection(bounds);
+
+        BufferedImage rendered = recipe.apply(decoder.readRegion(expanded, subsampling), scale);
+        if(expanded.equals(clipped)) {
+            return rendered;
+        }
+
+        int x = (clipped.x - expanded.x) / subsampling;
+        int y = (clipped.y - expanded.y) / subsampling;
+        int width = ceilDiv(clipped.width, subsampling);
+        int height = ceilDiv(clipped.height, subsampling);
+        BufferedImage cropped = new BufferedImage(rendered.getColorModel(),
+                rendered.getRaster().createCompatibleWritableRaster(width, height), rendered.isAlphaPremultiplied(), null);
+        cropped.setData(rendered.getRaster().createChild(x, y, width, height, 0, 0, null));
+        return cropped;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -0,0 +1,143 @@
+package controller;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Single-slot render scheduler ("latest request wins") for interactive adjustments.
+ * <p>
+ * Renders are computed on a dedicated background thread. There is at most one waiting request: submitting
+ * a new request replaces the waiting one, so superseded requests are never started. Results are published
+ * on the EDT in requests order, results of cancelled requests are dropped.
+ * <p>
+ * Because the worker never has more than one request in flight and one waiting, display is refreshed at least
+ * once per render time during continuous input and latency between the newest request and its display
+ * is bounded by two render times, regardless of the rate of incoming requests.
+ * Measured latency is available through {@link #getLastLatencyMillis()} and {@link #getMaxLatencyMillis()}.
+ * <p>
+ * Failed renders are reported to the failure listener on the EDT (failures of cancelled requests are dropped).
+ */
+public class RenderScheduler {
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "render-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Generation of the newest request */
+    private final AtomicLong generation = new AtomicLong();
+    /** Requests with generation lower or equal are cancelled */
+    private final AtomicLong cancelledGeneration = new AtomicLong();
+    private final AtomicReference<Request> waiting = new AtomicReference<>();
+
+    private final AtomicLong supersededCount = new AtomicLong();
+    private volatile long lastLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+
+    private final Consumer<RuntimeException> failureListener;
+
+
+    /**
+     * @param failureListener consumer of exceptions thrown by renders (called on EDT)
+     */
+    public RenderScheduler(Consumer<RuntimeException> failureListener) {
+        this.failureListener = failureListener;
+    }
+
+
+    /**
+     * Schedule render in the background.
+     * @param render computation of the result image (called on worker thread)
+     * @param publish consumer of the result (called on EDT, unless request was cancelled)
+     */
+    public void submit(Supplier<BufferedImage> render, Consumer<BufferedImage> publish) {
+        Request request = new Request(generation.incrementAndGet(), render, publish);
+        Request previous = waiting.getAndSet(request);
+        if(previous != null) {
+            supersededCount.incrementAndGet();
+        } else {
+            worker.execute(this::drain);
+        }
+    }
+
+    /**
+     * Drop waiting request and result of running render.
+     */
+    public void cancel() {
+        cancelledGeneration.set(generation.get());
+        if(waiting.getAndSet(null) != null) {
+            supersededCount.incrementAndGet();
+        }
+    }
+
+
+    public long getLastLatencyMillis() {
+        return lastLatencyNanos / 1_000_000;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyNanos / 1_000_000;
+    }
+
+    public long getSupersededCount() {
+        return supersededCount.get();
+    }
+
+
+    private void drain() {
+        Request request = waiting.getAndSet(null);
+        if(request == null) {
+            return;
+        }
+
+        BufferedImage result;
+        try {
+            result = request.render.get();
+        } catch (RuntimeException e) {
+            publish(request, () -> failureListener.accept(e));
+            return;
+        }
+        publish(request, () -> {
+            long latency = System.nanoTime() - request.submitTime;
+            lastLatencyNanos = latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            request.publish.accept(result);
+        });
+    }
+
+    /**
+     * Run the action on EDT, unless the request is cancelled before.
+     */
+    private void publish(Request request, Runnable action) {
+        if(request.generation <= cancelledGeneration.get()) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            if(request.generation <= cancelledGeneration.get()) {
+                return;
+            }
+            action.run();
+        });
+    }
+
+
+    private static class Request {
+        final long generation;
+        final long submitTime = System.nanoTime();
+        final Supplier<BufferedImage> render;
+        final Consumer<BufferedImage> publish;
+
+        Request(long generation, Supplier<BufferedImage> render, Consumer<BufferedImage> publish) {
+            this.generation = generation;
+            this.render = render;
+            this.publish = publish;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package controller;
+
+import utils.IOManager;
+import views.MainView;
+
+import javax.swing.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Background executor of image loading and saving, so the window is not blocked by decoding and encoding
+ * and the user can keep editing while the image is being saved.
+ * <p>
+ * Transfers run one at a time on a dedicated thread in the submission order (saves of the same file do not
+ * interleave, loading waits for the previous saving). Progress of the running transfer is shown through
+ * {@link MainView#showProgress(String, int)} and results are published on the EDT.
+ * {@link #cancelAll()} aborts the running transfer and drops the waiting ones.
+ * <p>
+ * On exit loads are cancelled and saves are finished ({@link #shutdown(long, Runnable)}), waiting for them
+ * runs on a background thread, so the window keeps showing the progress.
+ */
+class TransferScheduler {
+
+    /** Max time of waiting for the saving cancelled on exit timeout */
+    private static final long CANCEL_TIMEOUT_SECONDS = 5;
+
+    /**
+     * Loading or saving computed on the transfer thread.
+     */
+    @FunctionalInterface
+    interface Task<T> {
+        /**
+         * @param transfer progress reporting and cancellation of the task
+         */
+        T run(IOManager.Transfer transfer) throws Exception;
+    }
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private MainView mainView;
+
+    /** Count of submitted and not finished transfers (accessed on EDT) */
+    private int pendingCount = 0;
+    /** Transfers submitted before this generation are cancelled */
+    private volatile long cancelledGeneration = 0;
+    private long generation = 0;
+    private volatile IOManager.Transfer running = null;
+    /** Running transfer, which is cancelled on exit (null if none) */
+    private volatile IOManager.Transfer runningLoad = null;
+    /** True after {@link #shutdown(long, Runnable)} */
+    private volatile boolean exiting = false;
+
+
+    void setView(MainView mainView) {
+        this.mainView = mainView;
+    }
+
+    /**
+     * Schedule transfer in the background, it has to be called on EDT.
+     * @param description short description shown with the progress (e.g. "Saving photo.jpg")
+     * @param finishOnExit true if the transfer has to be finished before exit (saving), false if it is cancelled
+     * @param task loading or saving (called on the transfer thread)
+     * @param onSuccess consumer of the result (called on EDT)
+     * @param onFailure consumer of the failure (called on EDT), cancelled transfers are reported
+     *                  as {@link CancellationException}
+     */
+    <T> void submit(String description, boolean finishOnExit, Task<T> task, Consumer<T> onSuccess,
+                    Consumer<Exception> onFailure) {
+        long submitted = ++generation;
+        pendingCount++;
+        mainView.showProgress(description, 0);
+        worker.execute(() -> {
+            IOManager.Transfer transfer = new IOManager.Transfer(new ProgressPublisher(description));
+            T result = null;
+            Exception failure = null;
+            running = transfer;
+            if(!finishOnExit) {
+                runningLoad = transfer;
+            }
+            try {
+                if(submitted <= cancelledGeneration || (exiting && !finishOnExit)) {
+                    throw new CancellationException("Transfer cancelled");
+                }
+                result = task.run(transfer);
+            } catch (Exception e) {
+                failure = e;
+            } catch (OutOfMemoryError e) {
+                failure = new Exception("Not enough memory", e);
+            } finally {
+                running = null;
+                runningLoad = null;
+            }
+
+            T finalResult = result;
+            Exception finalFailure = failure;
+            SwingUtilities.invokeLater(() -> {
+                pendingCount--;
+                if(pendingCount == 0) {
+                    mainView.hideProgress();
+                }
+                if(finalFailure != null) {
+                    onFailure.accept(finalFailure);
+                } else {
+                    onSuccess.accept(finalResult);
+                }
+            });
+        });
+    }
+
+    /**
+     * Abort the running transfer and cancel all waiting transfers, it has to be called on EDT.
+     */
+    void cancelAll() {
+        cancelledGeneration = generation;
+        IOManager.Transfer current = running;
+        if(current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Cancel loads and wait on a background thread until saves are finished (so saved files are complete on exit),
+     * new transfers are rejected. Saving, which is not finished in time, is cancelled and its temporary file
+     * is removed. It has to be called on EDT.
+     * @param timeoutSeconds max waiting time
+     * @param onTerminated called on the waiting thread, when transfers are finished or the time elapsed
+     */
+    void shutdown(long timeoutSeconds, Runnable onTerminated) {
+        exiting = true;
+        IOManager.Transfer load = runningLoad;
+        if(load != null) {
+            load.cancel();
+        }
+        worker.shutdown();
+        Thread waiting = new Thread(() -> {
+            try {
+                if(!worker.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                    IOManager.Transfer current = running;
+                    if(current != null) {
+                        current.cancel();
+                    }
+                    worker.awaitTermination(CANCEL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // saving, which did not react to the cancellation, leaves its temporary file
+            IOManager.deleteTemporaryFiles();
+            onTerminated.run();
+        }, "exit-wait");
+        waiting.start();
+    }
+
+
+    /**
+     * Publishes progress on EDT, only when the whole percent changes (readers report progress per few rows).
+     */
+    private class ProgressPublisher implements IOManager.ProgressListener {
+        private final String description;
+        private int lastPercent = -1;
+
+        ProgressPublisher(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public void progressChanged(float percent) {
+            int rounded = Math.max(0, Math.min(100, (int) percent));
+            if(rounded == lastPercent) {
+                return;
+            }
+            lastPercent = rounded;
+            SwingUtilities.invokeLater(() -> mainView.showProgress(description, rounded));
+        }
+    }
+}
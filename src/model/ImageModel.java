@@ -1,6 +1,13 @@
 package model;
 
+import model.recipe.EditRecipe;
+import utils.ImagePyramid;
+import utils.ImageScaling;
+import utils.RegionDecoder;
+import utils.TiledImage;
+
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.HashMap;
 
 /**
@@ -10,7 +17,20 @@ public class ImageModel {
     /** Loaded image */
     private BufferedImage originalImage = null;
     public void setOriginalImage(BufferedImage originalImage) {
+        setOriginalImage(originalImage, null, 1);
+    }
+
+    /**
+     * Set loaded image, which can be reduced preview of image too large for the heap.
+     * @param originalImage loaded image or its preview
+     * @param source decoder of full resolution regions of the preview (null if image is not reduced)
+     * @param downsampling factor by which preview is smaller than the full resolution image (1 if not reduced)
+     */
+    public void setOriginalImage(BufferedImage originalImage, RegionDecoder source, int downsampling) {
         this.originalImage = originalImage;
+        this.originalSource = source;
+        this.originalDownsampling = downsampling;
+        this.recipe = EditRecipe.empty();
         this.setProcessedImage(originalImage);
     }
 
@@ -19,6 +39,79 @@ public class ImageModel {
     }
 
 
+    /**
+     * Decoder of the full resolution image, if original image is its reduced preview (otherwise null).
+     * Edits are applied to the preview and recorded in the recipe in full resolution parameters.
+     */
+    private RegionDecoder originalSource = null;
+    private int originalDownsampling = 1;
+
+    public RegionDecoder getOriginalSource() {
+        return originalSource;
+    }
+
+    public int getOriginalDownsampling() {
+        return originalDownsampling;
+    }
+
+    /**
+     * Return resolution of the original image relative to the full resolution image (1 if it is not reduced).
+     */
+    public double getOriginalScale() {
+        return 1.0 / originalDownsampling;
+    }
+
+    /**
+     * Full resolution original image decoded to the out-of-core tiled image, it is decoded on first use
+     * and kept until the source changes.
+     */
+    private TiledImage originalTiles = null;
+    private RegionDecoder originalTilesSource = null;
+
+    /**
+     * Return full resolution image of the source as tiled image. The image is cached until other source
+     * is requested, so it can be called on the background thread (it does not access other model state).
+     * Returned image is owned by the model, it must not be closed by the caller.
+     * @param source decoder of the full resolution image ({@link #getOriginalSource()})
+     * @throws IOException if image cannot be decoded or scratch file cannot be created
+     */
+    public synchronized TiledImage getFullResolutionOriginal(RegionDecoder source) throws IOException {
+        if(originalTiles == null || originalTilesSource != source) {
+            if(originalTiles != null) {
+                originalTiles.close();
+                originalTiles = null;
+            }
+            originalTiles = TiledImage.decode(source);
+            originalTilesSource = source;
+        }
+        return originalTiles;
+    }
+
+
+    /**
+     * Edits applied to the original image, processed image is result of this recipe.
+     */
+    private EditRecipe recipe = EditRecipe.empty();
+
+    public EditRecipe getRecipe() {
+        return recipe;
+    }
+
+    public void setRecipe(EditRecipe recipe) {
+        this.recipe = recipe;
+    }
+
+    /**
+     * Restore original image and its recipe (e.g. on undo), processed image is not changed.
+     */
+    public void restoreRecipe(BufferedImage originalImage, RegionDecoder source, int downsampling, EditRecipe recipe) {
+        this.originalImage = originalImage;
+        this.originalSource = source;
+        this.originalDownsampling = downsampling;
+        this.recipe = recipe;
+    }
+
+
     /**
      * Current processed image, whose state is saved (not have to be current displayed image).
      */
@@ -26,6 +119,7 @@ public class ImageModel {
 
     public void setProcessedImage(BufferedImage processedImage) {
         this.processedImage = processedImage;
+        this.previewImage = null;
         setDisplayedImage(processedImage);
     }
 
@@ -34,6 +128,26 @@ public class ImageModel {
     }
 
 
+    /**
+     * Downsampled copy of processed image used for fast preview of adjustments. It is built lazily
+     * and cached until processed image or requested downsampling factor changes.
+     */
+    private BufferedImage previewImage = null;
+    private int previewDownsampling = 1;
+
+    /**
+     * Return processed image downsampled by specified factor.
+     * @param downsampling integer downsampling factor (1 returns processed image itself)
+     */
+    public BufferedImage getPreviewImage(int downsampling) {
+        if(previewImage == null || previewDownsampling != downsampling) {
+            previewImage = ImageScaling.downsample(processedImage, downsampling);
+            previewDownsampling = downsampling;
+        }
+        return previewImage;
+    }
+
+
     /**
      * Current displayed image, which state has been not saved yet. Displayed image became processed image,
      * if user apply changes.
@@ -41,6 +155,10 @@ public class ImageModel {
     private BufferedImage displayedImage = null;
 
     public void setDisplayedImage(BufferedImage displayedImage) {
+        if(displayedPyramid != null && displayedPyramid.getImage() != displayedImage) {
+            displayedPyramid.cancel();
+            displayedPyramid = null;
+        }
         this.displayedImage = displayedImage;
     }
 
@@ -49,6 +167,23 @@ public class ImageModel {
     }
 
 
+    /**
+     * Power-of-two pyramid of the displayed image used for zoomed out display. Levels are built lazily
+     * in the background, pyramid is replaced when displayed image changes.
+     */
+    private ImagePyramid displayedPyramid = null;
+
+    /**
+     * Return pyramid of the current displayed image (or null if there is no image).
+     */
+    public ImagePyramid getDisplayedPyramid() {
+        if(displayedPyramid == null && displayedImage != null) {
+            displayedPyramid = new ImagePyramid(displayedImage);
+        }
+        return displayedPyramid;
+    }
+
+
 
     /**
      * Stores temporary state variables for displayed image
@@ -0,0 +1,267 @@
+package model;
+
+import model.recipe.EditOperation;
+import model.recipe.EditRecipe;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of operation results, so that switching back to filter presets or brightness values
+ * that were already tried does not compute them again.
+ * <p>
+ * Result is keyed by the version of the input image and by the operation with its parameters. Processed image
+ * is result of the recipe applied to the original image, so its version is identity of the original image
+ * with the recipe (and downsampling of the preview). It stays the same after undo and redo, although restored
+ * images are new objects decompressed by the history.
+ * <p>
+ * Least recently used results are evicted, when bytes held by the cache exceed the limit
+ * ({@code photoeditor.resultCacheMegabytes} system property, default is an eighth of max heap).
+ * Results are referenced softly, so the garbage collector can drop them under memory pressure before
+ * OutOfMemoryError. Cached images are shared, they must not be modified. Methods can be called from any thread.
+ */
+public class ResultCache {
+
+    private final long budgetBytes;
+
+    /** Entries in access order, the first one is the least recently used */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Results cleared by the garbage collector */
+    private final ReferenceQueue<BufferedImage> cleared = new ReferenceQueue<>();
+    /** Identity versions of the original images (originals are not retained by the cache) */
+    private final Map<Object, Long> versions = new WeakHashMap<>();
+    private long nextVersion = 1;
+
+    private long bytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictedCount = 0;
+    private long clearedCount = 0;
+
+
+    public ResultCache() {
+        this(Long.getLong("photoeditor.resultCacheMegabytes", Runtime.getRuntime().maxMemory() / 8 / (1024 * 1024)) * 1024 * 1024);
+    }
+
+    /**
+     * @param budgetBytes max count of bytes held by cached results
+     */
+    public ResultCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+
+    /**
+     * Return key of the operation result.
+     * @param original original image, which the input image was rendered from (or object identifying it,
+     *                 if the original image itself is not kept in memory)
+     * @param recipe recipe of the input image
+     * @param downsampling downsampling factor of the input image relative to the rendered image (1 if it is not reduced)
+     * @param operation operation applied to the input image
+     */
+    public synchronized Key key(Object original, EditRecipe recipe, int downsampling, EditOperation operation) {
+        Long version = versions.get(original);
+        if(version == null) {
+            version = nextVersion++;
+            versions.put(original, version);
+        }
+        return new Key(version, recipe, downsampling, operation);
+    }
+
+    /**
+     * Return cached result or null.
+     */
+    public synchronized BufferedImage get(Key key) {
+        purgeCleared();
+        Entry entry = entries.get(key);
+        BufferedImage result = entry == null ? null : entry.get();
+        if(result == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return result;
+    }
+
+    /**
+     * Store the result, least recently used results are evicted to keep the bytes limit.
+     * Results larger than the limit are not stored.
+     */
+    public synchronized void put(Key key, BufferedImage result) {
+        purgeCleared();
+        long size = sizeOf(result);
+        if(size > budgetBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(key, result, size, cleared));
+        if(previous != null) {
+            bytes -= previous.size;
+            previous.clear();
+        }
+        bytes += size;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(bytes > budgetBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            eldest.clear();
+            bytes -= eldest.size;
+            evictedCount++;
+        }
+    }
+
+    /**
+     * Return cached result or compute and store it. The computation runs outside of the cache lock,
+     * so concurrent requests of the same result can compute it twice.
+     */
+    public BufferedImage computeIfAbsent(Key key, Supplier<BufferedImage> computation) {
+        BufferedImage result = get(key);
+        if(result == null) {
+            result = computation.get();
+            put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Remove all results (metrics are kept).
+     */
+    public synchronized void clear() {
+        for(Entry entry : entries.values()) {
+            entry.clear();
+        }
+        entries.clear();
+        bytes = 0;
+        purgeCleared();
+    }
+
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Return count of bytes held by cached results.
+     */
+    public synchronized long getBytes() {
+        purgeCleared();
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        purgeCleared();
+        return entries.size();
+    }
+
+    /**
+     * Return count of results evicted because of the bytes limit.
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Return count of results dropped by the garbage collector under memory pressure.
+     */
+    public synchronized long getClearedCount() {
+        return clearedCount;
+    }
+
+    /**
+     * Return short description of the cache state for the user.
+     */
+    public synchronized String getReport() {
+        purgeCleared();
+        return String.format(
+                "Result cache: %d hits / %d misses, %d results, %.1f MB of %.0f MB (%d evicted, %d dropped by GC)",
+                hitCount,
+                missCount,
+                entries.size(),
+                bytes / 1e6,
+                budgetBytes / 1e6,
+                evictedCount,
+                clearedCount
+        );
+    }
+
+
+    /**
+     * Remove entries whose results were cleared by the garbage collector.
+     */
+    private void purgeCleared() {
+        Entry entry;
+        while((entry = (Entry) cleared.poll()) != null) {
+            if(entries.remove(entry.key, entry)) {
+                bytes -= entry.size;
+                clearedCount++;
+            }
+        }
+    }
+
+    /**
+     * Return count of bytes of the image pixel data.
+     */
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+
+    /**
+     * Version of the input image together with the operation and its parameters.
+     */
+    public static final class Key {
+        private final long version;
+        private final EditRecipe recipe;
+        private final int downsampling;
+        private final EditOperation operation;
+
+        private Key(long version, EditRecipe recipe, int downsampling, EditOperation operation) {
+            this.version = version;
+            this.recipe = recipe;
+            this.downsampling = downsampling;
+            this.operation = operation;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return key.version == version && key.downsampling == downsampling
+                    && key.recipe.equals(recipe) && key.operation.equals(operation);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(version, recipe, downsampling, operation);
+        }
+    }
+
+    /**
+     * Softly referenced result with its size.
+     */
+    private static final class Entry extends SoftReference<BufferedImage> {
+        final Key key;
+        final long size;
+
+        Entry(Key key, BufferedImage result, long size, ReferenceQueue<BufferedImage> queue) {
+            super(result, queue);
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
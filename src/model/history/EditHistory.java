@@ -0,0 +1,447 @@
+package model.history;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Undo/redo history of edited image states with bounded memory.
+ * <p>
+ * States are compressed in the background (see {@link RasterCodec}), so pushing a state does not block the caller.
+ * When memory held by the history exceeds the byte budget, the oldest undo states (and then the most distant
+ * redo states) are written to disk and released from the heap. States are evicted (dropped) only if they cannot
+ * be written, the most recent undo state is never evicted. States waiting for compression or for writing
+ * are not counted to the budget until the background task finishes, so fast edits do not evict states
+ * that would fit.
+ * <p>
+ * Only the N most recent undo and redo states are kept on the heap, older ones are written behind to disk
+ * (see {@link SpillStore}) and released from the heap. After every undo/redo the next undo and redo targets
+ * are prefetched from disk in the background. Restore of a state that is still on disk reads raw raster from
+ * the page cache or SSD, target latency is below 250 ms for 50 MP image on local SSD
+ * ({@link #getLastRestoreMillis()} reports the measured value).
+ * <p>
+ * Images needed by the states, which are not states themselves (e.g. original images of the edits), can be stored
+ * by {@link #storeImage(BufferedImage)}. They count to the budget, but they are not evicted: they are written
+ * to disk right away and released by the owner.
+ * <p>
+ * The budget can be set by {@code photoeditor.history.budgetMB} system property (default is a quarter of max heap)
+ * and count of states kept on the heap by {@code photoeditor.history.inMemorySteps} (default 3).
+ * Files are removed by {@link #close()}. Failures of the background writes and of file removal are reported
+ * to the error listener ({@link #setErrorListener(Consumer)}).
+ */
+public class EditHistory {
+
+    private final long budgetBytes;
+    private final int inMemorySteps;
+
+    /** Undo states, the last one is the most recent */
+    private final Deque<HistoryEntry> undoEntries = new ArrayDeque<>();
+    /** Redo states, the last one is the next redo */
+    private final Deque<HistoryEntry> redoEntries = new ArrayDeque<>();
+    /** Images stored by {@link #storeImage(BufferedImage)} until they are released */
+    private final List<HistoryEntry> storedImages = new ArrayList<>();
+
+    private final SpillStore spillStore = new SpillStore(this::reportError);
+
+    private volatile Consumer<String> errorListener = message -> { };
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-worker");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private long evictedCount = 0;
+    private long lastRestoreNanos = 0;
+
+
+    public EditHistory() {
+        this(
+                Long.getLong("photoeditor.history.budgetMB", Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024)) * 1024 * 1024,
+                Integer.getInteger("photoeditor.history.inMemorySteps", 3)
+        );
+    }
+
+    /**
+     * @param budgetBytes max count of heap bytes held by stored states
+     * @param inMemorySteps count of the most recent undo (and redo) states kept on the heap
+     */
+    public EditHistory(long budgetBytes, int inMemorySteps) {
+        this.budgetBytes = budgetBytes;
+        this.inMemorySteps = Math.max(1, inMemorySteps);
+        Runtime.getRuntime().addShutdownHook(new Thread(spillStore::close, "history-cleanup"));
+    }
+
+
+    /**
+     * Set consumer of error messages, it is called on the history worker thread (or the caller thread of
+     * {@link #close()}).
+     */
+    public void setErrorListener(Consumer<String> errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Store state before the new edit. Redo states are discarded.
+     */
+    public synchronized void push(BufferedImage previous) {
+        for(HistoryEntry entry : redoEntries) {
+            entry.discard(spillStore);
+        }
+        redoEntries.clear();
+        undoEntries.addLast(store(previous));
+        enforceBudget();
+        scheduleSpilling();
+    }
+
+    /**
+     * Restore previous state.
+     * @param current current state, that becomes available for redo
+     * @return previous state
+     */
+    public synchronized BufferedImage undo(BufferedImage current) {
+        return move(undoEntries, redoEntries, current);
+    }
+
+    /**
+     * Restore next state.
+     * @param current current state, that becomes available for undo
+     * @return next state
+     */
+    public synchronized BufferedImage redo(BufferedImage current) {
+        return move(redoEntries, undoEntries, current);
+    }
+
+    /**
+     * Store image needed by states of the history (it is written to disk in the background).
+     * @return handle of the image, that is valid until {@link #release(StoredImage)}
+     */
+    public synchronized StoredImage storeImage(BufferedImage image) {
+        HistoryEntry entry = new HistoryEntry(image);
+        storedImages.add(entry);
+        entry.addPendingTask();
+        worker.execute(() -> {
+            try {
+                entry.spill(spillStore);
+            } catch (IOException e) {
+                reportError("Failed to write history state to disk: " + e.getMessage());
+                entry.compress();
+            } finally {
+                entry.removePendingTask();
+            }
+        });
+        return new StoredImage(entry);
+    }
+
+    /**
+     * Return stored image (it is read from disk or decompressed, so every call returns a new image).
+     */
+    public synchronized BufferedImage restore(StoredImage stored) {
+        return stored.entry.restore(spillStore);
+    }
+
+    /**
+     * Release memory and disk space of the stored image, the handle cannot be used anymore.
+     */
+    public synchronized void release(StoredImage stored) {
+        storedImages.remove(stored.entry);
+        stored.entry.discard(spillStore);
+    }
+
+    public synchronized boolean canUndo() {
+        return !undoEntries.isEmpty();
+    }
+
+    public synchronized boolean canRedo() {
+        return !redoEntries.isEmpty();
+    }
+
+    /**
+     * Remove all stored states.
+     */
+    public synchronized void clear() {
+        for(HistoryEntry entry : undoEntries) {
+            entry.discard(spillStore);
+        }
+        for(HistoryEntry entry : redoEntries) {
+            entry.discard(spillStore);
+        }
+        undoEntries.clear();
+        redoEntries.clear();
+    }
+
+    /**
+     * Remove all stored states and files written to disk.
+     */
+    public synchronized void close() {
+        clear();
+        for(HistoryEntry entry : storedImages) {
+            entry.discard(spillStore);
+        }
+        storedImages.clear();
+        worker.shutdownNow();
+        spillStore.close();
+    }
+
+
+    public synchronized int getUndoCount() {
+        return undoEntries.size();
+    }
+
+    public synchronized int getRedoCount() {
+        return redoEntries.size();
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Count of heap bytes held by all stored states and images.
+     */
+    public synchronized long getResidentBytes() {
+        long bytes = 0;
+        for(HistoryEntry entry : storedImages) {
+            bytes += entry.getResidentBytes();
+        }
+        for(HistoryEntry entry : undoEntries) {
+            bytes += entry.getResidentBytes();
+        }
+        for(HistoryEntry entry : redoEntries) {
+            bytes += entry.getResidentBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Mean count of heap bytes held by single stored state.
+     */
+    public synchronized long getResidentBytesPerStep() {
+        int count = undoEntries.size() + redoEntries.size();
+        long bytes = 0;
+        for(HistoryEntry entry : undoEntries) {
+            bytes += entry.getResidentBytes();
+        }
+        for(HistoryEntry entry : redoEntries) {
+            bytes += entry.getResidentBytes();
+        }
+        return count == 0 ? 0 : bytes / count;
+    }
+
+    /**
+     * Count of states that are stored only on disk.
+     */
+    public synchronized int getSpilledCount() {
+        int count = 0;
+        for(HistoryEntry entry : undoEntries) {
+            count += entry.isSpilled() ? 1 : 0;
+        }
+        for(HistoryEntry entry : redoEntries) {
+            count += entry.isSpilled() ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Duration of the last undo or redo (state decompression or reading from disk).
+     */
+    public synchronized long getLastRestoreMillis() {
+        return lastRestoreNanos / 1_000_000;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Return short summary of history memory usage and latency.
+     */
+    public synchronized String getReport() {
+        return String.format(
+                "History: %d undo / %d redo (%d on disk), %.1f MB of %.0f MB (%.1f MB per step), last restore %d ms",
+                undoEntries.size(),
+                redoEntries.size(),
+                getSpilledCount(),
+                getResidentBytes() / 1e6,
+                budgetBytes / 1e6,
+                getResidentBytesPerStep() / 1e6,
+                getLastRestoreMillis()
+        );
+    }
+
+
+    private BufferedImage move(Deque<HistoryEntry> from, Deque<HistoryEntry> to, BufferedImage current) {
+        if(from.isEmpty()) {
+            throw new IllegalStateException("No state to restore");
+        }
+        long start = System.nanoTime();
+        HistoryEntry entry = from.removeLast();
+        BufferedImage restored = entry.restore(spillStore);
+        entry.discard(spillStore);
+        lastRestoreNanos = System.nanoTime() - start;
+
+        to.addLast(store(current));
+        enforceBudget();
+        scheduleSpilling();
+        schedulePrefetch(undoEntries.peekLast());
+        schedulePrefetch(redoEntries.peekLast());
+        return restored;
+    }
+
+    private HistoryEntry store(BufferedImage image) {
+        HistoryEntry entry = new HistoryEntry(image);
+        if(entry.isCompressible()) {
+            entry.addPendingTask();
+            worker.execute(() -> {
+                try {
+                    entry.compress();
+                } finally {
+                    entry.removePendingTask();
+                }
+                synchronized (this) {
+                    enforceBudget();
+                }
+            });
+        }
+        return entry;
+    }
+
+    /**
+     * Write behind states older than N most recent ones.
+     */
+    private void scheduleSpilling() {
+        List<HistoryEntry> old = new ArrayList<>();
+        collectOld(undoEntries, old);
+        collectOld(redoEntries, old);
+        for(HistoryEntry entry : old) {
+            if(!entry.isSpilled()) {
+                spillInBackground(entry);
+            }
+        }
+    }
+
+    /**
+     * Write the state to disk in the background, states are evicted if it fails.
+     */
+    private void spillInBackground(HistoryEntry entry) {
+        entry.addPendingTask();
+        worker.execute(() -> {
+            boolean failed = false;
+            try {
+                entry.spill(spillStore);
+            } catch (IOException e) {
+                failed = true;
+                reportError("Failed to write history state to disk: " + e.getMessage());
+            } finally {
+                entry.removePendingTask();
+            }
+            if(failed) {
+                synchronized (this) {
+                    evictOverBudget();
+                }
+            }
+        });
+    }
+
+    private void collectOld(Deque<HistoryEntry> entries, List<HistoryEntry> old) {
+        Iterator<HistoryEntry> iterator = entries.descendingIterator();
+        for(int i = 0; iterator.hasNext(); i++) {
+            HistoryEntry entry = iterator.next();
+            if(i >= inMemorySteps) {
+                old.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Count of heap bytes held by entries, which are not waiting for a background task.
+     */
+    private long getSettledBytes() {
+        long bytes = 0;
+        for(HistoryEntry entry : storedImages) {
+            bytes += entry.isPending() ? 0 : entry.getResidentBytes();
+        }
+        for(HistoryEntry entry : undoEntries) {
+            bytes += entry.isPending() ? 0 : entry.getResidentBytes();
+        }
+        for(HistoryEntry entry : redoEntries) {
+            bytes += entry.isPending() ? 0 : entry.getResidentBytes();
+        }
+        return bytes;
+    }
+
+    private void reportError(String message) {
+        errorListener.accept(message);
+    }
+
+    private void schedulePrefetch(HistoryEntry entry) {
+        if(entry == null || !entry.isSpilled()) {
+            return;
+        }
+        worker.execute(() -> {
+            try {
+                entry.prefetch(spillStore);
+            } catch (IOException e) {
+                reportError("Failed to prefetch history state: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Write oldest states to disk until memory fits the budget, evict states, which cannot be written.
+     * States waiting for a background task are not counted, the budget is enforced again after compression.
+     */
+    private void enforceBudget() {
+        long resident = getSettledBytes();
+        List<HistoryEntry> oldestFirst = new ArrayList<>(undoEntries);
+        oldestFirst.addAll(redoEntries);
+        for(HistoryEntry entry : oldestFirst) {
+            if(resident <= budgetBytes) {
+                break;
+            }
+            if(!entry.isPending() && entry.isSpillable()) {
+                resident -= entry.getResidentBytes();
+                spillInBackground(entry);
+            }
+        }
+        evictOverBudget();
+    }
+
+    /**
+     * Evict oldest states until memory fits the budget. States waiting for a background task are not counted
+     * and not evicted (eviction stops at them).
+     */
+    private void evictOverBudget() {
+        long resident = getSettledBytes();
+        while(resident > budgetBytes && undoEntries.size() + redoEntries.size() > 1) {
+            Deque<HistoryEntry> oldest = undoEntries.size() > 1 || redoEntries.isEmpty() ? undoEntries : redoEntries;
+            if(oldest.peekFirst().isPending()) {
+                break;
+            }
+            HistoryEntry evicted = oldest.removeFirst();
+            resident -= evicted.getResidentBytes();
+            evicted.discard(spillStore);
+            evictedCount++;
+        }
+    }
+
+
+    /**
+     * Handle of the image stored by {@link #storeImage(BufferedImage)}.
+     */
+    public static final class StoredImage {
+        private final HistoryEntry entry;
+
+        private StoredImage(HistoryEntry entry) {
+            this.entry = entry;
+        }
+    }
+}
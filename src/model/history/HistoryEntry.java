@@ -0,0 +1,196 @@
+package model.history;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+/**
+ * Single image state stored in the history. The image is kept as it is until it gets compressed
+ * in the background, then only the compressed raster is kept and the image is decompressed on restore.
+ * Old states are spilled to disk (see {@link SpillStore}) and read back on restore or prefetch.
+ */
+class HistoryEntry {
+    private final int width;
+    private final int height;
+    private final int type;
+    private final long rawBytes;
+
+    /** Uncompressed image (also prefetched from disk), null after compression or spilling */
+    private BufferedImage image;
+    /** Compressed raster, null before compression and after spilling */
+    private byte[] compressed;
+    /** File with raw raster, null if state was not spilled */
+    private Path spillFile;
+    /** True if entry was removed from the history */
+    private boolean discarded = false;
+    /** Count of scheduled background tasks, which will reduce heap bytes of the entry */
+    private int pendingTasks = 0;
+
+
+    HistoryEntry(BufferedImage image) {
+        this.image = image;
+        this.width = image == null ? 0 : image.getWidth();
+        this.height = image == null ? 0 : image.getHeight();
+        this.type = image == null ? 0 : image.getType();
+        this.rawBytes = image == null ? 0 : RasterCodec.rawBytes(image);
+    }
+
+
+    /**
+     * Return true if entry can be compressed and is not compressed yet.
+     */
+    synchronized boolean isCompressible() {
+        return image != null && compressed == null && spillFile == null && RasterCodec.isSupported(image);
+    }
+
+    /**
+     * Compress stored image (called on background thread).
+     */
+    void compress() {
+        BufferedImage source;
+        synchronized (this) {
+            if(!isCompressible()) {
+                return;
+            }
+            source = image;
+        }
+        byte[] data = RasterCodec.compress(source, Deflater.BEST_SPEED);
+        synchronized (this) {
+            if(image == source && spillFile == null) {
+                compressed = data;
+                image = null;
+            }
+        }
+    }
+
+    /**
+     * Move stored state to disk and release heap memory (called on background thread).
+     * State that was already written (and prefetched later) only releases the heap copy.
+     */
+    void spill(SpillStore store) throws IOException {
+        BufferedImage source;
+        synchronized (this) {
+            if(image == null && compressed == null) {
+                return;
+            }
+            if(spillFile != null) {
+                image = null;
+                return;
+            }
+            if(image != null && !RasterCodec.isSupported(image)) {
+                return;
+            }
+            source = restore();
+        }
+        Path file = store.write(source);
+        synchronized (this) {
+            if(discarded) {
+                store.delete(file);
+                return;
+            }
+            spillFile = file;
+            image = null;
+            compressed = null;
+        }
+    }
+
+    /**
+     * Read spilled state back to the heap, so that the next restore does not wait for the disk
+     * (called on background thread).
+     */
+    void prefetch(SpillStore store) throws IOException {
+        Path file;
+        synchronized (this) {
+            if(image != null || compressed != null || spillFile == null) {
+                return;
+            }
+            file = spillFile;
+        }
+        BufferedImage loaded = store.read(file, width, height, type);
+        synchronized (this) {
+            if(spillFile == file && image == null) {
+                image = loaded;
+            }
+        }
+    }
+
+    /**
+     * Return stored image (decompressed or read from disk if needed).
+     */
+    synchronized BufferedImage restore(SpillStore store) {
+        if(image == null && compressed == null && spillFile != null) {
+            try {
+                return store.read(spillFile, width, height, type);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read history state from disk", e);
+            }
+        }
+        return restore();
+    }
+
+    /**
+     * Release disk space of the discarded state.
+     */
+    synchronized void discard(SpillStore store) {
+        discarded = true;
+        if(spillFile != null) {
+            store.delete(spillFile);
+            spillFile = null;
+        }
+        image = null;
+        compressed = null;
+    }
+
+    /**
+     * Return true if spilling would release heap memory of the entry.
+     */
+    synchronized boolean isSpillable() {
+        if(image == null && compressed == null) {
+            return false;
+        }
+        return spillFile != null || compressed != null || RasterCodec.isSupported(image);
+    }
+
+    /**
+     * Register background task (e.g. compression), which will reduce heap bytes of the entry.
+     */
+    synchronized void addPendingTask() {
+        pendingTasks++;
+    }
+
+    synchronized void removePendingTask() {
+        pendingTasks--;
+    }
+
+    /**
+     * Return true if heap bytes of the entry are going to be reduced by a scheduled background task.
+     */
+    synchronized boolean isPending() {
+        return pendingTasks > 0;
+    }
+
+    /**
+     * Count of heap bytes held by the entry.
+     */
+    synchronized long getResidentBytes() {
+        return (compressed != null ? compressed.length : 0) + (image != null ? rawBytes : 0);
+    }
+
+    synchronized boolean isSpilled() {
+        return spillFile != null && image == null;
+    }
+
+    long getRawBytes() {
+        return rawBytes;
+    }
+
+
+    private BufferedImage restore() {
+        if(compressed == null) {
+            return image;
+        }
+        return RasterCodec.decompress(compressed, width, height, type);
+    }
+}
@@ -0,0 +1,183 @@
+package model.history;
+
+import java.awt.image.*;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Lossless compression of image rasters used by the history.
+ * Every row is passed through horizontal delta filter (difference to the same channel of the previous pixel)
+ * and deflated, that makes photos noticeably smaller than plain deflate of the samples.
+ * Only images with standard, unpadded layouts of the predefined types are supported.
+ */
+final class RasterCodec {
+
+    private RasterCodec() {
+    }
+
+
+    /**
+     * Check if specified image can be stored by the codec.
+     */
+    static boolean isSupported(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                break;
+            default:
+                return false;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        return raster.getParent() == null
+                && dataBuffer.getNumBanks() == 1
+                && dataBuffer.getOffset() == 0
+                && (long) dataBuffer.getSize() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8
+                        == rowBytes(image) * image.getHeight();
+    }
+
+    /**
+     * Count of bytes of single image row.
+     */
+    static long rowBytes(BufferedImage image) {
+        int pixelBytes = isPacked(image.getType()) ? 4 : image.getRaster().getNumBands();
+        return (long) image.getWidth() * pixelBytes;
+    }
+
+    /**
+     * Count of bytes of uncompressed raster.
+     */
+    static long rawBytes(BufferedImage image) {
+        return rowBytes(image) * image.getHeight();
+    }
+
+
+    /**
+     * Compress raster of the image.
+     * @param image image supported by the codec (see {@link #isSupported(BufferedImage)})
+     * @param level deflate compression level
+     */
+    static byte[] compress(BufferedImage image, int level) {
+        int rowLength = (int) rowBytes(image);
+        int pixelBytes = rowLength / image.getWidth();
+        byte[] row = new byte[rowLength];
+        byte[] filtered = new byte[rowLength];
+        byte[] chunk = new byte[64 * 1024];
+
+        Deflater deflater = new Deflater(level);
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, rawBytes(image) / 2));
+        try {
+            for(int y = 0; y < image.getHeight(); y++) {
+                readRow(image, y, row);
+                for(int i = 0; i < pixelBytes; i++) {
+                    filtered[i] = row[i];
+                }
+                for(int i = pixelBytes; i < rowLength; i++) {
+                    filtered[i] = (byte) (row[i] - row[i - pixelBytes]);
+                }
+                deflater.setInput(filtered);
+                while(!deflater.needsInput()) {
+                    int count = deflater.deflate(chunk);
+                    output.write(chunk, 0, count);
+                }
+            }
+            deflater.finish();
+            while(!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                output.write(chunk, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Restore image from compressed raster.
+     */
+    static BufferedImage decompress(byte[] data, int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        int rowLength = (int) rowBytes(image);
+        int pixelBytes = rowLength / width;
+        byte[] row = new byte[rowLength];
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        try {
+            for(int y = 0; y < height; y++) {
+                int read = 0;
+                while(read < rowLength) {
+                    int count = inflater.inflate(row, read, rowLength - read);
+                    if(count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IllegalStateException("Compressed history snapshot is truncated");
+                    }
+                    read += count;
+                }
+                for(int i = pixelBytes; i < rowLength; i++) {
+                    row[i] = (byte) (row[i] + row[i - pixelBytes]);
+                }
+                writeRow(image, y, row);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed history snapshot is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+        return image;
+    }
+
+
+    /**
+     * Copy raw bytes of image row (int samples in big-endian order).
+     */
+    static void readRow(BufferedImage image, int y, byte[] row) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        if(dataBuffer instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt) dataBuffer).getData();
+            int offset = y * image.getWidth();
+            for(int x = 0, i = 0; x < image.getWidth(); x++) {
+                int value = data[offset + x];
+                row[i++] = (byte) (value >>> 24);
+                row[i++] = (byte) (value >>> 16);
+                row[i++] = (byte) (value >>> 8);
+                row[i++] = (byte) value;
+            }
+        } else {
+            byte[] data = ((DataBufferByte) dataBuffer).getData();
+            System.arraycopy(data, y * row.length, row, 0, row.length);
+        }
+    }
+
+    /**
+     * Copy raw bytes to image row (inverse of {@link #readRow(BufferedImage, int, byte[])}).
+     */
+    static void writeRow(BufferedImage image, int y, byte[] row) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        if(dataBuffer instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt) dataBuffer).getData();
+            int offset = y * image.getWidth();
+            for(int x = 0, i = 0; x < image.getWidth(); x++, i += 4) {
+                data[offset + x] = (row[i] & 0xff) << 24
+                        | (row[i + 1] & 0xff) << 16
+                        | (row[i + 2] & 0xff) << 8
+                        | (row[i + 3] & 0xff);
+            }
+        } else {
+            byte[] data = ((DataBufferByte) dataBuffer).getData();
+            System.arraycopy(row, 0, data, y * row.length, row.length);
+        }
+    }
+
+
+    private static boolean isPacked(int type) {
+        return type == BufferedImage.TYPE_INT_RGB
+                || type == BufferedImage.TYPE_INT_ARGB
+                || type == BufferedImage.TYPE_INT_BGR;
+    }
+}
@@ -0,0 +1,143 @@
+package model.history;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Disk store for history states. Every state is written as raw raster bytes (int samples in big-endian order)
+ * to its own temp file through memory mapping, so reading it back is a plain copy from the page cache.
+ * All files live in a single temp directory, that is removed by {@link #close()}. Files, which cannot be removed,
+ * are reported to the error listener.
+ */
+class SpillStore {
+
+    /** Max size of a single mapping (mapped regions are limited to 2 GB) */
+    private static final long MAX_MAPPING_BYTES = 1L << 30;
+
+    private final Consumer<String> errorListener;
+
+    private Path directory = null;
+    private long fileCounter = 0;
+
+
+    /**
+     * @param errorListener consumer of messages about files, which cannot be removed
+     */
+    SpillStore(Consumer<String> errorListener) {
+        this.errorListener = errorListener;
+    }
+
+
+    /**
+     * Write image raster to a new temp file.
+     * @param image image supported by {@link RasterCodec}
+     * @return path of the written file
+     */
+    synchronized Path write(BufferedImage image) throws IOException {
+        if(directory == null) {
+            directory = Files.createTempDirectory("photo-editor-history");
+        }
+        Path file = directory.resolve("state-" + (fileCounter++) + ".raw");
+
+        int rowLength = (int) RasterCodec.rowBytes(image);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int rowsPerMapping = rowsPerMapping(rowLength);
+            for(int fromY = 0; fromY < image.getHeight(); fromY += rowsPerMapping) {
+                int toY = Math.min(image.getHeight(), fromY + rowsPerMapping);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, (long) fromY * rowLength, (long) (toY - fromY) * rowLength);
+                copyRows(image, fromY, toY, buffer, true);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Read image from the file written by {@link #write(BufferedImage)}.
+     */
+    BufferedImage read(Path file, int width, int height, int type) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, type);
+        int rowLength = (int) RasterCodec.rowBytes(image);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int rowsPerMapping = rowsPerMapping(rowLength);
+            for(int fromY = 0; fromY < height; fromY += rowsPerMapping) {
+                int toY = Math.min(height, fromY + rowsPerMapping);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, (long) fromY * rowLength, (long) (toY - fromY) * rowLength);
+                copyRows(image, fromY, toY, buffer, false);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Remove file of the discarded state.
+     */
+    void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            errorListener.accept("Failed to remove history file " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove all files and the temp directory.
+     */
+    synchronized void close() {
+        if(directory == null) {
+            return;
+        }
+        try(Stream<Path> files = Files.list(directory)) {
+            files.forEach(this::delete);
+            Files.deleteIfExists(directory);
+        } catch (IOException | UncheckedIOException e) {
+            errorListener.accept("Failed to remove history directory " + directory + ": " + e.getMessage());
+        }
+        directory = null;
+    }
+
+
+    /**
+     * Bulk copy of rows between the raster data array and the mapped buffer (int samples in big-endian order).
+     * @param toBuffer True to copy from raster to buffer, false to copy from buffer to raster
+     */
+    private static void copyRows(BufferedImage image, int fromY, int toY, MappedByteBuffer buffer, boolean toBuffer) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        if(dataBuffer instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt) dataBuffer).getData();
+            IntBuffer ints = buffer.asIntBuffer();
+            int offset = fromY * image.getWidth();
+            int length = (toY - fromY) * image.getWidth();
+            if(toBuffer) {
+                ints.put(data, offset, length);
+            } else {
+                ints.get(data, offset, length);
+            }
+        } else {
+            byte[] data = ((DataBufferByte) dataBuffer).getData();
+            int rowLength = (int) RasterCodec.rowBytes(image);
+            int offset = fromY * rowLength;
+            int length = (toY - fromY) * rowLength;
+            if(toBuffer) {
+                buffer.put(data, offset, length);
+            } else {
+                buffer.get(data, offset, length);
+            }
+        }
+    }
+
+    private static int rowsPerMapping(int rowLength) {
+        return (int) Math.max(1, MAX_MAPPING_BYTES / rowLength);
+    }
+}
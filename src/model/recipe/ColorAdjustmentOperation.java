@@ -0,0 +1,55 @@
+package model.recipe;
+
+import utils.ImageChain;
+import utils.ImageProcessing;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Brightness and contrast adjustment (brightness is applied first).
+ */
+public final class ColorAdjustmentOperation extends EditOperation {
+
+    static final String NAME = "color";
+
+    private final int offset;
+    private final float scale;
+
+    /**
+     * @param offset brightness offset
+     * @param scale contrast scale
+     */
+    public ColorAdjustmentOperation(int offset, float scale) {
+        this.offset = offset;
+        this.scale = scale;
+    }
+
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    @Override
+    public BufferedImage apply(BufferedImage input, double resolution) {
+        return ImageProcessing.colorAdjustment(input, offset, scale);
+    }
+
+    @Override
+    public void appendTo(ImageChain chain, double resolution) {
+        chain.colorAdjustment(offset, scale);
+    }
+
+    @Override
+    String encode() {
+        return NAME + " " + offset + " " + scale;
+    }
+
+    @Override
+    public String toString() {
+        return "Brightness " + offset + ", contrast " + scale;
+    }
+}
@@ -0,0 +1,61 @@
+package model.recipe;
+
+import utils.ImageChain;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Single edit of the image (node of the {@link EditRecipe}) with its parameters.
+ * Operations are immutable and can be applied to images of any resolution.
+ */
+public abstract class EditOperation {
+
+    /**
+     * Apply operation to the image and return result.
+     * @param input input image
+     * @param scale resolution of the input image relative to the original image (1 for full resolution),
+     *              operations with spatial parameters (e.g. kernel size) adapt them to the resolution
+     */
+    public abstract BufferedImage apply(BufferedImage input, double scale);
+
+    /**
+     * Queue operation to the lazily evaluated chain (the same result as {@link #apply(BufferedImage, double)}).
+     * @param chain chain of operations on the image
+     * @param scale resolution of the chain source image relative to the original image
+     */
+    public abstract void appendTo(ImageChain chain, double scale);
+
+    /**
+     * Return count of neighbour pixels in every direction, which output pixel depends on
+     * (0 for point operations). Regions of the image are processed with halo of this size.
+     * @param scale resolution of the processed image relative to the original image
+     */
+    public int getHalo(double scale) {
+        return 0;
+    }
+
+    /**
+     * Return operation as a single recipe line (name followed by parameters).
+     */
+    abstract String encode();
+
+    /**
+     * Operations are equal, if they are of the same kind with the same parameters (the same recipe line).
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof EditOperation && other.getClass() == getClass()
+                && ((EditOperation) other).encode().equals(encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    /**
+     * Return short description for the user.
+     */
+    @Override
+    public abstract String toString();
+}
@@ -0,0 +1,261 @@
+package model.recipe;
+
+import utils.ConvolutionKernel;
+import utils.ImageChain;
+import utils.ImageProcessing;
+import utils.ImageScaling;
+import utils.TiledImage;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable record of edits applied to the original image: chain of {@link EditOperation} nodes,
+ * where every node takes result of the previous one. The recipe can be re-executed against the original
+ * at any resolution and saved as a compact text file:
+ * <pre>
+ * photo-editor-recipe 1
+ * gray
+ * filter 3 3 0.0625 0.125 0.0625 0.125 0.25 0.125 0.0625 0.125 0.0625
+ * color 20 1.5
+ * </pre>
+ * Empty lines and lines starting with '#' are ignored.
+ */
+public final class EditRecipe {
+
+    private static final String HEADER = "photo-editor-recipe";
+    private static final int VERSION = 1;
+
+    private static final EditRecipe EMPTY = new EditRecipe(Collections.emptyList());
+
+    private final List<EditOperation> operations;
+
+
+    private EditRecipe(List<EditOperation> operations) {
+        this.operations = operations;
+    }
+
+    public static EditRecipe empty() {
+        return EMPTY;
+    }
+
+
+    /**
+     * Return new recipe with the operation appended.
+     */
+    public EditRecipe with(EditOperation operation) {
+        List<EditOperation> extended = new ArrayList<>(operations);
+        extended.add(operation);
+        return new EditRecipe(Collections.unmodifiableList(extended));
+    }
+
+    /**
+     * Return new recipe with all operations of this recipe followed by operations of other recipe.
+     */
+    public EditRecipe then(EditRecipe other) {
+        List<EditOperation> extended = new ArrayList<>(operations);
+        extended.addAll(other.operations);
+        return new EditRecipe(Collections.unmodifiableList(extended));
+    }
+
+    public List<EditOperation> getOperations() {
+        return operations;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+
+    /**
+     * Apply all operations to the full resolution original image.
+     */
+    public BufferedImage render(BufferedImage original) {
+        return render(original, 1);
+    }
+
+    /**
+     * Apply all operations to the original image downsampled by specified factor.
+     * Operations are evaluated by {@link ImageChain}, so they are fused into as few passes as possible.
+     * @param original full resolution original image
+     * @param downsampling integer downsampling factor (1 for full resolution)
+     */
+    public BufferedImage render(BufferedImage original, int downsampling) {
+        return apply(ImageScaling.downsample(original, downsampling), 1.0 / Math.max(1, downsampling));
+    }
+
+    /**
+     * Apply all operations to the image (whole original image or its region) with the resolution.
+     * @param image reduced original image or its region
+     * @param scale resolution of the image relative to the original image (1 for full resolution)
+     */
+    public BufferedImage apply(BufferedImage image, double scale) {
+        ImageChain chain = ImageChain.of(image);
+        for(EditOperation operation : operations) {
+            operation.appendTo(chain, scale);
+        }
+        return chain.render();
+    }
+
+    /**
+     * Apply all operations to the full resolution tiled image tile-by-tile, every tile is rendered together
+     * with halo of all operations in a single fused pass, so the result is the same as of the whole image.
+     * @param original full resolution original image
+     * @return new tiled image, which has to be closed by the caller
+     */
+    public TiledImage apply(TiledImage original) throws IOException {
+        return ImageProcessing.mapTiles(original, getHalo(1), tile -> apply(tile, 1));
+    }
+
+    /**
+     * Apply all operations to the image and keep their results, so that the result is updated by recomputing
+     * only tiles affected by the changed region of the image.
+     * @param image reduced original image, which can be changed in place later
+     * @param scale resolution of the image relative to the original image (1 for full resolution)
+     */
+    public IncrementalRender renderIncrementally(BufferedImage image, double scale) {
+        return new IncrementalRender(operations, image, scale);
+    }
+
+    /**
+     * Return count of neighbour pixels in every direction, which output pixel depends on
+     * through all operations, region has to be processed with this halo to be exact.
+     * @param scale resolution of the processed image relative to the original image
+     */
+    public int getHalo(double scale) {
+        int halo = 0;
+        for(EditOperation operation : operations) {
+            halo += operation.getHalo(scale);
+        }
+        return halo;
+    }
+
+
+    /**
+     * Write recipe in the text format.
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write(HEADER + " " + VERSION + "\n");
+        for(EditOperation operation : operations) {
+            writer.write(operation.encode());
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    public void save(Path file) throws IOException {
+        try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    /**
+     * Read recipe in the text format.
+     * @throws IOException if reading fails or recipe is malformed
+     */
+    public static EditRecipe read(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String header = lines.readLine();
+        if(header == null || !header.trim().equals(HEADER + " " + VERSION)) {
+            throw new IOException("Not a recipe file (expected header \"" + HEADER + " " + VERSION + "\")");
+        }
+
+        EditRecipe recipe = EMPTY;
+        int lineNumber = 1;
+        String line;
+        while((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                recipe = recipe.with(decode(line.split("\\s+")));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid recipe line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return recipe;
+    }
+
+    public static EditRecipe load(Path file) throws IOException {
+        try(Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+
+    private static EditOperation decode(String[] tokens) {
+        switch(tokens[0]) {
+            case GrayScaleOperation.NAME:
+                if(tokens.length > 2) {
+                    throw new IllegalArgumentException(tokens[0] + " expects at most 1 parameter");
+                }
+                return tokens.length == 1 ? new GrayScaleOperation()
+                        : new GrayScaleOperation(GrayScaleOperation.parseWeights(tokens[1]));
+            case ColorAdjustmentOperation.NAME:
+                expectTokens(tokens, 3);
+                return new ColorAdjustmentOperation(Integer.parseInt(tokens[1]), Float.parseFloat(tokens[2]));
+            case FiltrationOperation.NAME:
+                if(tokens.length < 3) {
+                    throw new IllegalArgumentException("missing kernel size");
+                }
+                int width = Integer.parseInt(tokens[1]);
+                int height = Integer.parseInt(tokens[2]);
+                if(width <= 0 || height <= 0) {
+                    throw new IllegalArgumentException("kernel size has to be positive: " + width + "x" + height);
+                }
+                int cells;
+                try {
+                    cells = Math.multiplyExact(width, height);
+                    expectTokens(tokens, Math.addExact(3, cells));
+                } catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("kernel size is too large: " + width + "x" + height);
+                }
+                float[] data = new float[cells];
+                for(int i = 0; i < data.length; i++) {
+                    data[i] = Float.parseFloat(tokens[3 + i]);
+                }
+                return new FiltrationOperation(new ConvolutionKernel(width, height, data));
+            default:
+                throw new IllegalArgumentException("unknown operation " + tokens[0]);
+        }
+    }
+
+    private static void expectTokens(String[] tokens, int count) {
+        if(tokens.length != count) {
+            throw new IllegalArgumentException(tokens[0] + " expects " + (count - 1) + " parameters");
+        }
+    }
+
+    /**
+     * Recipes are equal, if they contain equal operations in the same order (they give the same result).
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof EditRecipe && ((EditRecipe) other).operations.equals(operations);
+    }
+
+    @Override
+    public int hashCode() {
+        return operations.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return operations.toString();
+    }
+}
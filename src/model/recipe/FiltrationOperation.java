@@ -0,0 +1,95 @@
+package model.recipe;
+
+import utils.ConvolutionKernel;
+import utils.ImageChain;
+import utils.ImageProcessing;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Linear filtration with convolution kernel.
+ * <p>
+ * On reduced resolution kernels larger than 3x3 are reduced by the same scale (every element is added
+ * to the cell of the reduced kernel it falls into), so blur covers the same part of the image and the sum
+ * of elements does not change. 3x3 kernels (edge detection, sharpening) are kept as they are.
+ */
+public final class FiltrationOperation extends EditOperation {
+
+    static final String NAME = "filter";
+
+    private static final int MIN_SCALED_SIZE = 3;
+
+    private final ConvolutionKernel kernel;
+
+
+    public FiltrationOperation(ConvolutionKernel kernel) {
+        this.kernel = kernel;
+    }
+
+
+    public ConvolutionKernel getKernel() {
+        return kernel;
+    }
+
+    @Override
+    public BufferedImage apply(BufferedImage input, double scale) {
+        return ImageProcessing.linearFiltration(input, scaledKernel(scale));
+    }
+
+    @Override
+    public void appendTo(ImageChain chain, double scale) {
+        chain.filter(scaledKernel(scale));
+    }
+
+    @Override
+    public int getHalo(double scale) {
+        return scaledKernel(scale).getRadius();
+    }
+
+    /**
+     * Return kernel adapted to the image resolution.
+     */
+    ConvolutionKernel scaledKernel(double scale) {
+        int width = scaledSize(kernel.getWidth(), scale);
+        int height = scaledSize(kernel.getHeight(), scale);
+        if(width == kernel.getWidth() && height == kernel.getHeight()) {
+            return kernel;
+        }
+
+        float[] data = new float[width * height];
+        for(int y = 0; y < kernel.getHeight(); y++) {
+            int targetY = y * height / kernel.getHeight();
+            for(int x = 0; x < kernel.getWidth(); x++) {
+                int targetX = x * width / kernel.getWidth();
+                data[targetY * width + targetX] += kernel.get(x, y);
+            }
+        }
+        return new ConvolutionKernel(width, height, data);
+    }
+
+    private static int scaledSize(int size, double scale) {
+        if(scale >= 1 || size <= MIN_SCALED_SIZE) {
+            return size;
+        }
+        int scaled = (int) Math.round(size * scale);
+        if(scaled % 2 == 0) {
+            scaled++;
+        }
+        return Math.max(MIN_SCALED_SIZE, Math.min(size, scaled));
+    }
+
+    @Override
+    String encode() {
+        StringBuilder line = new StringBuilder(NAME);
+        line.append(' ').append(kernel.getWidth()).append(' ').append(kernel.getHeight());
+        for(float value : kernel.getData()) {
+            line.append(' ').append(value);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Filtration " + kernel.getWidth() + "x" + kernel.getHeight();
+    }
+}
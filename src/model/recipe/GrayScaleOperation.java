@@ -0,0 +1,80 @@
+package model.recipe;
+
+import utils.GrayscaleEngine;
+import utils.ImageChain;
+import utils.ImageProcessing;
+
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+
+/**
+ * Conversion to the gray scale with weights of color channels.
+ * Default weights (linear luminance) are encoded without parameter.
+ */
+public final class GrayScaleOperation extends EditOperation {
+
+    static final String NAME = "gray";
+
+    private final GrayscaleEngine.Weights weights;
+
+    public GrayScaleOperation() {
+        this(GrayscaleEngine.Weights.LINEAR_LUMINANCE);
+    }
+
+    public GrayScaleOperation(GrayscaleEngine.Weights weights) {
+        this.weights = weights;
+    }
+
+
+    public GrayscaleEngine.Weights getWeights() {
+        return weights;
+    }
+
+    /**
+     * Return weights with the name used in recipes and batch options (linear, rec601 or rec709).
+     * @throws IllegalArgumentException if there are no such weights
+     */
+    public static GrayscaleEngine.Weights parseWeights(String name) {
+        for(GrayscaleEngine.Weights weights : GrayscaleEngine.Weights.values()) {
+            if(weightsName(weights).equals(name.toLowerCase(Locale.ROOT))) {
+                return weights;
+            }
+        }
+        throw new IllegalArgumentException("unknown gray weights " + name + " (linear, rec601 or rec709)");
+    }
+
+    @Override
+    public BufferedImage apply(BufferedImage input, double scale) {
+        if(input.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return input;
+        }
+        return ImageProcessing.RGBtoGray(input, weights);
+    }
+
+    @Override
+    public void appendTo(ImageChain chain, double scale) {
+        chain.gray(weights);
+    }
+
+    @Override
+    String encode() {
+        return weights == GrayscaleEngine.Weights.LINEAR_LUMINANCE ? NAME : NAME + " " + weightsName(weights);
+    }
+
+    @Override
+    public String toString() {
+        return weights == GrayscaleEngine.Weights.LINEAR_LUMINANCE ? "Gray scale" : "Gray scale (" + weightsName(weights) + ")";
+    }
+
+
+    private static String weightsName(GrayscaleEngine.Weights weights) {
+        switch (weights) {
+            case REC_601:
+                return "rec601";
+            case REC_709:
+                return "rec709";
+            default:
+                return "linear";
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package model.recipe;
+
+import utils.ImageProcessing;
+import utils.TileExecutor;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.List;
+
+/**
+ * Result of the recipe applied to the source image, which is updated incrementally when a region
+ * of the source image changes.
+ * <p>
+ * Result of every operation (stage) is kept. Changed rectangle of the source (dirty region) is propagated through
+ * the chain of operations: every operation expands it by its halo (kernel radius of the filtration, nothing
+ * for point operations and gray scale) and only tiles of the stage intersecting the expanded rectangle
+ * are recomputed from the previous stage. Every tile is computed together with its halo, so it is the same
+ * as in the full render. Update costs are proportional to the changed region instead of the whole image,
+ * for the price of an image per operation. Stage, whose dirty tiles cover most of the image, is computed
+ * in a single pass over the whole image instead (it is cheaper than tiles with halo).
+ * <p>
+ * Operations are applied one by one (they are not fused by {@link utils.ImageChain}), because the dirty region
+ * grows after every filtration. Stage images are owned by the render and must not be modified, they are updated
+ * in place or replaced. Instances are not thread-safe.
+ */
+public final class IncrementalRender {
+
+    /** Size of recomputed tiles in pixels */
+    public static final int TILE_SIZE = 128;
+
+    private final List<EditOperation> operations;
+    private final double scale;
+    /** Source image followed by results of the operations */
+    private final BufferedImage[] stages;
+
+    private long updatedTileCount = 0;
+    private long updatedPixelCount = 0;
+
+
+    /**
+     * Render all stages of the operations applied to the source image.
+     * @param operations operations of the recipe
+     * @param source source image, it is modified by the caller before {@link #update(Rectangle)}
+     * @param scale resolution of the source image relative to the original image
+     */
+    IncrementalRender(List<EditOperation> operations, BufferedImage source, double scale) {
+        this.operations = operations;
+        this.scale = scale;
+        this.stages = new BufferedImage[operations.size() + 1];
+        stages[0] = source;
+        for(int i = 0; i < operations.size(); i++) {
+            stages[i + 1] = operations.get(i).apply(stages[i], scale);
+        }
+    }
+
+
+    public BufferedImage getSource() {
+        return stages[0];
+    }
+
+    /**
+     * Return result of all operations (the source image itself, if there are no operations).
+     * The result can be replaced by the next update.
+     */
+    public BufferedImage getResult() {
+        return stages[stages.length - 1];
+    }
+
+    /**
+     * Recompute stages after the region of the source image was changed (the source is modified in place).
+     * @param dirty changed region of the source image
+     * @return changed region of the result (clipped to the image, empty if nothing changed)
+     */
+    public Rectangle update(Rectangle dirty) {
+        Rectangle bounds = new Rectangle(0, 0, stages[0].getWidth(), stages[0].getHeight());
+        Rectangle region = dirty.intersection(bounds);
+        if(region.isEmpty()) {
+            return new Rectangle();
+        }
+        for(int i = 0; i < operations.size(); i++) {
+            int halo = operations.get(i).getHalo(scale);
+            region = new Rectangle(region.x - halo, region.y - halo, region.width + 2 * halo, region.height + 2 * halo)
+                    .intersection(bounds);
+            updateTiles(i, region, halo);
+        }
+        return region;
+    }
+
+    /**
+     * Return count of tiles recomputed by updates in all stages.
+     */
+    public long getUpdatedTileCount() {
+        return updatedTileCount;
+    }
+
+    /**
+     * Return count of pixels recomputed by updates in all stages (without halo).
+     */
+    public long getUpdatedPixelCount() {
+        return updatedPixelCount;
+    }
+
+
+    /**
+     * Recompute tiles of the operation result, which intersect the region.
+     */
+    private void updateTiles(int index, Rectangle region, int halo) {
+        BufferedImage input = stages[index];
+        BufferedImage output = stages[index + 1];
+        if(output == input) {
+            // operation returned its input (e.g. gray scale of gray image), the stage is already updated
+            return;
+        }
+        EditOperation operation = operations.get(index);
+        Rectangle bounds = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        int fromColumn = region.x / TILE_SIZE;
+        int toColumn = ceilDiv(region.x + region.width, TILE_SIZE);
+        int fromRow = region.y / TILE_SIZE;
+        int toRow = ceilDiv(region.y + region.height, TILE_SIZE);
+
+        long tilePixels = 0;
+        for(int row = fromRow; row < toRow; row++) {
+            for(int column = fromColumn; column < toColumn; column++) {
+                Rectangle tile = tileBounds(column, row, bounds);
+                tilePixels += (long) tile.width * tile.height;
+            }
+        }
+        updatedTileCount += (long) (toColumn - fromColumn) * (toRow - fromRow);
+        updatedPixelCount += tilePixels;
+        if(tilePixels * 2 >= (long) bounds.width * bounds.height) {
+            stages[index + 1] = operation.apply(input, scale);
+            return;
+        }
+
+        // every band row is a row of tiles
+        TileExecutor.forEachBand((toColumn - fromColumn) * TILE_SIZE, toRow - fromRow, (fromBand, toBand) -> {
+            for(int row = fromRow + fromBand; row < fromRow + toBand; row++) {
+                for(int column = fromColumn; column < toColumn; column++) {
+                    Rectangle tile = tileBounds(column, row, bounds);
+                    Raster result = ImageProcessing.mapRegion(input, tile, halo,
+                            image -> operation.apply(image, scale)).getRaster();
+                    output.getRaster().setRect(tile.x - result.getMinX(), tile.y - result.getMinY(), result);
+                }
+            }
+        });
+    }
+
+    private static Rectangle tileBounds(int column, int row, Rectangle bounds) {
+        return new Rectangle(column * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE).intersection(bounds);
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -0,0 +1,144 @@
+package utils;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ImageOutputStream writing to a file through FileChannel with a large direct buffer.
+ * The default stream of ImageIO (FileImageOutputStream) passes every write of the encoder
+ * (often few bytes of a marker or a chunk header) directly to RandomAccessFile, here writes are
+ * collected in the buffer and the file is written in large blocks. Seeking (e.g. PNG writer returns
+ * to the chunk length) and reading of written data are supported, the buffer is flushed before them.
+ */
+public class ChannelImageOutputStream extends ImageOutputStreamImpl {
+
+    /** Default size of the buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    /** Stream position of the first byte in the buffer */
+    private long bufferStart = 0;
+
+
+    /**
+     * Create (or truncate) the file and open the stream with the default buffer size.
+     */
+    public ChannelImageOutputStream(Path file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create (or truncate) the file and open the stream.
+     * @param bufferSize size of the buffer in bytes
+     */
+    public ChannelImageOutputStream(Path file, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        checkClosed();
+        flushBits();
+        if(!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) b);
+        streamPos++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        flushBits();
+        if(len > buffer.remaining()) {
+            flushBuffer();
+        }
+        if(len >= buffer.capacity()) {
+            // large block is written directly
+            writeFully(ByteBuffer.wrap(b, off, len), streamPos);
+            bufferStart = streamPos + len;
+        } else {
+            buffer.put(b, off, len);
+        }
+        streamPos += len;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        flushBuffer();
+        bitOffset = 0;
+        ByteBuffer single = ByteBuffer.allocate(1);
+        if(channel.read(single, streamPos) <= 0) {
+            return -1;
+        }
+        streamPos++;
+        bufferStart = streamPos;
+        return single.get(0) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        flushBuffer();
+        bitOffset = 0;
+        int count = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+        if(count > 0) {
+            streamPos += count;
+            bufferStart = streamPos;
+        }
+        return count;
+    }
+
+    @Override
+    public long length() {
+        try {
+            return Math.max(channel.size(), bufferStart + buffer.position());
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        checkClosed();
+        flushBuffer();
+        super.seek(pos);
+        bufferStart = streamPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            super.close();
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Write buffered bytes to the file at their stream position.
+     */
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer, bufferStart);
+        buffer.clear();
+        bufferStart = streamPos;
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while(data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Convolution engine for kernels of any size, working on 8-bit channels with integer fixed-point arithmetic.
+ * <p>
+ * Separable (rank-1) kernels are computed as horizontal and vertical 1D passes, other kernels as direct 2D sum.
+ * Results follow java.awt.image.ConvolveOp conventions: the kernel is flipped (true convolution), sums are
+ * truncated and clamped to [0, 255], all channels (with alpha) are convolved and pixels closer to the border
+ * than the kernel reaches are zero filled (EDGE_ZERO_FILL). Because of fixed-point weights channels can differ
+ * by 1 from ConvolveOp.
+ * <p>
+ * Rows are processed in parallel bands by {@link TileExecutor}, every band reads its rows with kernel halo.
+ * Multiply-accumulate loops over rows are computed by {@link PixelKernels} (vectorized, if the Vector API is available).
+ * Point operations can be fused into the convolution: they are applied to input rows when they are loaded
+ * and to output rows before they are stored, so no intermediate image is allocated.
+ */
+public final class ConvolutionEngine {
+
+    /** Max fixed-point precision of weights */
+    private static final int MAX_WEIGHT_BITS = 16;
+    /** Fractional bits of the intermediate result of the horizontal pass */
+    private static final int INTERMEDIATE_BITS = 8;
+
+
+    private ConvolutionEngine() {
+    }
+
+
+    /**
+     * Convolve the whole image and return result as new image of the same type.
+     * @param input image with layout supported by {@link RasterAccess}
+     * @param kernel convolution kernel
+     */
+    public static BufferedImage convolve(BufferedImage input, ConvolutionKernel kernel) {
+        return convolve(input, kernel, null, null);
+    }
+
+    /**
+     * Convolve the whole image with point operations fused before and after the convolution.
+     * @param input image with layout supported by {@link RasterAccess}
+     * @param kernel convolution kernel
+     * @param before point operations applied to input pixels (null for none)
+     * @param after point operations applied to output pixels (null for none)
+     */
+    public static BufferedImage convolve(BufferedImage input, ConvolutionKernel kernel,
+                                         PointPipeline.Compiled before, PointPipeline.Compiled after) {
+        BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), input.getType());
+        Plan plan = new Plan(kernel);
+        TileExecutor.forEachBand(input.getWidth(), input.getHeight(),
+                (fromY, toY) -> plan.convolve(input, output, fromY, toY, before, after));
+        return output;
+    }
+
+    /**
+     * Convolve the specified rows range.
+     * @param input source image with layout supported by {@link RasterAccess}
+     * @param output destination image with the same size and type as input (it cannot be input itself)
+     * @param kernel convolution kernel
+     * @param fromY first computed row (inclusive)
+     * @param toY last computed row (exclusive)
+     */
+    public static void convolve(BufferedImage input, BufferedImage output, ConvolutionKernel kernel, int fromY, int toY) {
+        new Plan(kernel).convolve(input, output, fromY, toY, null, null);
+    }
+
+
+    /**
+     * Return count of fractional bits of weights, so that sum of products of 8-bit samples does not overflow int.
+     * @param maxFactor max absolute sum of (already scaled) factors multiplied by weights
+     */
+    private static int weightBits(double maxFactor) {
+        double limit = Integer.MAX_VALUE / (maxFactor * 1.01);
+        int bits = (int) Math.floor(Math.log(limit) / Math.log(2));
+        return Math.max(0, Math.min(MAX_WEIGHT_BITS, bits));
+    }
+
+    private static int[] quantize(float[] weights, int bits) {
+        int[] result = new int[weights.length];
+        for(int i = 0; i < weights.length; i++) {
+            result[i] = (int) Math.round(weights[i] * (double) (1L << bits));
+        }
+        return result;
+    }
+
+    /**
+     * Return copy of array in reversed order.
+     */
+    private static float[] reversed(float[] values) {
+        float[] result = new float[values.length];
+        for(int i = 0; i < values.length; i++) {
+            result[i] = values[values.length - 1 - i];
+        }
+        return result;
+    }
+
+
+    /**
+     * Kernel prepared for computation: flipped (so that convolution becomes correlation) and quantized.
+     */
+    private static final class Plan {
+        private final int kernelWidth;
+        private final int kernelHeight;
+        /** Position of the output pixel in the flipped kernel */
+        private final int originX;
+        private final int originY;
+
+        private final boolean separable;
+        /** Quantized flipped 2D kernel (non-separable) */
+        private final int[] weights;
+        private final int weightBits;
+        /** Quantized flipped vectors (separable) */
+        private final int[] rowWeights;
+        private final int[] columnWeights;
+        private final int rowBits;
+        private final int intermediateBits;
+        private final int columnBits;
+
+        /** Backend of the multiply-accumulate loops */
+        private final PixelKernels kernels = PixelKernels.get();
+
+        Plan(ConvolutionKernel kernel) {
+            this.kernelWidth = kernel.getWidth();
+            this.kernelHeight = kernel.getHeight();
+            this.originX = kernelWidth - 1 - kernel.getXOrigin();
+            this.originY = kernelHeight - 1 - kernel.getYOrigin();
+            this.separable = kernel.isSeparable() && kernelWidth * kernelHeight > kernelWidth + kernelHeight;
+
+            if(separable) {
+                float[] row = reversed(kernel.getRowVector());
+                float[] column = reversed(kernel.getColumnVector());
+                double rowSum = absoluteSum(row);
+                double columnSum = absoluteSum(column);
+                this.rowBits = weightBits(255 * rowSum);
+                this.intermediateBits = Math.min(INTERMEDIATE_BITS, rowBits);
+                this.columnBits = weightBits(255 * rowSum * (1 << intermediateBits) * columnSum);
+                this.rowWeights = quantize(row, rowBits);
+                this.columnWeights = quantize(column, columnBits);
+                this.weights = null;
+                this.weightBits = 0;
+            } else {
+                this.weightBits = weightBits(255 * kernel.getAbsoluteSum());
+                this.weights = quantize(reversed(kernel.getData()), weightBits);
+                this.rowWeights = null;
+                this.columnWeights = null;
+                this.rowBits = this.intermediateBits = this.columnBits = 0;
+            }
+        }
+
+        private static double absoluteSum(float[] values) {
+            double sum = 0;
+            for(float value : values) {
+                sum += Math.abs(value);
+            }
+            return sum;
+        }
+
+        void convolve(BufferedImage input, BufferedImage output, int fromY, int toY,
+                      PointPipeline.Compiled before, PointPipeline.Compiled after) {
+            RasterAccess src = RasterAccess.of(input);
+            RasterAccess dst = RasterAccess.of(output);
+            int width = input.getWidth();
+            int height = input.getHeight();
+            int channels = src.isGray() ? 1 : (src.hasAlpha() ? 4 : 3);
+
+            // range of pixels, that are computed (others are zero filled)
+            int validFromX = originX;
+            int validToX = width - originX;
+            int validFromY = Math.max(fromY, originY);
+            int validToY = Math.min(toY, height - originY);
+
+            int[] outRow = new int[width];
+            if(validFromX >= validToX || validFromY >= validToY) {
+                for(int y = fromY; y < toY; y++) {
+                    writeZeroRow(dst, y, outRow, width, after);
+                }
+                return;
+            }
+
+            // load rows with halo into planar channels
+            int srcFromY = validFromY - originY;
+            int srcToY = validToY - originY + kernelHeight - 1;
+            int[][] planes = new int[channels][(srcToY - srcFromY) * width];
+            int[] row = new int[width];
+            for(int y = srcFromY; y < srcToY; y++) {
+                src.readRow(y, 0, width, row);
+                if(before != null) {
+                    before.applyRow(row, width);
+                }
+                int offset = (y - srcFromY) * width;
+                for(int x = 0; x < width; x++) {
+                    int argb = row[x];
+                    planes[0][offset + x] = (argb >> 16) & 0xff;
+                    if(channels > 1) {
+                        planes[1][offset + x] = (argb >> 8) & 0xff;
+                        planes[2][offset + x] = argb & 0xff;
+                    }
+                    if(channels > 3) {
+                        planes[3][offset + x] = argb >>> 24;
+                    }
+                }
+            }
+
+            if(separable) {
+                horizontalPass(planes, width, srcToY - srcFromY, validFromX, validToX);
+            }
+
+            int[][] sums = new int[channels][width];
+            for(int y = fromY; y < toY; y++) {
+                if(y < validFromY || y >= validToY) {
+                    writeZeroRow(dst, y, outRow, width, after);
+                    continue;
+                }
+                int firstRow = y - originY - srcFromY;
+                for(int c = 0; c < channels; c++) {
+                    if(separable) {
+                        verticalSum(planes[c], width, firstRow, sums[c], validFromX, validToX);
+                    } else {
+                        directSum(planes[c], width, firstRow, sums[c], validFromX, validToX);
+                    }
+                }
+                packRow(sums, channels, outRow, width, validFromX, validToX);
+                if(after != null) {
+                    after.applyRow(outRow, width);
+                }
+                dst.writeRow(y, 0, width, outRow);
+            }
+        }
+
+        /**
+         * 2D sum of products for the single output row of a single channel (result is clamped sample).
+         */
+        private void directSum(int[] plane, int width, int firstRow, int[] sums, int fromX, int toX) {
+            Arrays.fill(sums, fromX, toX, 0);
+            for(int j = 0; j < kernelHeight; j++) {
+                int rowOffset = (firstRow + j) * width - originX;
+                for(int i = 0; i < kernelWidth; i++) {
+                    int weight = weights[j * kernelWidth + i];
+                    if(weight == 0) {
+                        continue;
+                    }
+                    kernels.multiplyAdd(sums, plane, rowOffset + i, weight, fromX, toX);
+                }
+            }
+            for(int x = fromX; x < toX; x++) {
+                sums[x] = clamp(sums[x] >> weightBits);
+            }
+        }
+
+        /**
+         * Replace every loaded row of every channel with horizontal 1D sums (with intermediate fixed-point precision).
+         */
+        private void horizontalPass(int[][] planes, int width, int rows, int fromX, int toX) {
+            int[] sums = new int[width];
+            int shift = rowBits - intermediateBits;
+            int rounding = shift > 0 ? 1 << (shift - 1) : 0;
+            for(int[] plane : planes) {
+                for(int r = 0; r < rows; r++) {
+                    int rowOffset = r * width - originX;
+                    Arrays.fill(sums, fromX, toX, 0);
+                    for(int i = 0; i < kernelWidth; i++) {
+                        int weight = rowWeights[i];
+                        if(weight == 0) {
+                            continue;
+                        }
+                        kernels.multiplyAdd(sums, plane, rowOffset + i, weight, fromX, toX);
+                    }
+                    int base = r * width;
+                    for(int x = fromX; x < toX; x++) {
+                        plane[base + x] = (sums[x] + rounding) >> shift;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Vertical 1D sum over horizontal pass results for the single output row of a single channel.
+         */
+        private void verticalSum(int[] plane, int width, int firstRow, int[] sums, int fromX, int toX) {
+            Arrays.fill(sums, fromX, toX, 0);
+            for(int j = 0; j < kernelHeight; j++) {
+                int weight = columnWeights[j];
+                if(weight == 0) {
+                    continue;
+                }
+                kernels.multiplyAdd(sums, plane, (firstRow + j) * width, weight, fromX, toX);
+            }
+            int shift = columnBits + intermediateBits;
+            for(int x = fromX; x < toX; x++) {
+                sums[x] = clamp(sums[x] >> shift);
+            }
+        }
+
+        /**
+         * Write zero filled border row (with fused point operations applied).
+         */
+        private static void writeZeroRow(RasterAccess dst, int y, int[] row, int width, PointPipeline.Compiled after) {
+            Arrays.fill(row, 0);
+            if(after != null) {
+                after.applyRow(row, width);
+            }
+            dst.writeRow(y, 0, width, row);
+        }
+
+        private static void packRow(int[][] samples, int channels, int[] row, int width, int fromX, int toX) {
+            Arrays.fill(row, 0, fromX, 0);
+            Arrays.fill(row, toX, width, 0);
+            for(int x = fromX; x < toX; x++) {
+                if(channels == 1) {
+                    int v = samples[0][x];
+                    row[x] = 0xff000000 | (v << 16) | (v << 8) | v;
+                } else {
+                    int alpha = channels > 3 ? samples[3][x] : 0xff;
+                    row[x] = (alpha << 24) | (samples[0][x] << 16) | (samples[1][x] << 8) | samples[2][x];
+                }
+            }
+        }
+
+        private static int clamp(int value) {
+            return value < 0 ? 0 : (value > 255 ? 255 : value);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package utils;
+
+import java.awt.image.Kernel;
+import java.util.Arrays;
+
+/**
+ * Convolution kernel of any size (width x height), with origin in the center (the same as java.awt.image.Kernel).
+ * On creation the kernel is checked for separability: rank-1 kernel (outer product of column and row vectors)
+ * can be computed as two 1D passes, that costs width + height instead of width * height operations per pixel.
+ */
+public final class ConvolutionKernel {
+
+    /** Relative tolerance of separability check */
+    private static final float SEPARABILITY_EPSILON = 1e-5f;
+
+    private final int width;
+    private final int height;
+    private final float[] data;
+
+    /** Vectors of separable kernel (data[i][j] = column[i] * row[j]), null for non-separable kernel */
+    private final float[] column;
+    private final float[] row;
+
+
+    /**
+     * @param width count of kernel columns
+     * @param height count of kernel rows
+     * @param data kernel elements in row-major order
+     */
+    public ConvolutionKernel(int width, int height, float[] data) {
+        if(width < 1 || height < 1 || data.length < width * height) {
+            throw new IllegalArgumentException("Kernel data does not match size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.data = Arrays.copyOf(data, width * height);
+
+        float[][] vectors = factorize();
+        this.column = vectors == null ? null : vectors[0];
+        this.row = vectors == null ? null : vectors[1];
+    }
+
+    /**
+     * Create square kernel from elements in row-major order (e.g. 9 elements for 3x3 kernel).
+     */
+    public static ConvolutionKernel square(float[] data) {
+        int size = (int) Math.round(Math.sqrt(data.length));
+        if(size * size != data.length) {
+            throw new IllegalArgumentException("Count of kernel elements is not a square: " + data.length);
+        }
+        return new ConvolutionKernel(size, size, data);
+    }
+
+    /**
+     * Create normalized size x size Gaussian blur kernel with sigma = size / 6 (kernel covers +-3 sigma).
+     */
+    public static ConvolutionKernel gaussian(int size) {
+        double sigma = Math.max(0.5, size / 6.0);
+        int origin = (size - 1) / 2;
+        double[] vector = new double[size];
+        double sum = 0;
+        for(int i = 0; i < size; i++) {
+            vector[i] = Math.exp(-(i - origin) * (i - origin) / (2 * sigma * sigma));
+            sum += vector[i];
+        }
+
+        float[] data = new float[size * size];
+        for(int i = 0; i < size; i++) {
+            for(int j = 0; j < size; j++) {
+                data[i * size + j] = (float) (vector[i] * vector[j] / (sum * sum));
+            }
+        }
+        return new ConvolutionKernel(size, size, data);
+    }
+
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getXOrigin() {
+        return (width - 1) / 2;
+    }
+
+    public int getYOrigin() {
+        return (height - 1) / 2;
+    }
+
+    /**
+     * Return count of neighbour pixels in every direction, which output pixel depends on
+     * (the larger distance from the origin to the kernel border).
+     */
+    public int getRadius() {
+        return Math.max(width, height) / 2;
+    }
+
+    /**
+     * Return copy of kernel elements in row-major order.
+     */
+    public float[] getData() {
+        return data.clone();
+    }
+
+    public float get(int x, int y) {
+        return data[y * width + x];
+    }
+
+    public boolean isSeparable() {
+        return column != null;
+    }
+
+    /**
+     * Return column vector of separable kernel (height elements).
+     */
+    public float[] getColumnVector() {
+        return column == null ? null : column.clone();
+    }
+
+    /**
+     * Return row vector of separable kernel (width elements).
+     */
+    public float[] getRowVector() {
+        return row == null ? null : row.clone();
+    }
+
+    /**
+     * Return sum of absolute values of kernel elements.
+     */
+    public float getAbsoluteSum() {
+        float sum = 0;
+        for(float value : data) {
+            sum += Math.abs(value);
+        }
+        return sum;
+    }
+
+    /**
+     * Return kernel with elements divided by their sum (kernel itself if sum is zero or one),
+     * so that filtration keeps image brightness.
+     */
+    public ConvolutionKernel normalized() {
+        float sum = 0;
+        for(float value : data) {
+            sum += value;
+        }
+        if(sum == 0 || sum == 1) {
+            return this;
+        }
+        float[] normalized = new float[data.length];
+        for(int i = 0; i < data.length; i++) {
+            normalized[i] = data[i] * (1 / sum);
+        }
+        return new ConvolutionKernel(width, height, normalized);
+    }
+
+    public Kernel toAwtKernel() {
+        return new Kernel(width, height, data);
+    }
+
+
+    /**
+     * Find column and row vectors of rank-1 kernel, return null if kernel is not separable.
+     */
+    private float[][] factorize() {
+        int pivot = 0;
+        for(int i = 1; i < data.length; i++) {
+            if(Math.abs(data[i]) > Math.abs(data[pivot])) {
+                pivot = i;
+            }
+        }
+        float max = Math.abs(data[pivot]);
+        if(max == 0) {
+            return null;
+        }
+
+        int pivotRow = pivot / width;
+        int pivotColumn = pivot % width;
+        float[] columnVector = new float[height];
+        float[] rowVector = new float[width];
+        for(int i = 0; i < height; i++) {
+            columnVector[i] = data[i * width + pivotColumn];
+        }
+        for(int j = 0; j < width; j++) {
+            rowVector[j] = data[pivotRow * width + j] / data[pivot];
+        }
+
+        for(int i = 0; i < height; i++) {
+            for(int j = 0; j < width; j++) {
+                if(Math.abs(data[i * width + j] - columnVector[i] * rowVector[j]) > SEPARABILITY_EPSILON * max) {
+                    return null;
+                }
+            }
+        }
+        return new float[][] { columnVector, rowVector };
+    }
+}
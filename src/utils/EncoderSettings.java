@@ -0,0 +1,163 @@
+package utils;
+
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import java.util.Locale;
+
+/**
+ * Immutable settings of the image encoder: output format and its parameters
+ * (JPEG quality and progressive mode, PNG compression level). BMP is written uncompressed.
+ * Settings are translated to {@link ImageWriteParam} of the ImageIO writer.
+ */
+public final class EncoderSettings {
+
+    /**
+     * Supported output formats.
+     */
+    public enum Format {
+        JPEG("jpg"),
+        PNG("png"),
+        BMP("bmp");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Return file extension (also ImageIO format name).
+         */
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Return format with the extension (jpg, jpeg, png, bmp in any case).
+         * @throws IllegalArgumentException if format is not supported
+         */
+        public static Format forExtension(String extension) {
+            String name = extension.toLowerCase(Locale.ROOT);
+            if(name.equals("jpeg")) {
+                return JPEG;
+            }
+            for(Format format : values()) {
+                if(format.extension.equals(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported image format " + extension);
+        }
+    }
+
+    /** JPEG quality of ImageIO writer default parameters */
+    public static final float DEFAULT_JPEG_QUALITY = 0.75f;
+    /** zlib level of ImageIO PNG writer default parameters */
+    public static final int DEFAULT_PNG_COMPRESSION = 4;
+
+    private final Format format;
+    private final float jpegQuality;
+    private final boolean progressive;
+    private final int pngCompression;
+
+
+    private EncoderSettings(Format format, float jpegQuality, boolean progressive, int pngCompression) {
+        if(jpegQuality < 0 || jpegQuality > 1) {
+            throw new IllegalArgumentException("JPEG quality has to be in range [0, 1]: " + jpegQuality);
+        }
+        if(pngCompression < 0 || pngCompression > 9) {
+            throw new IllegalArgumentException("PNG compression level has to be in range [0, 9]: " + pngCompression);
+        }
+        this.format = format;
+        this.jpegQuality = jpegQuality;
+        this.progressive = progressive;
+        this.pngCompression = pngCompression;
+    }
+
+    /**
+     * Return default settings of the format (the same as ImageIO.write).
+     */
+    public static EncoderSettings of(Format format) {
+        return new EncoderSettings(format, DEFAULT_JPEG_QUALITY, false, DEFAULT_PNG_COMPRESSION);
+    }
+
+    /**
+     * Return default settings of the format given by its extension.
+     * @throws IllegalArgumentException if format is not supported
+     */
+    public static EncoderSettings of(String extension) {
+        return of(Format.forExtension(extension));
+    }
+
+    /**
+     * @param quality quality in range [0, 1] (1 is the best quality and the largest file)
+     * @param progressive True for progressive JPEG (coarse image is shown first while it is loaded)
+     */
+    public static EncoderSettings jpeg(float quality, boolean progressive) {
+        return new EncoderSettings(Format.JPEG, quality, progressive, DEFAULT_PNG_COMPRESSION);
+    }
+
+    /**
+     * @param compression zlib compression level in range [0, 9] (0 stores data uncompressed, 9 is the smallest file)
+     */
+    public static EncoderSettings png(int compression) {
+        return new EncoderSettings(Format.PNG, DEFAULT_JPEG_QUALITY, false, compression);
+    }
+
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public String getExtension() {
+        return format.getExtension();
+    }
+
+    public float getJpegQuality() {
+        return jpegQuality;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    public int getPngCompression() {
+        return pngCompression;
+    }
+
+    /**
+     * Return parameters of the writer set according to these settings.
+     */
+    public ImageWriteParam createWriteParam(ImageWriter writer) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        switch (format) {
+            case JPEG:
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+                if(progressive) {
+                    param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                }
+                break;
+            case PNG:
+                // PNG writer maps quality q to zlib level 9 - round(9 * q)
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(1 - pngCompression / 9f);
+                break;
+            default:
+                break;
+        }
+        return param;
+    }
+
+    @Override
+    public String toString() {
+        switch (format) {
+            case JPEG:
+                return String.format(Locale.ROOT, "JPEG quality %.2f%s", jpegQuality, progressive ? " progressive" : "");
+            case PNG:
+                return "PNG compression " + pngCompression;
+            default:
+                return format.name();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package utils;
+
+/**
+ * Iterative radix-2 complex fast Fourier transform of fixed size (power of two).
+ * Twiddle factors and bit-reversal permutation are computed once and shared by all transforms.
+ */
+final class FFT {
+    private final int size;
+    private final int[] bitReversed;
+    private final double[] cos;
+    private final double[] sin;
+
+
+    FFT(int size) {
+        if(size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size has to be power of two: " + size);
+        }
+        this.size = size;
+        int bits = Integer.numberOfTrailingZeros(size);
+        this.bitReversed = new int[size];
+        for(int i = 0; i < size; i++) {
+            bitReversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        this.cos = new double[Math.max(1, size / 2)];
+        this.sin = new double[Math.max(1, size / 2)];
+        for(int i = 0; i < size / 2; i++) {
+            double angle = -2 * Math.PI * i / size;
+            cos[i] = Math.cos(angle);
+            sin[i] = Math.sin(angle);
+        }
+    }
+
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Transform size complex elements starting at offset in place.
+     * Inverse transform is not scaled (result is size times larger).
+     */
+    void transform(double[] re, double[] im, int offset, boolean inverse) {
+        for(int i = 0; i < size; i++) {
+            int j = bitReversed[i];
+            if(j > i) {
+                double t = re[offset + i];
+                re[offset + i] = re[offset + j];
+                re[offset + j] = t;
+                t = im[offset + i];
+                im[offset + i] = im[offset + j];
+                im[offset + j] = t;
+            }
+        }
+
+        double direction = inverse ? -1 : 1;
+        for(int half = 1; half < size; half <<= 1) {
+            int step = size / (2 * half);
+            for(int k = 0; k < half; k++) {
+                double wr = cos[k * step];
+                double wi = direction * sin[k * step];
+                for(int start = offset + k; start < offset + size; start += 2 * half) {
+                    int b = start + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[start] - tr;
+                    im[b] = im[start] - ti;
+                    re[start] += tr;
+                    im[start] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Frequency-domain convolution for large kernels, working on 8-bit channels.
+ * <p>
+ * The image is split into output tiles, every tile is computed from its input block (tile with kernel halo)
+ * by a single 2D FFT of the block, multiplication by the kernel spectrum and inverse FFT (overlap-save),
+ * so memory is bounded by the FFT size and not by the image size. Two channels are transformed together
+ * as real and imaginary part of one complex block.
+ * <p>
+ * Borders and rounding follow {@link ConvolutionEngine} (and java.awt.image.ConvolveOp): pixels closer
+ * to the border than the kernel reaches are zero filled, sums are truncated and clamped to [0, 255].
+ * Sums are computed in double precision, so channels differ by at most 1 ({@link #EPSILON}) from
+ * the spatial convolution.
+ * <p>
+ * {@link #isPreferred(ConvolutionKernel, int, int)} compares estimated costs of both paths.
+ * Point operations can be fused before and after the convolution the same way as in {@link ConvolutionEngine}.
+ */
+public final class FFTConvolution {
+
+    /** Max difference of channel values from the spatial convolution */
+    public static final int EPSILON = 1;
+
+    private static final int MIN_FFT_SIZE = 16;
+    /** Max FFT size of the tile (bounds memory of a single tile to 2 * 8 * size^2 bytes) */
+    private static final int MAX_FFT_SIZE = 512;
+    /**
+     * Cost of a single FFT operation unit (butterfly per element and level) relative to a single multiply-add
+     * of the spatial convolution (measured by benchmarks.ConvolutionBenchmark)
+     */
+    private static final double FFT_COST_FACTOR = 6.0;
+    /** Bias added before truncation, so that FFT round-off does not move exact integer sums below them */
+    private static final double ROUNDING_BIAS = 1e-6;
+
+
+    private FFTConvolution() {
+    }
+
+
+    /**
+     * Return true if convolution of the image with specified size is estimated to be cheaper in frequency domain.
+     */
+    public static boolean isPreferred(ConvolutionKernel kernel, int width, int height) {
+        int validWidth = width - 2 * (kernel.getWidth() / 2);
+        int validHeight = height - 2 * (kernel.getHeight() / 2);
+        if(validWidth <= 0 || validHeight <= 0) {
+            return false;
+        }
+        int kernelCost = kernel.isSeparable()
+                ? kernel.getWidth() + kernel.getHeight()
+                : kernel.getWidth() * kernel.getHeight();
+        double spatialCost = (double) validWidth * validHeight * kernelCost;
+        int[] size = chooseSize(kernel, validWidth, validHeight);
+        return fftCost(kernel, validWidth, validHeight, size[0], size[1]) < spatialCost;
+    }
+
+    /**
+     * Convolve the whole image and return result as new image of the same type.
+     * @param input image with layout supported by {@link RasterAccess}
+     * @param kernel convolution kernel
+     */
+    public static BufferedImage convolve(BufferedImage input, ConvolutionKernel kernel) {
+        return convolve(input, kernel, null, null);
+    }
+
+    /**
+     * Convolve the whole image with point operations fused before and after the convolution.
+     * @param input image with layout supported by {@link RasterAccess}
+     * @param kernel convolution kernel
+     * @param before point operations applied to input pixels (null for none)
+     * @param after point operations applied to output pixels (null for none)
+     */
+    public static BufferedImage convolve(BufferedImage input, ConvolutionKernel kernel,
+                                         PointPipeline.Compiled before, PointPipeline.Compiled after) {
+        BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), input.getType());
+        Plan plan = new Plan(kernel, input.getWidth(), input.getHeight());
+        if(plan.tileRows > 0) {
+            TileExecutor.forEachBand(input.getWidth() * plan.tileHeight, plan.tileRows, (fromRow, toRow) -> {
+                Workspace workspace = new Workspace(plan);
+                for(int tileRow = fromRow; tileRow < toRow; tileRow++) {
+                    plan.convolveTileRow(input, output, tileRow, workspace, before, after);
+                }
+            });
+        }
+        if(after != null) {
+            // zero filled border rows are not written by tiles
+            plan.writeBorderRows(output, after);
+        }
+        return output;
+    }
+
+
+    /**
+     * Estimated cost of FFT convolution in the units of spatial multiply-add (per channel).
+     */
+    private static double fftCost(ConvolutionKernel kernel, int validWidth, int validHeight, int fftWidth, int fftHeight) {
+        int tileWidth = fftWidth - kernel.getWidth() + 1;
+        int tileHeight = fftHeight - kernel.getHeight() + 1;
+        double tiles = Math.ceil((double) validWidth / tileWidth) * Math.ceil((double) validHeight / tileHeight);
+        int logWidth = Integer.numberOfTrailingZeros(fftWidth);
+        int logHeight = Integer.numberOfTrailingZeros(fftHeight);
+        int loadedRows = Math.min(fftHeight, validHeight + kernel.getHeight() - 1);
+        double transforms = (double) (loadedRows + tileHeight) * fftWidth * logWidth
+                + 2.0 * fftWidth * fftHeight * logHeight
+                + fftWidth * fftHeight;
+        // two channels are transformed together
+        return tiles * transforms * FFT_COST_FACTOR / 2;
+    }
+
+    /**
+     * Choose FFT width and height with the lowest estimated cost.
+     */
+    private static int[] chooseSize(ConvolutionKernel kernel, int validWidth, int validHeight) {
+        int[] widths = candidateSizes(kernel.getWidth(), validWidth);
+        int[] heights = candidateSizes(kernel.getHeight(), validHeight);
+        int[] best = { widths[0], heights[0] };
+        double bestCost = Double.MAX_VALUE;
+        for(int fftWidth : widths) {
+            for(int fftHeight : heights) {
+                double cost = fftCost(kernel, validWidth, validHeight, fftWidth, fftHeight);
+                if(cost < bestCost) {
+                    bestCost = cost;
+                    best = new int[] { fftWidth, fftHeight };
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return powers of two, which fit kernel with at least single output pixel and are not larger than needed
+     * for the whole image.
+     */
+    private static int[] candidateSizes(int kernelSize, int validSize) {
+        int min = Math.max(MIN_FFT_SIZE, nextPowerOfTwo(kernelSize));
+        int max = Math.max(min, Math.min(Math.max(MAX_FFT_SIZE, nextPowerOfTwo(2 * kernelSize)),
+                nextPowerOfTwo(validSize + kernelSize - 1)));
+        int count = Integer.numberOfTrailingZeros(max) - Integer.numberOfTrailingZeros(min) + 1;
+        int[] sizes = new int[count];
+        for(int i = 0; i < count; i++) {
+            sizes[i] = min << i;
+        }
+        return sizes;
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+
+    /**
+     * Kernel spectrum and tiling prepared for the image size.
+     */
+    private static final class Plan {
+        private final int kernelWidth;
+        private final int kernelHeight;
+        /** Offset of the input block from the output tile (the same as origin of flipped kernel) */
+        private final int originX;
+        private final int originY;
+
+        private final int width;
+        private final int validFromX;
+        private final int validToX;
+        private final int validFromY;
+        private final int validToY;
+
+        private final FFT rowTransform;
+        private final FFT columnTransform;
+        private final int tileWidth;
+        private final int tileHeight;
+        private final int tileRows;
+
+        /** Kernel spectrum (row-major, fftHeight x fftWidth), already scaled by inverse transform factor */
+        private final double[] spectrumRe;
+        private final double[] spectrumIm;
+
+        Plan(ConvolutionKernel kernel, int width, int height) {
+            this.kernelWidth = kernel.getWidth();
+            this.kernelHeight = kernel.getHeight();
+            this.originX = kernelWidth - 1 - kernel.getXOrigin();
+            this.originY = kernelHeight - 1 - kernel.getYOrigin();
+            this.width = width;
+            this.validFromX = originX;
+            this.validToX = width - originX;
+            this.validFromY = originY;
+            this.validToY = height - originY;
+
+            int validWidth = Math.max(1, validToX - validFromX);
+            int validHeight = Math.max(1, validToY - validFromY);
+            int[] size = chooseSize(kernel, validWidth, validHeight);
+            this.rowTransform = new FFT(size[0]);
+            this.columnTransform = new FFT(size[1]);
+            this.tileWidth = size[0] - kernelWidth + 1;
+            this.tileHeight = size[1] - kernelHeight + 1;
+            this.tileRows = validToX > validFromX && validToY > validFromY ? ceilDiv(validHeight, tileHeight) : 0;
+
+            int fftWidth = size[0];
+            int fftHeight = size[1];
+            spectrumRe = new double[fftWidth * fftHeight];
+            spectrumIm = new double[fftWidth * fftHeight];
+            double scale = 1.0 / ((double) fftWidth * fftHeight);
+            for(int y = 0; y < kernelHeight; y++) {
+                for(int x = 0; x < kernelWidth; x++) {
+                    spectrumRe[y * fftWidth + x] = kernel.get(x, y) * scale;
+                }
+            }
+            transform2D(spectrumRe, spectrumIm, kernelHeight, new double[fftHeight], new double[fftHeight]);
+        }
+
+        private static int ceilDiv(int a, int b) {
+            return (a + b - 1) / b;
+        }
+
+        /**
+         * Compute all tiles of the single tile row and write its rows to the output.
+         */
+        void convolveTileRow(BufferedImage input, BufferedImage output, int tileRow, Workspace workspace,
+                             PointPipeline.Compiled before, PointPipeline.Compiled after) {
+            RasterAccess src = RasterAccess.of(input);
+            RasterAccess dst = RasterAccess.of(output);
+            int channels = src.isGray() ? 1 : (src.hasAlpha() ? 4 : 3);
+
+            int y0 = validFromY + tileRow * tileHeight;
+            int rows = Math.min(tileHeight, validToY - y0);
+            int loadedRows = rows + kernelHeight - 1;
+
+            // load block rows into planar channels
+            int[][] planes = workspace.planes(channels, loadedRows * width);
+            int[] row = workspace.row;
+            for(int r = 0; r < loadedRows; r++) {
+                src.readRow(y0 - originY + r, 0, width, row);
+                if(before != null) {
+                    before.applyRow(row, width);
+                }
+                int offset = r * width;
+                for(int x = 0; x < width; x++) {
+                    int argb = row[x];
+                    planes[0][offset + x] = (argb >> 16) & 0xff;
+                    if(channels > 1) {
+                        planes[1][offset + x] = (argb >> 8) & 0xff;
+                        planes[2][offset + x] = argb & 0xff;
+                    }
+                    if(channels > 3) {
+                        planes[3][offset + x] = argb >>> 24;
+                    }
+                }
+            }
+
+            int[][] results = workspace.results(channels, rows * width);
+            for(int x0 = validFromX; x0 < validToX; x0 += tileWidth) {
+                int columns = Math.min(tileWidth, validToX - x0);
+                for(int c = 0; c < channels; c += 2) {
+                    int[] second = c + 1 < channels ? planes[c + 1] : null;
+                    convolveTile(planes[c], second, loadedRows, x0, columns, rows, results[c],
+                            c + 1 < channels ? results[c + 1] : null, workspace);
+                }
+            }
+
+            int[] outRow = workspace.row;
+            for(int r = 0; r < rows; r++) {
+                int offset = r * width;
+                Arrays.fill(outRow, 0, validFromX, 0);
+                Arrays.fill(outRow, validToX, width, 0);
+                for(int x = validFromX; x < validToX; x++) {
+                    if(channels == 1) {
+                        int v = results[0][offset + x];
+                        outRow[x] = 0xff000000 | (v << 16) | (v << 8) | v;
+                    } else {
+                        int alpha = channels > 3 ? results[3][offset + x] : 0xff;
+                        outRow[x] = (alpha << 24) | (results[0][offset + x] << 16)
+                                | (results[1][offset + x] << 8) | results[2][offset + x];
+                    }
+                }
+                if(after != null) {
+                    after.applyRow(outRow, width);
+                }
+                dst.writeRow(y0 + r, 0, width, outRow);
+            }
+        }
+
+        /**
+         * Write zero filled rows above and below the computed rows with point operations applied.
+         */
+        void writeBorderRows(BufferedImage output, PointPipeline.Compiled after) {
+            RasterAccess dst = RasterAccess.of(output);
+            int height = output.getHeight();
+            int[] row = new int[width];
+            for(int y = 0; y < height; y++) {
+                if(tileRows > 0 && y >= validFromY && y < validToY) {
+                    continue;
+                }
+                Arrays.fill(row, 0);
+                after.applyRow(row, width);
+                dst.writeRow(y, 0, width, row);
+            }
+        }
+
+        /**
+         * Convolve single tile of one or two channels (second can be null).
+         */
+        private void convolveTile(int[] first, int[] second, int loadedRows, int x0, int columns, int rows,
+                                  int[] firstResult, int[] secondResult, Workspace workspace) {
+            int fftWidth = rowTransform.getSize();
+            int fftHeight = columnTransform.getSize();
+            double[] re = workspace.re;
+            double[] im = workspace.im;
+            Arrays.fill(re, 0);
+            Arrays.fill(im, 0);
+
+            int blockFromX = x0 - originX;
+            int blockColumns = columns + kernelWidth - 1;
+            for(int r = 0; r < loadedRows; r++) {
+                int src = r * width + blockFromX;
+                int dst = r * fftWidth;
+                for(int x = 0; x < blockColumns; x++) {
+                    re[dst + x] = first[src + x];
+                }
+                if(second != null) {
+                    for(int x = 0; x < blockColumns; x++) {
+                        im[dst + x] = second[src + x];
+                    }
+                }
+            }
+
+            transform2D(re, im, loadedRows, workspace.columnRe, workspace.columnIm);
+            for(int i = 0; i < re.length; i++) {
+                double a = re[i];
+                double b = im[i];
+                re[i] = a * spectrumRe[i] - b * spectrumIm[i];
+                im[i] = a * spectrumIm[i] + b * spectrumRe[i];
+            }
+
+            // inverse transform, only rows of the valid (not wrapped) part are needed
+            transformColumns(re, im, workspace.columnRe, workspace.columnIm, true);
+            int firstRow = kernelHeight - 1;
+            for(int r = 0; r < rows; r++) {
+                int offset = (firstRow + r) * fftWidth;
+                rowTransform.transform(re, im, offset, true);
+                int src = offset + kernelWidth - 1;
+                int dst = r * width + x0;
+                for(int x = 0; x < columns; x++) {
+                    firstResult[dst + x] = clamp((int) Math.floor(re[src + x] + ROUNDING_BIAS));
+                }
+                if(second != null) {
+                    for(int x = 0; x < columns; x++) {
+                        secondResult[dst + x] = clamp((int) Math.floor(im[src + x] + ROUNDING_BIAS));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Forward 2D transform, only first nonZeroRows rows can contain non-zero values.
+         */
+        private void transform2D(double[] re, double[] im, int nonZeroRows, double[] columnRe, double[] columnIm) {
+            int fftWidth = rowTransform.getSize();
+            for(int r = 0; r < nonZeroRows; r++) {
+                rowTransform.transform(re, im, r * fftWidth, false);
+            }
+            transformColumns(re, im, columnRe, columnIm, false);
+        }
+
+        private void transformColumns(double[] re, double[] im, double[] columnRe, double[] columnIm, boolean inverse) {
+            int fftWidth = rowTransform.getSize();
+            int fftHeight = columnTransform.getSize();
+            for(int x = 0; x < fftWidth; x++) {
+                for(int y = 0; y < fftHeight; y++) {
+                    columnRe[y] = re[y * fftWidth + x];
+                    columnIm[y] = im[y * fftWidth + x];
+                }
+                columnTransform.transform(columnRe, columnIm, 0, inverse);
+                for(int y = 0; y < fftHeight; y++) {
+                    re[y * fftWidth + x] = columnRe[y];
+                    im[y * fftWidth + x] = columnIm[y];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Buffers of a single band (reused by all tiles of the band).
+     */
+    private static final class Workspace {
+        final double[] re;
+        final double[] im;
+        final double[] columnRe;
+        final double[] columnIm;
+        final int[] row;
+        private int[][] planes;
+        private int[][] results;
+
+        Workspace(Plan plan) {
+            int fftSize = plan.rowTransform.getSize() * plan.columnTransform.getSize();
+            re = new double[fftSize];
+            im = new double[fftSize];
+            columnRe = new double[plan.columnTransform.getSize()];
+            columnIm = new double[plan.columnTransform.getSize()];
+            row = new int[plan.width];
+        }
+
+        int[][] planes(int channels, int length) {
+            if(planes == null || planes[0].length < length) {
+                planes = new int[channels][length];
+            }
+            return planes;
+        }
+
+        int[][] results(int channels, int length) {
+            if(results == null || results[0].length < length) {
+                results = new int[channels][length];
+            }
+            return results;
+        }
+    }
+}
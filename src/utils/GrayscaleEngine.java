@@ -0,0 +1,179 @@
+package utils;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Conversion of color images to TYPE_BYTE_GRAY in a single pass over the pixel arrays.
+ * Gray sample is a 16-bit fixed-point weighted sum of color channels computed by {@link PixelKernels}:
+ * packed RGB rasters are read by the kernel directly, interleaved byte rasters row by row
+ * through {@link RasterAccess}. Rows are converted in parallel bands by {@link TileExecutor}.
+ * <p>
+ * Default {@link Weights#LINEAR_LUMINANCE} gives the same result as drawing the image into TYPE_BYTE_GRAY
+ * by setRGB (the original conversion of the editor) up to 1 gray level, so edits stay reproducible.
+ * Only images with layouts supported by {@link RasterAccess} are converted here.
+ */
+public final class GrayscaleEngine {
+
+    /**
+     * Weights of color channels.
+     */
+    public enum Weights {
+        /**
+         * Rec.709 luminance of linearized sRGB channels stored in the linear gray color space of TYPE_BYTE_GRAY,
+         * which is the conversion of ColorModel used by setRGB.
+         */
+        LINEAR_LUMINANCE(0.2125, 0.7154, 0.0721),
+        /** Rec.601 luma of gamma encoded channels (0.299 R + 0.587 G + 0.114 B) */
+        REC_601(0.299, 0.587, 0.114),
+        /** Rec.709 luma of gamma encoded channels (0.2126 R + 0.7152 G + 0.0722 B) */
+        REC_709(0.2126, 0.7152, 0.0722);
+
+        private final int red;
+        private final int green;
+        private final int blue;
+
+        Weights(double red, double green, double blue) {
+            this.red = (int) Math.round(red * 65536);
+            this.green = (int) Math.round(green * 65536);
+            this.blue = 65536 - this.red - this.green;
+        }
+    }
+
+    /** Contributions of linearized sRGB channel values for {@link Weights#LINEAR_LUMINANCE} */
+    private static final int[] LINEAR_RED = linearTable(0.2125f);
+    private static final int[] LINEAR_GREEN = linearTable(0.7154f);
+    private static final int[] LINEAR_BLUE = linearTable(0.0721f);
+
+
+    private GrayscaleEngine() {
+    }
+
+
+    /**
+     * Convert image to new TYPE_BYTE_GRAY image (gray image is copied).
+     * @param input image with layout supported by {@link RasterAccess}
+     * @param weights weights of color channels
+     */
+    public static BufferedImage convert(BufferedImage input, Weights weights) {
+        BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        if(input.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            output.setData(input.getRaster());
+            return output;
+        }
+        TileExecutor.forEachBand(input.getWidth(), input.getHeight(),
+                (fromY, toY) -> convert(input, output, weights, fromY, toY));
+        return output;
+    }
+
+    /**
+     * Convert image to TYPE_BYTE_GRAY reusing its pixel array if possible, so no other image is allocated.
+     * Gray samples are written to the beginning of the array of interleaved byte rasters (TYPE_3BYTE_BGR,
+     * TYPE_4BYTE_ABGR) that are not sub-images, rows are converted serially, because every row overwrites
+     * samples of the previous rows. Gray image is returned itself, other images are converted by
+     * {@link #convert(BufferedImage, Weights)}.
+     * The input image cannot be used after the call.
+     * @param input image with layout supported by {@link RasterAccess}
+     * @param weights weights of color channels
+     */
+    public static BufferedImage convertInPlace(BufferedImage input, Weights weights) {
+        if(input.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return input;
+        }
+        if(!isReusable(input)) {
+            return convert(input, weights);
+        }
+
+        int width = input.getWidth();
+        int height = input.getHeight();
+        RasterAccess src = RasterAccess.of(input);
+        byte[] data = ((DataBufferByte) input.getRaster().getDataBuffer()).getData();
+        int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            src.readRow(y, 0, width, row);
+            grayRow(row, 0, width, weights, data, y * width);
+        }
+
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(data, width * height),
+                width, height, width, 1, new int[] { 0 }, null);
+        ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                new int[] { 8 }, false, true, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Convert the specified rows range.
+     * @param input color image with layout supported by {@link RasterAccess}
+     * @param output TYPE_BYTE_GRAY image with the same size as input
+     * @param weights weights of color channels
+     * @param fromY first converted row (inclusive)
+     * @param toY last converted row (exclusive)
+     */
+    public static void convert(BufferedImage input, BufferedImage output, Weights weights, int fromY, int toY) {
+        RasterAccess src = RasterAccess.of(input);
+        RasterAccess dst = RasterAccess.of(output);
+        int width = input.getWidth();
+        byte[] gray = dst.grayData();
+
+        if(src.isPackedRGB()) {
+            int[] data = src.packedData();
+            for(int y = fromY; y < toY; y++) {
+                grayRow(data, src.packedIndex(0, y), width, weights, gray, dst.grayIndex(0, y));
+            }
+            return;
+        }
+
+        int[] row = new int[width];
+        for(int y = fromY; y < toY; y++) {
+            src.readRow(y, 0, width, row);
+            grayRow(row, 0, width, weights, gray, dst.grayIndex(0, y));
+        }
+    }
+
+
+    private static void grayRow(int[] argb, int argbOffset, int length, Weights weights, byte[] gray, int grayOffset) {
+        if(weights == Weights.LINEAR_LUMINANCE) {
+            PixelKernels.get().grayRow(argb, argbOffset, length, LINEAR_RED, LINEAR_GREEN, LINEAR_BLUE, gray, grayOffset);
+        } else {
+            PixelKernels.get().grayRow(argb, argbOffset, length, weights.red, weights.green, weights.blue, gray, grayOffset);
+        }
+    }
+
+    /**
+     * Check if gray samples can be written over the pixel array of the image: single interleaved byte array
+     * of the whole image without padding.
+     */
+    private static boolean isReusable(BufferedImage input) {
+        WritableRaster raster = input.getRaster();
+        if(raster.getParent() != null || !(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+            return false;
+        }
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        return raster.getDataBuffer().getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && sampleModel.getScanlineStride() == input.getWidth() * sampleModel.getPixelStride();
+    }
+
+    /**
+     * Return contributions of 8-bit sRGB values in 16-bit fixed-point: weight * linear value * 255.
+     * Linearization is the same as in java.awt.image.ColorModel (IEC 61966-2-1 rounded to 16 bits).
+     */
+    private static int[] linearTable(float weight) {
+        int[] table = new int[256];
+        for(int i = 0; i < table.length; i++) {
+            float input = i / 255.0f;
+            float output = input <= 0.04045f ? input / 12.92f : (float) Math.pow((input + 0.055f) / 1.055f, 2.4);
+            int linear16 = Math.round(output * 65535.0f);
+            table[i] = (int) Math.round(weight * linear16 / 65535.0 * 255 * 65536);
+        }
+        return table;
+    }
+}
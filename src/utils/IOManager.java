@@ -2,21 +2,73 @@ package utils;
 
 import com.sun.jdi.InvalidTypeException;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class for service input/output images operations.
+ * Loading and saving can report progress and can be cancelled from other thread through {@link Transfer}.
  */
 public class IOManager {
 
+    /** Temporary files of running savings */
+    private static final Set<Path> temporaryFiles = ConcurrentHashMap.newKeySet();
+
+
     /**
      * Load image from specified path and returns it as the BufferedImage.
      */
     public static BufferedImage loadImage(String absPath) throws IOException, InvalidTypeException {
-        BufferedImage img = ImageIO.read(new File(absPath));
+        return loadImage(absPath, null);
+    }
+
+    /**
+     * Load image from specified path with progress reporting and cancellation.
+     * @param transfer progress listener and cancellation of the loading (null for none)
+     * @throws CancellationException if the transfer was cancelled
+     */
+    public static BufferedImage loadImage(String absPath, Transfer transfer) throws IOException, InvalidTypeException {
+        File file = new File(absPath);
+        BufferedImage img;
+        try(ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if(input == null) {
+                throw new IOException("Cannot open " + absPath);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if(!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + absPath);
+            }
+            ImageReader reader = readers.next();
+            reader.setInput(input, true, true);
+            try {
+                img = read(reader, reader.getDefaultReadParam(), transfer);
+            } finally {
+                reader.dispose();
+            }
+        }
         if(img.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
             throw new InvalidTypeException("Indexed image is not supported");
         }
@@ -24,16 +76,312 @@ public class IOManager {
     }
 
     /**
-     * Save image in specified path.
+     * Save image in specified path with default settings of the format.
      * @param img saved image
      * @param absPath absolute path for saving location
-     * @param formatName image format
+     * @param formatName image format (jpg, png or bmp)
+     * @throws IOException if writing fails or there is no writer for the format and image type
+     */
+    public static void saveImage(BufferedImage img, String absPath, String formatName) throws IOException {
+        saveImage(img, absPath, EncoderSettings.of(formatName), null);
+    }
+
+    /**
+     * Save image in specified path with progress reporting and cancellation. The image is written through
+     * {@link ChannelImageOutputStream} to a temporary file in the same directory, which replaces the target file
+     * only after the whole image is written, so the cancelled or failed saving keeps the existing file untouched
+     * (the temporary file is removed).
+     * @param img saved image
+     * @param absPath absolute path for saving location (extension of the format is appended)
+     * @param settings format and encoder parameters
+     * @param transfer progress listener and cancellation of the saving (null for none)
+     * @throws IOException if writing fails or there is no writer for the format and image type
+     * @throws CancellationException if the transfer was cancelled
+     */
+    public static void saveImage(RenderedImage img, String absPath, EncoderSettings settings, Transfer transfer) throws IOException {
+        Path file = Paths.get(absPath + "." + settings.getExtension());
+        Iterator<ImageWriter> writers = ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(img),
+                settings.getExtension());
+        if(!writers.hasNext()) {
+            throw new IOException("No " + settings.getFormat() + " writer for the image type");
+        }
+        ImageWriter writer = writers.next();
+        Path temp = createTempFile(file);
+        temporaryFiles.add(temp);
+        boolean written = false;
+        try {
+            try(ImageOutputStream output = new ChannelImageOutputStream(temp)) {
+                writer.setOutput(output);
+                write(writer, img, settings.createWriteParam(writer), transfer);
+            }
+            replace(temp, file);
+            written = true;
+        } finally {
+            writer.dispose();
+            if(!written) {
+                Files.deleteIfExists(temp);
+            }
+            temporaryFiles.remove(temp);
+        }
+    }
+
+    /**
+     * Remove temporary files of savings, which are still running (e.g. on exit, when they cannot be finished).
+     */
+    public static void deleteTemporaryFiles() {
+        for(Path temp : temporaryFiles) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                // the file stays in the directory, it is hidden
+            }
+            temporaryFiles.remove(temp);
+        }
+    }
+
+    /**
+     * Save tiled image in specified path. Writer reads pixels from the tiles, so the image is not copied
+     * to the heap as a whole (except formats, whose writers copy the raster).
+     * @param img saved image
+     * @param absPath absolute path for saving location (extension of the format is appended)
+     * @param settings format and encoder parameters
+     * @param transfer progress listener and cancellation of the saving (null for none)
+     * @throws IOException if writing fails or there is no writer for the format and image type
+     * @throws CancellationException if the transfer was cancelled
+     */
+    public static void saveImage(TiledImage img, String absPath, EncoderSettings settings, Transfer transfer) throws IOException {
+        saveImage(img.asRenderedImage(), absPath, settings, transfer);
+    }
+
+
+    /**
+     * Create hidden temporary file next to the file. Unlike {@link Files#createTempFile}, it gets default
+     * permissions of new files, because it becomes the saved file.
+     */
+    private static Path createTempFile(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        for(int i = 0; ; i++) {
+            try {
+                return Files.createFile(absolute.resolveSibling("." + absolute.getFileName() + "." + i + ".tmp"));
+            } catch (FileAlreadyExistsException e) {
+                // temporary file of other saving, try next name
+            }
+        }
+    }
+
+    /**
+     * Move the written temporary file to the target atomically (readers see either the old or the new file),
+     * or just replace the target, if the file system does not support atomic move.
      */
-    public static void saveImage(BufferedImage img, String absPath, String formatName) {
+    private static void replace(Path temp, Path file) throws IOException {
         try {
-            ImageIO.write(img, formatName, new File(absPath + "." + formatName));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read the first image by the reader, which is registered to the transfer during the reading.
+     */
+    static BufferedImage read(ImageReader reader, ImageReadParam param, Transfer transfer) throws IOException {
+        if(transfer == null) {
+            return reader.read(0, param);
+        }
+        transfer.attach(reader);
+        try {
+            BufferedImage image = reader.read(0, param);
+            transfer.checkCancelled();
+            return image;
+        } finally {
+            transfer.detach();
+        }
+    }
+
+    private static void write(ImageWriter writer, RenderedImage img, ImageWriteParam param, Transfer transfer) throws IOException {
+        if(transfer != null) {
+            transfer.attach(writer);
+        }
+        try {
+            writer.write(null, new IIOImage(img, null, null), param);
+            if(transfer != null) {
+                transfer.checkCancelled();
+            }
+        } finally {
+            if(transfer != null) {
+                transfer.detach();
+            }
+        }
+    }
+
+
+    /**
+     * Receiver of the progress of loading or saving.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * Called on the loading (saving) thread when progress changes.
+         * @param percent completed part in percents (0 - 100)
+         */
+        void progressChanged(float percent);
+    }
+
+    /**
+     * Progress reporting and cancellation of loading or saving running on other thread.
+     * Readers and writers can be used only by the thread, which runs them, so cancellation only sets flag
+     * and the running reader (writer) is aborted by {@link ImageReader#abort()} ({@link ImageWriter#abort()})
+     * from its own progress notification. The loading (saving) thread throws {@link CancellationException} then.
+     */
+    public static final class Transfer {
+        private final ProgressListener listener;
+        private volatile boolean cancelled = false;
+
+        /** Running reader or writer (used by the transfer thread only) */
+        private ImageReader reader = null;
+        private ImageWriter writer = null;
+
+        /**
+         * @param listener progress listener (null for none)
+         */
+        public Transfer(ProgressListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Request cancellation, it can be called from any thread.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Throw CancellationException if the transfer was cancelled.
+         */
+        public void checkCancelled() {
+            if(cancelled) {
+                throw new CancellationException("Transfer cancelled");
+            }
+        }
+
+        /**
+         * Report progress of the transfer step, which is not done by ImageIO reader or writer.
+         */
+        public void progress(float percent) {
+            if(listener != null) {
+                listener.progressChanged(percent);
+            }
+        }
+
+        void attach(ImageReader reader) {
+            checkCancelled();
+            this.reader = reader;
+            reader.addIIOReadProgressListener(new ProgressAdapter());
+        }
+
+        void attach(ImageWriter writer) {
+            checkCancelled();
+            this.writer = writer;
+            writer.addIIOWriteProgressListener(new ProgressAdapter());
+        }
+
+        void detach() {
+            if(reader != null) {
+                reader.removeAllIIOReadProgressListeners();
+                reader = null;
+            }
+            if(writer != null) {
+                writer.removeAllIIOWriteProgressListeners();
+                writer = null;
+            }
+        }
+
+
+        /**
+         * Forwards image progress of ImageIO reader or writer to the listener and aborts it, if transfer is cancelled.
+         */
+        private class ProgressAdapter implements IIOReadProgressListener, IIOWriteProgressListener {
+            @Override
+            public void imageProgress(ImageReader source, float percentageDone) {
+                if(cancelled) {
+                    source.abort();
+                    return;
+                }
+                progress(percentageDone);
+            }
+
+            @Override
+            public void imageProgress(ImageWriter source, float percentageDone) {
+                if(cancelled) {
+                    source.abort();
+                    return;
+                }
+                progress(percentageDone);
+            }
+
+            @Override
+            public void imageStarted(ImageReader source, int imageIndex) {
+                progress(0);
+            }
+
+            @Override
+            public void imageStarted(ImageWriter source, int imageIndex) {
+                progress(0);
+            }
+
+            @Override
+            public void imageComplete(ImageReader source) {
+                progress(100);
+            }
+
+            @Override
+            public void imageComplete(ImageWriter source) {
+                progress(100);
+            }
+
+            @Override
+            public void sequenceStarted(ImageReader source, int minIndex) {
+            }
+
+            @Override
+            public void sequenceComplete(ImageReader source) {
+            }
+
+            @Override
+            public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+            }
+
+            @Override
+            public void thumbnailProgress(ImageReader source, float percentageDone) {
+            }
+
+            @Override
+            public void thumbnailComplete(ImageReader source) {
+            }
+
+            @Override
+            public void readAborted(ImageReader source) {
+            }
+
+            @Override
+            public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+            }
+
+            @Override
+            public void thumbnailProgress(ImageWriter source, float percentageDone) {
+            }
+
+            @Override
+            public void thumbnailComplete(ImageWriter source) {
+            }
+
+            @Override
+            public void writeAborted(ImageWriter source) {
+            }
         }
     }
 }
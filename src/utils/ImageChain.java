@@ -0,0 +1,158 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lazily evaluated chain of operations on the source image. Operations are only queued,
+ * {@link #render()} plans them into fused passes and executes them:
+ * <ul>
+ *     <li>adjacent point operations (brightness, contrast) collapse into one {@link PointPipeline} pass,</li>
+ *     <li>point operations preceding and following a convolution run inside the convolution row loops
+ *     ({@link ImageProcessing#linearFiltration(BufferedImage, ConvolutionKernel, PointPipeline, PointPipeline)}),</li>
+ *     <li>conversion to gray scale is a pass boundary (it changes the image layout), it reuses pixel array
+ *     of the intermediate image if possible ({@link GrayscaleEngine#convertInPlace}).</li>
+ * </ul>
+ * So e.g. gray -> filter -> brightness -> contrast allocates the gray image and the result only,
+ * instead of an image per operation. Results are the same as of eager evaluation of operations one by one.
+ * Images with layouts not supported by {@link RasterAccess} are evaluated eagerly.
+ */
+public final class ImageChain {
+
+    private final BufferedImage source;
+    private final List<Step> steps = new ArrayList<>();
+
+
+    private ImageChain(BufferedImage source) {
+        this.source = source;
+    }
+
+    public static ImageChain of(BufferedImage source) {
+        return new ImageChain(source);
+    }
+
+
+    /**
+     * Queue conversion to gray scale (images already in gray scale are not converted).
+     */
+    public ImageChain gray() {
+        return gray(GrayscaleEngine.Weights.LINEAR_LUMINANCE);
+    }
+
+    /**
+     * Queue conversion to gray scale with specified weights of color channels.
+     */
+    public ImageChain gray(GrayscaleEngine.Weights weights) {
+        steps.add(new Step(Step.GRAY, null, 0, 1, weights));
+        return this;
+    }
+
+    /**
+     * Queue linear filtration with the kernel.
+     */
+    public ImageChain filter(ConvolutionKernel kernel) {
+        steps.add(new Step(Step.FILTER, kernel, 0, 1, null));
+        return this;
+    }
+
+    /**
+     * Queue brightness and contrast change (brightness is applied first).
+     */
+    public ImageChain colorAdjustment(int offset, float scale) {
+        if(offset != 0 || scale != 1) {
+            steps.add(new Step(Step.POINT, null, offset, scale, null));
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+
+    /**
+     * Execute all queued operations and return result (the source image itself, if there is nothing to do).
+     */
+    public BufferedImage render() {
+        if(!RasterAccess.isSupported(source)) {
+            return renderEagerly();
+        }
+
+        BufferedImage image = source;
+        PointPipeline pending = new PointPipeline();
+        for(int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            switch(step.kind) {
+                case Step.POINT -> pending.brightness(step.offset).contrast(step.scale);
+                case Step.GRAY -> {
+                    image = applyPoints(image, pending);
+                    pending = new PointPipeline();
+                    if(image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+                        // intermediate images are owned by the chain, so their pixel arrays can be reused
+                        image = image == source ? GrayscaleEngine.convert(image, step.weights)
+                                : GrayscaleEngine.convertInPlace(image, step.weights);
+                    }
+                }
+                case Step.FILTER -> {
+                    PointPipeline after = new PointPipeline();
+                    while(i + 1 < steps.size() && steps.get(i + 1).kind == Step.POINT) {
+                        Step point = steps.get(++i);
+                        after.brightness(point.offset).contrast(point.scale);
+                    }
+                    image = ImageProcessing.linearFiltration(image, step.kernel, pending, after);
+                    pending = new PointPipeline();
+                }
+            }
+        }
+        return applyPoints(image, pending);
+    }
+
+    private static BufferedImage applyPoints(BufferedImage image, PointPipeline pipeline) {
+        return pipeline.isIdentity() ? image : pipeline.apply(image);
+    }
+
+    private BufferedImage renderEagerly() {
+        BufferedImage image = source;
+        for(int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            switch(step.kind) {
+                case Step.POINT -> image = ImageProcessing.colorAdjustment(image, step.offset, step.scale);
+                case Step.GRAY -> {
+                    if(image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+                        image = ImageProcessing.RGBtoGray(image, step.weights);
+                    }
+                }
+                case Step.FILTER -> image = ImageProcessing.linearFiltration(image, step.kernel);
+            }
+            if(RasterAccess.isSupported(image)) {
+                // the rest of the chain is fused on the supported intermediate image
+                ImageChain rest = ImageChain.of(image);
+                rest.steps.addAll(steps.subList(i + 1, steps.size()));
+                return rest.render();
+            }
+        }
+        return image;
+    }
+
+
+    private static class Step {
+        static final int GRAY = 0;
+        static final int FILTER = 1;
+        static final int POINT = 2;
+
+        final int kind;
+        final ConvolutionKernel kernel;
+        final int offset;
+        final float scale;
+        final GrayscaleEngine.Weights weights;
+
+        Step(int kind, ConvolutionKernel kernel, int offset, float scale, GrayscaleEngine.Weights weights) {
+            this.kind = kind;
+            this.kernel = kernel;
+            this.offset = offset;
+            this.scale = scale;
+            this.weights = weights;
+        }
+    }
+}
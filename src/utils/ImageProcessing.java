@@ -2,42 +2,148 @@ package utils;
 
 import java.awt.*;
 import java.awt.image.*;
+import java.io.IOException;
+import java.util.function.UnaryOperator;
 
 /**
  * Processor class that is responsible for image processing.
+ * Every operation is computed in parallel row bands by {@link TileExecutor}.
+ * Gray scale conversion, linear filtration and color adjustment can be computed also tile-by-tile
+ * on {@link TiledImage}, which is not limited by the heap size.
  */
 public class ImageProcessing {
 
+    /** Max count of kernel elements filtered by ConvolveOp (measured by benchmarks.ConvolutionBenchmark) */
+    private static final int MAX_NATIVE_KERNEL_ELEMENTS = 9;
+
     /**
      * Convert input image to gray scale and returns it.
      */
     public static BufferedImage RGBtoGray(BufferedImage input) {
+        return RGBtoGray(input, GrayscaleEngine.Weights.LINEAR_LUMINANCE);
+    }
+
+    /**
+     * Convert input image to gray scale with specified weights of color channels and returns it.
+     * Images with layouts supported by {@link RasterAccess} are converted by {@link GrayscaleEngine},
+     * other images by setRGB (conversion of their color model, weights are ignored).
+     */
+    public static BufferedImage RGBtoGray(BufferedImage input, GrayscaleEngine.Weights weights) {
+        if(RasterAccess.isSupported(input)) {
+            return GrayscaleEngine.convert(input, weights);
+        }
+
         BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        for(int y = 0; y < input.getHeight(); y++) {
-            for(int x = 0; x < input.getWidth(); x++) {
-                int argb = input.getRGB(x, y);
-                output.setRGB(x, y, argb);
+        TileExecutor.forEachBand(input.getWidth(), input.getHeight(), (fromY, toY) -> {
+            for(int y = fromY; y < toY; y++) {
+                for(int x = 0; x < input.getWidth(); x++) {
+                    int argb = input.getRGB(x, y);
+                    output.setRGB(x, y, argb);
+                }
             }
-        }
+        });
         return output;
     }
 
     /**
-     * Convolve specified image with 3x3 kernel mask passed to method as numbers array and returns result.
+     * Convolve specified image with square kernel of any odd or even size, given row by row as numbers array,
+     * and returns result.
      */
     public static BufferedImage linearFiltration(BufferedImage input, float[] kernelElements) {
-        ConvolveOp filtration = new ConvolveOp(new Kernel(3, 3, kernelElements));
-        return filtration.filter(input, null);
+        return linearFiltration(input, ConvolutionKernel.square(kernelElements));
+    }
+
+    /**
+     * Convolve specified image with kernel of any size and returns result.
+     * Images with layouts supported by {@link RasterAccess} are processed by {@link ConvolutionEngine}
+     * or {@link FFTConvolution} (chosen by cost model of kernel size versus image size),
+     * except kernels up to 3x3, for which native ConvolveOp is faster.
+     * <p>
+     * Other images are processed by ConvolveOp, where every band is convolved together with kernel halo rows
+     * (neighbour rows), so band borders are computed the same as in the single pass over the whole image.
+     */
+    public static BufferedImage linearFiltration(BufferedImage input, ConvolutionKernel kernel) {
+        if(RasterAccess.isSupported(input) && kernel.getWidth() * kernel.getHeight() > MAX_NATIVE_KERNEL_ELEMENTS) {
+            if(FFTConvolution.isPreferred(kernel, input.getWidth(), input.getHeight())) {
+                return FFTConvolution.convolve(input, kernel);
+            }
+            return ConvolutionEngine.convolve(input, kernel);
+        }
+        return nativeFiltration(input, kernel);
+    }
+
+    /**
+     * Convolve image with kernel together with point operations applied before and after the convolution.
+     * The result is the same as of separate passes: before.apply, linearFiltration, after.apply.
+     * Point operations are fused into row loops of {@link ConvolutionEngine} and {@link FFTConvolution},
+     * so only the output image is allocated. ConvolveOp path applies operations before the convolution
+     * in a separate pass and operations after it in place on the output.
+     * @param input image with layout supported by {@link RasterAccess}
+     * @param kernel convolution kernel
+     * @param before point operations applied before the convolution
+     * @param after point operations applied after the convolution
+     */
+    public static BufferedImage linearFiltration(BufferedImage input, ConvolutionKernel kernel,
+                                                 PointPipeline before, PointPipeline after) {
+        boolean gray = input.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        PointPipeline.Compiled afterCompiled = after.isIdentity() ? null : after.compile(gray);
+        if(kernel.getWidth() * kernel.getHeight() > MAX_NATIVE_KERNEL_ELEMENTS) {
+            PointPipeline.Compiled beforeCompiled = before.isIdentity() ? null : before.compile(gray);
+            if(FFTConvolution.isPreferred(kernel, input.getWidth(), input.getHeight())) {
+                return FFTConvolution.convolve(input, kernel, beforeCompiled, afterCompiled);
+            }
+            return ConvolutionEngine.convolve(input, kernel, beforeCompiled, afterCompiled);
+        }
+
+        BufferedImage source = before.isIdentity() ? input : before.apply(input);
+        BufferedImage output = nativeFiltration(source, kernel);
+        if(afterCompiled != null) {
+            TileExecutor.forEachBand(output.getWidth(), output.getHeight(),
+                    (fromY, toY) -> afterCompiled.apply(output, output, fromY, toY));
+        }
+        return output;
+    }
+
+    /**
+     * Convolve image by ConvolveOp in parallel bands.
+     */
+    private static BufferedImage nativeFiltration(BufferedImage input, ConvolutionKernel kernel) {
+        Kernel awtKernel = kernel.toAwtKernel();
+        ConvolveOp filtration = new ConvolveOp(awtKernel);
+        BufferedImage output = filtration.createCompatibleDestImage(input, null);
+
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int haloTop = awtKernel.getYOrigin();
+        int haloBottom = awtKernel.getHeight() - 1 - awtKernel.getYOrigin();
+
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            int srcFromY = Math.max(0, fromY - haloTop);
+            int srcToY = Math.min(height, toY + haloBottom);
+            BufferedImage band = filtration.filter(input.getSubimage(0, srcFromY, width, srcToY - srcFromY), null);
+            Raster bandRows = band.getRaster().createChild(0, fromY - srcFromY, width, toY - fromY, 0, 0, null);
+            output.getRaster().setRect(0, fromY, bandRows);
+        });
+        return output;
     }
 
     /**
      * Change image contrast or/and brightness.
+     * Both operations are compiled into {@link PointPipeline} and applied in single pass over the image.
      * @param input input image
      * @param offset brightness offset
      * @param scale contrast scaling factor
      * @return result image
      */
     public static BufferedImage colorAdjustment(BufferedImage input, int offset, float scale) {
+        if(offset == 0 && scale == 1) {
+            return input;
+        }
+
+        if(RasterAccess.isSupported(input)) {
+            return new PointPipeline().brightness(offset).contrast(scale).apply(input);
+        }
+
         BufferedImage result = input;
         if(offset != 0) {
             result = changeBrightness(result, offset);
@@ -45,11 +151,113 @@ public class ImageProcessing {
         if (scale != 1) {
             result = changeContrast(result, scale);
         }
-
         return result;
     }
 
 
+    /**
+     * Convert tiled image to gray scale tile-by-tile (the same result as {@link #RGBtoGray(BufferedImage)}).
+     * @return new tiled image, which has to be closed by the caller
+     */
+    public static TiledImage RGBtoGray(TiledImage input) throws IOException {
+        return RGBtoGray(input, GrayscaleEngine.Weights.LINEAR_LUMINANCE);
+    }
+
+    /**
+     * Convert tiled image to gray scale with specified weights of color channels tile-by-tile.
+     * @return new tiled image, which has to be closed by the caller
+     */
+    public static TiledImage RGBtoGray(TiledImage input, GrayscaleEngine.Weights weights) throws IOException {
+        return mapTiles(input, 0, tile -> GrayscaleEngine.convertInPlace(tile, weights));
+    }
+
+    /**
+     * Convolve tiled image with kernel tile-by-tile. Every tile is convolved together with neighbour pixels
+     * reached by the kernel (halo), so tile borders are computed the same as in the whole image.
+     * @return new tiled image, which has to be closed by the caller
+     */
+    public static TiledImage linearFiltration(TiledImage input, ConvolutionKernel kernel) throws IOException {
+        return mapTiles(input, kernel.getRadius(), tile -> linearFiltration(tile, kernel));
+    }
+
+    /**
+     * Change contrast or/and brightness of tiled image tile-by-tile.
+     * @return new tiled image, which has to be closed by the caller
+     */
+    public static TiledImage colorAdjustment(TiledImage input, int offset, float scale) throws IOException {
+        return mapTiles(input, 0, tile -> colorAdjustment(tile, offset, scale));
+    }
+
+    /**
+     * Apply operation to the tiled image tile-by-tile and return result as new tiled image. Every tile is read
+     * into the heap with halo (clipped to the image), processed and its halo is cropped from the result,
+     * so operation output pixels can depend on neighbour pixels up to the halo distance.
+     * Rows of tiles are processed in parallel by {@link TileExecutor}, type of the result is the type
+     * of the first processed tile.
+     * @param input tiled image
+     * @param halo count of neighbour pixels in every direction, which output pixel depends on
+     * @param operation operation, which returns image of the same size as its input
+     * @return new tiled image, which has to be closed by the caller
+     */
+    public static TiledImage mapTiles(TiledImage input, int halo, UnaryOperator<BufferedImage> operation) throws IOException {
+        BufferedImage first = processTile(input, 0, 0, halo, operation);
+        TiledImage output = TiledImage.create(input.getWidth(), input.getHeight(), TiledImage.storageType(first));
+        try {
+            output.writeRegion(first, 0, 0);
+            // every band row is a row of tiles
+            TileExecutor.forEachBand(input.getWidth() * TiledImage.TILE_SIZE, input.getRows(), (fromRow, toRow) -> {
+                for(int row = fromRow; row < toRow; row++) {
+                    for(int column = 0; column < input.getColumns(); column++) {
+                        if(row == 0 && column == 0) {
+                            continue;
+                        }
+                        Rectangle bounds = input.getTileBounds(column, row);
+                        output.writeRegion(processTile(input, column, row, halo, operation), bounds.x, bounds.y);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            output.close();
+            throw e;
+        }
+        return output;
+    }
+
+    /**
+     * Process single tile with halo and return the tile part of the result.
+     */
+    private static BufferedImage processTile(TiledImage input, int column, int row, int halo, UnaryOperator<BufferedImage> operation) {
+        Rectangle bounds = input.getTileBounds(column, row);
+        Rectangle expanded = new Rectangle(bounds.x - halo, bounds.y - halo, bounds.width + 2 * halo, bounds.height + 2 * halo)
+                .intersection(new Rectangle(0, 0, input.getWidth(), input.getHeight()));
+        BufferedImage result = operation.apply(input.readRegion(expanded));
+        if(expanded.equals(bounds)) {
+            return result;
+        }
+        return result.getSubimage(bounds.x - expanded.x, bounds.y - expanded.y, bounds.width, bounds.height);
+    }
+
+    /**
+     * Apply operation to the region of the image only and return the region of the result. The region is processed
+     * together with halo (clipped to the image), so its pixels are the same as in the result of the whole image.
+     * @param input input image
+     * @param region processed region (it is clipped to the image)
+     * @param halo count of neighbour pixels in every direction, which output pixel depends on
+     * @param operation operation, which returns image of the same size as its input
+     */
+    public static BufferedImage mapRegion(BufferedImage input, Rectangle region, int halo, UnaryOperator<BufferedImage> operation) {
+        Rectangle imageBounds = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        Rectangle bounds = region.intersection(imageBounds);
+        Rectangle expanded = new Rectangle(bounds.x - halo, bounds.y - halo, bounds.width + 2 * halo, bounds.height + 2 * halo)
+                .intersection(imageBounds);
+        BufferedImage result = operation.apply(expanded.equals(imageBounds)
+                ? input : input.getSubimage(expanded.x, expanded.y, expanded.width, expanded.height));
+        if(expanded.equals(bounds)) {
+            return result;
+        }
+        return result.getSubimage(bounds.x - expanded.x, bounds.y - expanded.y, bounds.width, bounds.height);
+    }
+
     /**
      * Change image brightness by add offset to every pixel of input image.
      * @param input input image
@@ -68,28 +276,17 @@ public class ImageProcessing {
     }
 
     /**
-     * Change image contrast by multiplying pixel value by scale factor (gray scale) or
-     * multiplying brightness channel value in HSB color space by scale factor for every pixel (color)
+     * Change image contrast by multiplying brightness channel value in HSB color space by scale factor
+     * for every pixel. It is used only for images with layouts not supported by {@link PointPipeline}.
      * @param input input image
      * @param scale scale factor for multiplying
      * @return result image
      */
     private static BufferedImage changeContrast(BufferedImage input, float scale) {
         BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), input.getType());
-
-        if(input.getType() == BufferedImage.TYPE_BYTE_GRAY) {
-            BufferedImageOp contrast = new RescaleOp(
-                    scale,
-                    0,
-                    new RenderingHints(
-                            RenderingHints.KEY_ANTIALIASING,
-                            RenderingHints.VALUE_ANTIALIAS_ON
-                    )
-            );
-            contrast.filter(input, output);
-
-        } else {
-            for (int y = 0; y < input.getHeight(); y++) {
+        TileExecutor.forEachBand(input.getWidth(), input.getHeight(), (fromY, toY) -> {
+            float[] hsbValues = new float[3];
+            for (int y = fromY; y < toY; y++) {
                 for (int x = 0; x < input.getWidth(); x++) {
                     int argb = input.getRGB(x, y);
                     int r = (argb >> 16) & 0xff;
@@ -97,7 +294,6 @@ public class ImageProcessing {
                     int b = argb & 0xff;
 
 
-                    float[] hsbValues = new float[3];
                     Color.RGBtoHSB(r, g, b, hsbValues);
                     float hue = hsbValues[0];
                     float saturation = hsbValues[1];
@@ -111,7 +307,7 @@ public class ImageProcessing {
                     output.setRGB(x, y, rgb);
                 }
             }
-        }
+        });
 
         return output;
     }
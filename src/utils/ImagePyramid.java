@@ -0,0 +1,149 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Power-of-two pyramid (mipmaps) of the image: level 0 is the image itself, every next level is the previous one
+ * downsampled by 2 with box filter ({@link ImageScaling#downsample(BufferedImage, int)}), down to levels
+ * of {@link #MIN_LEVEL_SIZE} pixels. Drawing reduced image from the level nearest to the screen scale
+ * is faster and less aliased than scaling down the full resolution image.
+ * <p>
+ * Levels are built lazily in the background: {@link #getBuiltLevel(int)} returns the finest level built so far
+ * and schedules building of the requested one, listener is notified when a level is ready.
+ */
+public final class ImagePyramid {
+
+    /** Levels are built until the longer side of the level is at most this size */
+    private static final int MIN_LEVEL_SIZE = 64;
+
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-pyramid");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final BufferedImage[] levels;
+    /** Count of built levels, level 0 is always built */
+    private int builtCount = 1;
+    private int requestedLevel = 0;
+    private boolean building = false;
+    private volatile boolean cancelled = false;
+    private volatile Runnable listener = null;
+
+
+    public ImagePyramid(BufferedImage image) {
+        int levelCount = 1;
+        int size = Math.max(image.getWidth(), image.getHeight());
+        while(size > MIN_LEVEL_SIZE) {
+            size = (size + 1) / 2;
+            levelCount++;
+        }
+        this.levels = new BufferedImage[levelCount];
+        this.levels[0] = image;
+    }
+
+
+    /**
+     * Return full resolution image (level 0).
+     */
+    public BufferedImage getImage() {
+        return levels[0];
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Return level appropriate for drawing with the scale: the coarsest level, which is not smaller than
+     * the image on the screen (so it is scaled up by factor in range [1, 2) at most).
+     * @param scale count of screen pixels per pixel of level 0
+     */
+    public int levelFor(double scale) {
+        int level = 0;
+        while(level + 1 < levels.length && scale * (1 << (level + 1)) <= 1) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Return the finest built level not finer than requested one and schedule building of the requested level,
+     * if it is not built yet.
+     */
+    public synchronized int getBuiltLevel(int level) {
+        level = Math.max(0, Math.min(level, levels.length - 1));
+        if(level >= builtCount) {
+            requestedLevel = Math.max(requestedLevel, level);
+            if(!building && !cancelled) {
+                building = true;
+                BUILDER.execute(this::build);
+            }
+        }
+        return Math.min(level, builtCount - 1);
+    }
+
+    /**
+     * Return image of the built level.
+     */
+    public synchronized BufferedImage getLevel(int level) {
+        if(level >= builtCount) {
+            throw new IllegalArgumentException("Level " + level + " is not built yet");
+        }
+        return levels[level];
+    }
+
+    /**
+     * Set listener called (on the builder thread) when a level is built.
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stop building levels (pyramid of replaced image).
+     */
+    public void cancel() {
+        cancelled = true;
+        listener = null;
+    }
+
+
+    private void build() {
+        while(true) {
+            int next;
+            BufferedImage source;
+            synchronized(this) {
+                next = builtCount;
+                if(cancelled || next > requestedLevel) {
+                    building = false;
+                    return;
+                }
+                source = levels[next - 1];
+            }
+
+            BufferedImage level;
+            try {
+                level = ImageScaling.downsample(source, 2);
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // display keeps using built levels
+                synchronized(this) {
+                    cancelled = true;
+                    building = false;
+                }
+                return;
+            }
+
+            synchronized(this) {
+                levels[next] = level;
+                builtCount = next + 1;
+            }
+            Runnable current = listener;
+            if(current != null && !cancelled) {
+                current.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package utils;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Image resampling used to build reduced copies of images (previews).
+ */
+public final class ImageScaling {
+
+    private ImageScaling() {
+    }
+
+
+    /**
+     * Downsample image by integer factor with box filter (every output pixel is mean of factor x factor block).
+     * Output has the same type as input for layouts supported by {@link RasterAccess}.
+     * @param input input image
+     * @param factor downsampling factor, 1 returns input itself
+     * @return downsampled image with size ceil(width / factor) x ceil(height / factor)
+     */
+    public static BufferedImage downsample(BufferedImage input, int factor) {
+        if(factor <= 1) {
+            return input;
+        }
+
+        int width = ceilDiv(input.getWidth(), factor);
+        int height = ceilDiv(input.getHeight(), factor);
+
+        if(!RasterAccess.isSupported(input)) {
+            BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = output.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(input, 0, 0, width, height, null);
+            g2d.dispose();
+            return output;
+        }
+
+        BufferedImage output = new BufferedImage(width, height, input.getType());
+        RasterAccess src = RasterAccess.of(input);
+        RasterAccess dst = RasterAccess.of(output);
+        int srcWidth = input.getWidth();
+        int srcHeight = input.getHeight();
+
+        TileExecutor.forEachBand(srcWidth, height, (fromY, toY) -> {
+            int[] row = new int[srcWidth];
+            int[] out = new int[width];
+            int[] sums = new int[width * 4];
+            for(int y = fromY; y < toY; y++) {
+                Arrays.fill(sums, 0);
+                int rowFrom = y * factor;
+                int rowTo = Math.min(srcHeight, rowFrom + factor);
+                for(int sy = rowFrom; sy < rowTo; sy++) {
+                    src.readRow(sy, 0, srcWidth, row);
+                    for(int sx = 0; sx < srcWidth; sx++) {
+                        int argb = row[sx];
+                        int i = (sx / factor) * 4;
+                        sums[i] += argb >>> 24;
+                        sums[i + 1] += (argb >> 16) & 0xff;
+                        sums[i + 2] += (argb >> 8) & 0xff;
+                        sums[i + 3] += argb & 0xff;
+                    }
+                }
+                int rows = rowTo - rowFrom;
+                for(int x = 0; x < width; x++) {
+                    int count = rows * (Math.min(srcWidth, (x + 1) * factor) - x * factor);
+                    int half = count / 2;
+                    int i = x * 4;
+                    out[x] = ((sums[i] + half) / count) << 24
+                            | ((sums[i + 1] + half) / count) << 16
+                            | ((sums[i + 2] + half) / count) << 8
+                            | ((sums[i + 3] + half) / count);
+                }
+                dst.writeRow(y, 0, width, out);
+            }
+        });
+        return output;
+    }
+
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -0,0 +1,150 @@
+package utils;
+
+/**
+ * Inner loops of pixel processing shared by the engines: gray scale weighted sum, per-channel lookup tables
+ * and multiply-accumulate of the convolution. This class is the scalar backend, {@code VectorKernels} (source root
+ * src-vector, compiled with the module) overrides the loops with SIMD code of the Vector API (jdk.incubator.vector).
+ * Both backends give exactly the same results.
+ * <p>
+ * The vector backend is used when the jdk.incubator.vector module is resolved (application started with
+ * {@code --add-modules jdk.incubator.vector}), otherwise the scalar backend is used. It is loaded by reflection,
+ * so the Vector API classes are never touched without the module. The backend can be turned off by
+ * {@code photoeditor.simd=false} system property or changed by {@link #setVectorized(boolean)}.
+ */
+public class PixelKernels {
+
+    /** Name of the module with the Vector API */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final PixelKernels SCALAR = new PixelKernels();
+    private static final PixelKernels VECTOR = loadVector();
+
+    private static volatile PixelKernels selected =
+            VECTOR != null && Boolean.parseBoolean(System.getProperty("photoeditor.simd", "true")) ? VECTOR : SCALAR;
+
+
+    PixelKernels() {
+    }
+
+
+    /**
+     * Return backend used by the processing engines.
+     */
+    public static PixelKernels get() {
+        return selected;
+    }
+
+    /**
+     * Return scalar backend.
+     */
+    public static PixelKernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Return vector backend or null if the Vector API is not available.
+     */
+    public static PixelKernels vector() {
+        return VECTOR;
+    }
+
+    /**
+     * Select vector or scalar backend for the processing engines.
+     * @param vectorized True to use vector backend (if it is available)
+     * @return True if the vector backend is used
+     */
+    public static boolean setVectorized(boolean vectorized) {
+        selected = vectorized && VECTOR != null ? VECTOR : SCALAR;
+        return selected == VECTOR;
+    }
+
+    /**
+     * Return short description of the backend (shown by benchmarks).
+     */
+    public String getName() {
+        return "scalar";
+    }
+
+
+    /**
+     * Compute gray samples of ARGB pixels as weighted sum of color channels in 16-bit fixed-point:
+     * {@code gray = min(255, (redWeight * r + greenWeight * g + blueWeight * b + 0x8000) >> 16)}.
+     * @param argb source pixels
+     * @param argbOffset index of the first source pixel
+     * @param length count of converted pixels
+     * @param redWeight weight of red channel multiplied by 65536 (weights are non-negative)
+     * @param greenWeight weight of green channel multiplied by 65536
+     * @param blueWeight weight of blue channel multiplied by 65536
+     * @param gray destination samples
+     * @param grayOffset index of the first destination sample
+     */
+    public void grayRow(int[] argb, int argbOffset, int length, int redWeight, int greenWeight, int blueWeight,
+                        byte[] gray, int grayOffset) {
+        for(int x = 0; x < length; x++) {
+            int p = argb[argbOffset + x];
+            int sum = redWeight * ((p >> 16) & 0xff) + greenWeight * ((p >> 8) & 0xff) + blueWeight * (p & 0xff);
+            gray[grayOffset + x] = (byte) Math.min(255, (sum + 0x8000) >>> 16);
+        }
+    }
+
+    /**
+     * Compute gray samples of ARGB pixels as sum of channel contributions given by tables in 16-bit fixed-point:
+     * {@code gray = min(255, (redTable[r] + greenTable[g] + blueTable[b] + 0x8000) >> 16)}.
+     * Tables express also non-linear channel transfer (e.g. linearization of sRGB values).
+     * @param redTable 256 non-negative contributions of red channel values
+     * @see #grayRow(int[], int, int, int, int, int, byte[], int)
+     */
+    public void grayRow(int[] argb, int argbOffset, int length, int[] redTable, int[] greenTable, int[] blueTable,
+                        byte[] gray, int grayOffset) {
+        for(int x = 0; x < length; x++) {
+            int p = argb[argbOffset + x];
+            int sum = redTable[(p >> 16) & 0xff] + greenTable[(p >> 8) & 0xff] + blueTable[p & 0xff];
+            gray[grayOffset + x] = (byte) Math.min(255, (sum + 0x8000) >>> 16);
+        }
+    }
+
+    /**
+     * Apply 256-entry table to every color channel of ARGB pixels, alpha is not changed.
+     * @param table entries in range [0, 255]
+     */
+    public void lookupChannels(int[] argb, int length, int[] table) {
+        for(int x = 0; x < length; x++) {
+            int p = argb[x];
+            argb[x] = (p & 0xff000000)
+                    | (table[(p >> 16) & 0xff] << 16)
+                    | (table[(p >> 8) & 0xff] << 8)
+                    | table[p & 0xff];
+        }
+    }
+
+    /**
+     * Apply 256-entry table to 8-bit samples, source and destination can be the same array.
+     * @param table entries in range [0, 255]
+     */
+    public void lookupSamples(byte[] in, int inOffset, byte[] out, int outOffset, int length, int[] table) {
+        for(int x = 0; x < length; x++) {
+            out[outOffset + x] = (byte) table[in[inOffset + x] & 0xff];
+        }
+    }
+
+    /**
+     * Add products of the weight and plane values: {@code sums[x] += weight * plane[offset + x]} for x in [fromX, toX).
+     */
+    public void multiplyAdd(int[] sums, int[] plane, int offset, int weight, int fromX, int toX) {
+        for(int x = fromX; x < toX; x++) {
+            sums[x] += weight * plane[offset + x];
+        }
+    }
+
+
+    private static PixelKernels loadVector() {
+        if(ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return null;
+        }
+        try {
+            return (PixelKernels) Class.forName("utils.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
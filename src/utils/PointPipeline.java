@@ -0,0 +1,280 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of point operations (brightness, contrast, custom channel tables) compiled into lookup tables
+ * and applied in a single pass over the raster, without intermediate images.
+ * <p>
+ * Operations are compiled separately for gray and color images:
+ * <ul>
+ *     <li>gray - every operation is a 256-entry table, so the whole chain collapses into one table,</li>
+ *     <li>color - per-channel operations collapse into channel tables, contrast (HSB brightness scaling)
+ *     becomes a value stage that multiplies all channels of a pixel by fixed-point factor indexed by max(r, g, b).
+ *     Scaling channels proportionally keeps hue and saturation, so the value stage is equal to the HSB round trip
+ *     up to the rounding: channels differ by at most 1 from Color.RGBtoHSB and Color.HSBtoRGB round trip.</li>
+ * </ul>
+ * Images with layouts not supported by {@link RasterAccess} are not handled here.
+ */
+public final class PointPipeline {
+
+    /** Fixed-point precision of value stage multipliers */
+    private static final int VALUE_SHIFT = 16;
+    private static final int VALUE_HALF = 1 << (VALUE_SHIFT - 1);
+
+    private final List<Operation> operations = new ArrayList<>();
+
+
+    /**
+     * Add brightness change (offset added to every color channel, alpha is not changed).
+     */
+    public PointPipeline brightness(int offset) {
+        if(offset != 0) {
+            operations.add(new Operation(Operation.BRIGHTNESS, offset, null));
+        }
+        return this;
+    }
+
+    /**
+     * Add contrast change (scaling sample value for gray images, scaling HSB brightness around 0.5 for color images).
+     */
+    public PointPipeline contrast(float scale) {
+        if(scale != 1) {
+            operations.add(new Operation(Operation.CONTRAST, scale, null));
+        }
+        return this;
+    }
+
+    /**
+     * Add custom operation given as 256-entry table applied to every color channel (and gray sample).
+     */
+    public PointPipeline table(int[] table) {
+        if(table.length != 256) {
+            throw new IllegalArgumentException("Lookup table has to contain 256 entries");
+        }
+        operations.add(new Operation(Operation.TABLE, 0, table.clone()));
+        return this;
+    }
+
+    /**
+     * Append all operations of the other pipeline.
+     */
+    public PointPipeline then(PointPipeline other) {
+        operations.addAll(other.operations);
+        return this;
+    }
+
+    public boolean isIdentity() {
+        return operations.isEmpty();
+    }
+
+
+    /**
+     * Apply pipeline to the whole image (in parallel bands) and return result as new image of the same type.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), input.getType());
+        Compiled compiled = compile(input.getType() == BufferedImage.TYPE_BYTE_GRAY);
+        TileExecutor.forEachBand(input.getWidth(), input.getHeight(), (fromY, toY) -> compiled.apply(input, output, fromY, toY));
+        return output;
+    }
+
+    /**
+     * Compile operations into lookup tables.
+     * @param gray True to compile for gray images, false for color images.
+     */
+    public Compiled compile(boolean gray) {
+        List<int[]> stages = new ArrayList<>();
+        List<Boolean> valueStages = new ArrayList<>();
+
+        for(Operation operation : operations) {
+            if(gray || operation.kind != Operation.CONTRAST) {
+                int[] table = operation.channelTable(gray);
+                int last = stages.size() - 1;
+                if(last >= 0 && !valueStages.get(last)) {
+                    stages.set(last, compose(stages.get(last), table));
+                } else {
+                    stages.add(table);
+                    valueStages.add(false);
+                }
+            } else {
+                stages.add(valueMultipliers(operation.value));
+                valueStages.add(true);
+            }
+        }
+
+        int[][] tables = stages.toArray(new int[0][]);
+        boolean[] value = new boolean[tables.length];
+        for(int i = 0; i < value.length; i++) {
+            value[i] = valueStages.get(i);
+        }
+        return new Compiled(tables, value);
+    }
+
+
+    /**
+     * Return table that is equal to applying first and then second table.
+     */
+    private static int[] compose(int[] first, int[] second) {
+        int[] table = new int[256];
+        for(int i = 0; i < table.length; i++) {
+            table[i] = second[first[i]];
+        }
+        return table;
+    }
+
+    /**
+     * Fixed-point multipliers of the value stage indexed by max(r, g, b). Entry 0 (black pixel) stores
+     * directly the output value, because black pixel cannot be scaled.
+     */
+    private static int[] valueMultipliers(float scale) {
+        float[] brightness = brightnessTable(scale);
+        int[] multipliers = new int[256];
+        multipliers[0] = (int) (brightness[0] * 255.0f + 0.5f);
+        for(int cmax = 1; cmax < multipliers.length; cmax++) {
+            multipliers[cmax] = (int) Math.round(brightness[cmax] * 255.0 / cmax * (1 << VALUE_SHIFT));
+        }
+        return multipliers;
+    }
+
+    /**
+     * Table of HSB brightness scaled around 0.5 indexed by max(r, g, b).
+     */
+    private static float[] brightnessTable(float scale) {
+        float[] table = new float[256];
+        for(int cmax = 0; cmax < table.length; cmax++) {
+            float brightness = ((float) cmax) / 255.0f;
+            brightness = (float) (scale * (brightness - 0.5) + 0.5);
+            table[cmax] = Math.min(1, Math.max(0, brightness));
+        }
+        return table;
+    }
+
+
+    /**
+     * Single point operation with parameters.
+     */
+    private static class Operation {
+        static final int BRIGHTNESS = 0;
+        static final int CONTRAST = 1;
+        static final int TABLE = 2;
+
+        final int kind;
+        final float value;
+        final int[] table;
+
+        Operation(int kind, float value, int[] table) {
+            this.kind = kind;
+            this.value = value;
+            this.table = table;
+        }
+
+        /**
+         * Operation expressed as per-channel table (contrast of color image is not a per-channel operation).
+         */
+        int[] channelTable(boolean gray) {
+            switch (kind) {
+                case BRIGHTNESS: {
+                    int[] result = new int[256];
+                    for(int i = 0; i < result.length; i++) {
+                        result[i] = Math.min(255, Math.max(0, i + (int) value));
+                    }
+                    return result;
+                }
+                case CONTRAST: {
+                    // the same as RescaleOp with the scale and zero offset
+                    int[] result = new int[256];
+                    for(int i = 0; i < result.length; i++) {
+                        result[i] = Math.min(255, Math.max(0, (int) (i * value)));
+                    }
+                    return result;
+                }
+                default:
+                    return table;
+            }
+        }
+    }
+
+
+    /**
+     * Pipeline compiled for gray or color images.
+     */
+    public static final class Compiled {
+        /** Channel tables or value multipliers of subsequent stages */
+        private final int[][] stages;
+        private final boolean[] valueStage;
+
+        private Compiled(int[][] stages, boolean[] valueStage) {
+            this.stages = stages;
+            this.valueStage = valueStage;
+        }
+
+        /**
+         * Apply compiled stages to the specified rows range.
+         * @param input source image, raster layout has to be supported by {@link RasterAccess}
+         * @param output destination image with the same size and type as input (it can be input itself)
+         * @param fromY first processed row (inclusive)
+         * @param toY last processed row (exclusive)
+         */
+        public void apply(BufferedImage input, BufferedImage output, int fromY, int toY) {
+            RasterAccess src = RasterAccess.of(input);
+            RasterAccess dst = RasterAccess.of(output);
+            int width = input.getWidth();
+
+            if(src.isGray() && stages.length == 1) {
+                PixelKernels kernels = PixelKernels.get();
+                byte[] in = src.grayData();
+                byte[] out = dst.grayData();
+                for(int y = fromY; y < toY; y++) {
+                    kernels.lookupSamples(in, src.grayIndex(0, y), out, dst.grayIndex(0, y), width, stages[0]);
+                }
+                return;
+            }
+
+            int[] row = new int[width];
+            for(int y = fromY; y < toY; y++) {
+                src.readRow(y, 0, width, row);
+                applyRow(row, width);
+                dst.writeRow(y, 0, width, row);
+            }
+        }
+
+        /**
+         * Apply compiled stages to ARGB pixels of single row (alpha is not changed).
+         * Channel tables are applied by {@link PixelKernels}.
+         */
+        public void applyRow(int[] row, int length) {
+            PixelKernels kernels = PixelKernels.get();
+            for(int s = 0; s < stages.length; s++) {
+                int[] stage = stages[s];
+                if(valueStage[s]) {
+                    applyValueStage(row, length, stage);
+                } else {
+                    kernels.lookupChannels(row, length, stage);
+                }
+            }
+        }
+
+        private static void applyValueStage(int[] row, int length, int[] multipliers) {
+            int black = multipliers[0];
+            for(int x = 0; x < length; x++) {
+                int argb = row[x];
+                int r = (argb >> 16) & 0xff;
+                int g = (argb >> 8) & 0xff;
+                int b = argb & 0xff;
+                int cmax = Math.max(r, Math.max(g, b));
+                if(cmax == 0) {
+                    row[x] = (argb & 0xff000000) | (black << 16) | (black << 8) | black;
+                    continue;
+                }
+                int m = multipliers[cmax];
+                r = (r * m + VALUE_HALF) >> VALUE_SHIFT;
+                g = (g * m + VALUE_HALF) >> VALUE_SHIFT;
+                b = (b * m + VALUE_HALF) >> VALUE_SHIFT;
+                row[x] = (argb & 0xff000000) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package utils;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+
+/**
+ * Direct access to the pixel arrays backing a BufferedImage.
+ * It resolves the raster layout once (array, origin, strides, band offsets) so that processing loops
+ * can read and write whole rows without getRGB/setRGB calls and without color model dispatch per pixel.
+ * Supported layouts are the ones that IOManager can return: TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_BGR,
+ * TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR and TYPE_BYTE_GRAY (also sub-images of them).
+ */
+public final class RasterAccess {
+
+    private final boolean packed;
+    private final boolean gray;
+    private final boolean alpha;
+
+    private final int[] intData;
+    private final byte[] byteData;
+
+    private final int width;
+    private final int height;
+
+    /** Array index of the pixel (0, 0) */
+    private final int origin;
+    private final int scanlineStride;
+    private final int pixelStride;
+
+    /** Byte offsets of channels within pixel (interleaved layouts) */
+    private final int redOffset;
+    private final int greenOffset;
+    private final int blueOffset;
+    private final int alphaOffset;
+
+    /** Bit shift of red channel within int (packed layouts), 16 for RGB order and 0 for BGR order */
+    private final int redShift;
+
+
+    private RasterAccess(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        int tx = -raster.getSampleModelTranslateX();
+        int ty = -raster.getSampleModelTranslateY();
+
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        this.alpha = image.getColorModel().hasAlpha();
+
+        if(sampleModel instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel packedModel = (SinglePixelPackedSampleModel) sampleModel;
+            this.packed = true;
+            this.intData = ((DataBufferInt) dataBuffer).getData();
+            this.byteData = null;
+            this.scanlineStride = packedModel.getScanlineStride();
+            this.pixelStride = 1;
+            this.origin = dataBuffer.getOffset() + ty * scanlineStride + tx;
+            this.redShift = packedModel.getBitOffsets()[0];
+            this.redOffset = this.greenOffset = this.blueOffset = this.alphaOffset = 0;
+        } else {
+            ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+            int[] bandOffsets = componentModel.getBandOffsets();
+            this.packed = false;
+            this.intData = null;
+            this.byteData = ((DataBufferByte) dataBuffer).getData();
+            this.scanlineStride = componentModel.getScanlineStride();
+            this.pixelStride = componentModel.getPixelStride();
+            this.origin = dataBuffer.getOffset() + ty * scanlineStride + tx * pixelStride;
+            this.redOffset = bandOffsets[0];
+            this.greenOffset = gray ? bandOffsets[0] : bandOffsets[1];
+            this.blueOffset = gray ? bandOffsets[0] : bandOffsets[2];
+            this.alphaOffset = alpha ? bandOffsets[3] : 0;
+            this.redShift = 0;
+        }
+    }
+
+    /**
+     * Check if raster layout of specified image can be accessed directly.
+     */
+    public static boolean isSupported(BufferedImage image) {
+        if(image.isAlphaPremultiplied()) {
+            return false;
+        }
+        ColorSpace colorSpace = image.getColorModel().getColorSpace();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return colorSpace.isCS_sRGB();
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Resolve raster layout of specified image.
+     * @throws IllegalArgumentException if the layout is not supported (see {@link #isSupported(BufferedImage)})
+     */
+    public static RasterAccess of(BufferedImage image) {
+        if(!isSupported(image)) {
+            throw new IllegalArgumentException("Unsupported raster layout (image type " + image.getType() + ")");
+        }
+        return new RasterAccess(image);
+    }
+
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isGray() {
+        return gray;
+    }
+
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Check if pixels are packed into ints in ARGB (or RGB) order, so that {@link #packedData()}
+     * holds values in the format returned by {@link #readRow(int, int, int, int[])} (except alpha of opaque layouts).
+     */
+    public boolean isPackedRGB() {
+        return packed && redShift == 16;
+    }
+
+    /**
+     * Return backing array of the packed image (one int per pixel, see {@link #packedIndex(int, int)}).
+     */
+    public int[] packedData() {
+        return intData;
+    }
+
+    /**
+     * Return index of the specified pixel in the {@link #packedData()} array.
+     */
+    public int packedIndex(int x, int y) {
+        return origin + y * scanlineStride + x;
+    }
+
+    /**
+     * Return backing array of the gray image (one byte per pixel, see {@link #grayIndex(int, int)}).
+     */
+    public byte[] grayData() {
+        return byteData;
+    }
+
+    /**
+     * Return index of the specified gray pixel in the {@link #grayData()} array.
+     */
+    public int grayIndex(int x, int y) {
+        return origin + y * scanlineStride + x * pixelStride + redOffset;
+    }
+
+
+    /**
+     * Read row fragment as non-premultiplied ARGB values (alpha is 0xff for opaque layouts).
+     * Gray samples are replicated to all color channels as they are stored (no color space conversion).
+     * @param y row index
+     * @param x index of the first read pixel
+     * @param length count of read pixels
+     * @param argb destination array
+     */
+    public void readRow(int y, int x, int length, int[] argb) {
+        if(packed) {
+            int i = origin + y * scanlineStride + x;
+            if(redShift == 16) {
+                int alphaMask = alpha ? 0 : 0xff000000;
+                for(int n = 0; n < length; n++) {
+                    argb[n] = intData[i + n] | alphaMask;
+                }
+            } else {
+                for(int n = 0; n < length; n++) {
+                    int p = intData[i + n];
+                    argb[n] = 0xff000000 | ((p & 0xff) << 16) | (p & 0xff00) | ((p >> 16) & 0xff);
+                }
+            }
+            return;
+        }
+
+        int i = origin + y * scanlineStride + x * pixelStride;
+        if(gray) {
+            for(int n = 0; n < length; n++, i += pixelStride) {
+                int v = byteData[i + redOffset] & 0xff;
+                argb[n] = 0xff000000 | (v << 16) | (v << 8) | v;
+            }
+        } else if(alpha) {
+            for(int n = 0; n < length; n++, i += pixelStride) {
+                argb[n] = ((byteData[i + alphaOffset] & 0xff) << 24)
+                        | ((byteData[i + redOffset] & 0xff) << 16)
+                        | ((byteData[i + greenOffset] & 0xff) << 8)
+                        | (byteData[i + blueOffset] & 0xff);
+            }
+        } else {
+            for(int n = 0; n < length; n++, i += pixelStride) {
+                argb[n] = 0xff000000
+                        | ((byteData[i + redOffset] & 0xff) << 16)
+                        | ((byteData[i + greenOffset] & 0xff) << 8)
+                        | (byteData[i + blueOffset] & 0xff);
+            }
+        }
+    }
+
+    /**
+     * Write row fragment given as non-premultiplied ARGB values. Alpha is dropped for opaque layouts,
+     * gray layout stores blue channel (callers are expected to pass equal channels).
+     * @param y row index
+     * @param x index of the first written pixel
+     * @param length count of written pixels
+     * @param argb source array
+     */
+    public void writeRow(int y, int x, int length, int[] argb) {
+        if(packed) {
+            int i = origin + y * scanlineStride + x;
+            if(redShift == 16) {
+                int mask = alpha ? 0xffffffff : 0x00ffffff;
+                for(int n = 0; n < length; n++) {
+                    intData[i + n] = argb[n] & mask;
+                }
+            } else {
+                for(int n = 0; n < length; n++) {
+                    int p = argb[n];
+                    intData[i + n] = ((p & 0xff) << 16) | (p & 0xff00) | ((p >> 16) & 0xff);
+                }
+            }
+            return;
+        }
+
+        int i = origin + y * scanlineStride + x * pixelStride;
+        if(gray) {
+            for(int n = 0; n < length; n++, i += pixelStride) {
+                byteData[i + redOffset] = (byte) argb[n];
+            }
+        } else {
+            for(int n = 0; n < length; n++, i += pixelStride) {
+                int p = argb[n];
+                byteData[i + redOffset] = (byte) (p >> 16);
+                byteData[i + greenOffset] = (byte) (p >> 8);
+                byteData[i + blueOffset] = (byte) p;
+                if(alpha) {
+                    byteData[i + alphaOffset] = (byte) (p >>> 24);
+                }
+            }
+        }
+    }
+}
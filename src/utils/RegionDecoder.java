@@ -0,0 +1,160 @@
+package utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decoder of image parts, which keeps the file open and decodes only requested region with requested subsampling
+ * ({@link ImageReadParam#setSourceRegion(Rectangle)}, {@link ImageReadParam#setSourceSubsampling(int, int, int, int)}),
+ * so images larger than the heap can be displayed: reduced preview of the whole image and full resolution regions.
+ * Memory used by decoding is bounded by size of the decoded region, not by the image size.
+ * <p>
+ * Decoded images are TYPE_INT_RGB or TYPE_INT_ARGB if reader produces indexed or custom layout.
+ * Reader is not thread-safe, so decoding is synchronized.
+ */
+public class RegionDecoder implements Closeable {
+
+    private final File file;
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+
+
+    private RegionDecoder(File file, ImageInputStream input, ImageReader reader) throws IOException {
+        this.file = file;
+        this.input = input;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+    }
+
+    /**
+     * Open image file and read its header.
+     * @throws IOException if file cannot be read or its format is not supported
+     */
+    public static RegionDecoder open(File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if(input == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if(!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        try {
+            return new RegionDecoder(file, input, reader);
+        } catch (IOException | RuntimeException e) {
+            reader.dispose();
+            input.close();
+            throw e;
+        }
+    }
+
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Return count of pixels of the full resolution image.
+     */
+    public long getPixelCount() {
+        return (long) width * height;
+    }
+
+    /**
+     * Return the smallest subsampling, with which the decoded image has at most specified count of pixels.
+     */
+    public int subsamplingFor(long maxPixels) {
+        int subsampling = 1;
+        while((long) ceilDiv(width, subsampling) * ceilDiv(height, subsampling) > maxPixels) {
+            subsampling++;
+        }
+        return subsampling;
+    }
+
+    /**
+     * Decode the whole image with every subsampling-th pixel in both directions.
+     */
+    public BufferedImage readSubsampled(int subsampling) throws IOException {
+        return readSubsampled(subsampling, null);
+    }
+
+    /**
+     * Decode the whole image with subsampling, with progress reporting and cancellation.
+     * @param transfer progress listener and cancellation of the decoding (null for none)
+     * @throws java.util.concurrent.CancellationException if the transfer was cancelled
+     */
+    public BufferedImage readSubsampled(int subsampling, IOManager.Transfer transfer) throws IOException {
+        return readRegion(new Rectangle(0, 0, width, height), subsampling, transfer);
+    }
+
+    /**
+     * Decode region of the image with subsampling, result has size ceil(region size / subsampling)
+     * and its pixel (x, y) is the pixel (region.x + x * subsampling, region.y + y * subsampling) of the image.
+     * @param region region in full resolution coordinates (it is clipped to the image)
+     * @param subsampling decoded pixels step in both directions
+     */
+    public BufferedImage readRegion(Rectangle region, int subsampling) throws IOException {
+        return readRegion(region, subsampling, null);
+    }
+
+    private synchronized BufferedImage readRegion(Rectangle region, int subsampling, IOManager.Transfer transfer) throws IOException {
+        Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+        if(clipped.isEmpty()) {
+            throw new IllegalArgumentException("Region " + region + " is outside of the image");
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(clipped);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return normalize(IOManager.read(reader, param, transfer));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+
+
+    /**
+     * Convert indexed and custom layouts to INT_RGB or INT_ARGB, which are supported by processing.
+     */
+    private static BufferedImage normalize(BufferedImage image) {
+        int type = image.getType();
+        if(type != BufferedImage.TYPE_CUSTOM && type != BufferedImage.TYPE_BYTE_INDEXED && type != BufferedImage.TYPE_BYTE_BINARY) {
+            return image;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = converted.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return converted;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
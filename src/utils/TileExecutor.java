@@ -0,0 +1,128 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Executor that splits an image into horizontal row bands and processes them in parallel on the ForkJoinPool.
+ * Operations write results of every band straight into a single preallocated output image, so the result
+ * does not depend on the parallelism level (parallelism 1 is the serial path).
+ * <p>
+ * Parallelism level defaults to the count of available processors and can be changed by
+ * {@code photoeditor.parallelism} system property or {@link #setParallelism(int)}.
+ */
+public final class TileExecutor {
+
+    /** Minimal count of pixels in a single band, smaller bands are not worth the task overhead */
+    private static final int MIN_BAND_PIXELS = 64 * 1024;
+
+    /** Count of bands per worker thread, more bands than threads balance uneven bands cost */
+    private static final int BANDS_PER_THREAD = 4;
+
+    /** Pools of all used parallelism levels, they are never shut down */
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<>();
+
+    /** Current pool, replaced by {@link #setParallelism(int)} */
+    private static volatile ForkJoinPool pool = poolOf(
+            Integer.getInteger("photoeditor.parallelism", Runtime.getRuntime().availableProcessors())
+    );
+
+
+    private TileExecutor() {
+    }
+
+
+    /**
+     * Operation computed for rows range of the image.
+     */
+    @FunctionalInterface
+    public interface BandOperation {
+        /**
+         * Process rows from fromY (inclusive) to toY (exclusive).
+         */
+        void process(int fromY, int toY);
+    }
+
+
+    /**
+     * Set count of worker threads used for image processing. The previous pool is not shut down, so operations
+     * running on it are finished by it, and it is reused when its parallelism level is set again.
+     * @param parallelism count of threads, 1 means processing on the caller thread
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+        }
+        pool = poolOf(parallelism);
+    }
+
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+
+    /**
+     * Split rows of the image with specified size into bands and process them in parallel.
+     * The method returns when all bands are processed.
+     * @param width image width
+     * @param height image height
+     * @param operation operation called for every band
+     */
+    public static void forEachBand(int width, int height, BandOperation operation) {
+        ForkJoinPool executor = pool;
+        int parallelism = executor.getParallelism();
+        int minRows = Math.max(1, MIN_BAND_PIXELS / Math.max(1, width));
+        int bandRows = Math.max(minRows, ceilDiv(height, parallelism * BANDS_PER_THREAD));
+
+        if(parallelism == 1 || bandRows >= height) {
+            operation.process(0, height);
+            return;
+        }
+        executor.invoke(new BandTask(operation, 0, height, bandRows));
+    }
+
+
+    private static synchronized ForkJoinPool poolOf(int parallelism) {
+        return pools.computeIfAbsent(Math.max(1, parallelism), ForkJoinPool::new);
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+
+    /**
+     * Recursively halves rows range until it is not longer than single band.
+     */
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient BandOperation operation;
+        private final int fromY;
+        private final int toY;
+        private final int bandRows;
+
+        BandTask(BandOperation operation, int fromY, int toY, int bandRows) {
+            this.operation = operation;
+            this.fromY = fromY;
+            this.toY = toY;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if(toY - fromY <= bandRows) {
+                operation.process(fromY, toY);
+                return;
+            }
+            int bands = ceilDiv(toY - fromY, bandRows);
+            int middle = fromY + (bands / 2) * bandRows;
+            invokeAll(
+                    new BandTask(operation, fromY, middle, bandRows),
+                    new BandTask(operation, middle, toY, bandRows)
+            );
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package utils;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Vector;
+
+/**
+ * Out-of-core image divided into square tiles, which are stored in a memory-mapped scratch file,
+ * so the image can be larger than the heap (and than 2^31 bytes of a single raster). Pages of the file
+ * are loaded by the operating system when tiles are accessed and written back under memory pressure,
+ * the heap holds only the tiles being processed.
+ * <p>
+ * Pixels are stored as ARGB ints (TYPE_INT_RGB and TYPE_INT_ARGB) or gray bytes (TYPE_BYTE_GRAY),
+ * every tile in its own slot of the file with the tile width as the row stride. Rows and regions are copied
+ * between the file and BufferedImages of any layout supported by {@link RasterAccess}.
+ * Different tiles can be read and written by different threads at once.
+ * <p>
+ * The scratch file is deleted when it is closed by the mapping, its disk space is released when the mapped
+ * buffers are garbage collected (Java cannot unmap explicitly).
+ */
+public final class TiledImage implements Closeable {
+
+    /** Width and height of tiles (edge tiles are smaller) */
+    public static final int TILE_SIZE = 512;
+
+    /** Max size of a single mapping (mapped regions are limited to 2 GB) */
+    private static final long MAX_MAPPING_BYTES = 1L << 30;
+
+    private final int width;
+    private final int height;
+    private final int type;
+    private final int columns;
+    private final int rows;
+    private final int bytesPerPixel;
+    private final int tilesPerMapping;
+
+    /** Mapped regions of the scratch file (views of int or byte samples), null after close */
+    private volatile IntBuffer[] intMappings;
+    private volatile ByteBuffer[] byteMappings;
+
+
+    private TiledImage(int width, int height, int type, Path file) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.type = type;
+        this.columns = ceilDiv(width, TILE_SIZE);
+        this.rows = ceilDiv(height, TILE_SIZE);
+        this.bytesPerPixel = type == BufferedImage.TYPE_BYTE_GRAY ? 1 : Integer.BYTES;
+
+        long tileBytes = (long) TILE_SIZE * TILE_SIZE * bytesPerPixel;
+        this.tilesPerMapping = (int) (MAX_MAPPING_BYTES / tileBytes);
+        int tileCount = columns * rows;
+        int mappingCount = ceilDiv(tileCount, tilesPerMapping);
+
+        IntBuffer[] ints = new IntBuffer[mappingCount];
+        ByteBuffer[] bytes = new ByteBuffer[mappingCount];
+        // mappings stay valid after the channel is closed, the file is deleted with the channel
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            for(int m = 0; m < mappingCount; m++) {
+                int tiles = Math.min(tilesPerMapping, tileCount - m * tilesPerMapping);
+                ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE,
+                        m * tilesPerMapping * tileBytes, tiles * tileBytes).order(ByteOrder.nativeOrder());
+                bytes[m] = mapping;
+                ints[m] = mapping.asIntBuffer();
+            }
+        }
+        this.intMappings = ints;
+        this.byteMappings = bytes;
+    }
+
+    /**
+     * Create image with all pixels zero in a new scratch file.
+     * @param type TYPE_INT_RGB, TYPE_INT_ARGB or TYPE_BYTE_GRAY
+     * @throws IOException if scratch file cannot be created
+     */
+    public static TiledImage create(int width, int height, int type) throws IOException {
+        if(type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new IllegalArgumentException("Unsupported tiled image type " + type);
+        }
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        Path file = Files.createTempFile("photo-editor-tiles", ".raw");
+        try {
+            return new TiledImage(width, height, type, file);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Create tiled copy of the image.
+     */
+    public static TiledImage of(BufferedImage image) throws IOException {
+        TiledImage tiled = create(image.getWidth(), image.getHeight(), storageType(image));
+        tiled.writeRegion(image, 0, 0);
+        return tiled;
+    }
+
+    /**
+     * Decode the full resolution image into a new tiled image. The image is decoded in bands of tile rows,
+     * so only a single band is held in the heap.
+     */
+    public static TiledImage decode(RegionDecoder decoder) throws IOException {
+        TiledImage tiled = null;
+        try {
+            for(int y = 0; y < decoder.getHeight(); y += TILE_SIZE) {
+                int bandHeight = Math.min(TILE_SIZE, decoder.getHeight() - y);
+                BufferedImage band = decoder.readRegion(new Rectangle(0, y, decoder.getWidth(), bandHeight), 1);
+                if(tiled == null) {
+                    tiled = create(decoder.getWidth(), decoder.getHeight(), storageType(band));
+                }
+                tiled.writeRegion(band, 0, y);
+            }
+        } catch (IOException | RuntimeException e) {
+            if(tiled != null) {
+                tiled.close();
+            }
+            throw e;
+        }
+        return tiled;
+    }
+
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Return type of images read from this image (TYPE_INT_RGB, TYPE_INT_ARGB or TYPE_BYTE_GRAY).
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Return count of tiles in a row of the tile grid.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Return count of tiles in a column of the tile grid.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Return bounds of the tile in image coordinates.
+     */
+    public Rectangle getTileBounds(int column, int row) {
+        int x = column * TILE_SIZE;
+        int y = row * TILE_SIZE;
+        return new Rectangle(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+    }
+
+
+    /**
+     * Read row fragment as non-premultiplied ARGB values (see {@link RasterAccess#readRow(int, int, int, int[])}).
+     * @param y row index
+     * @param x index of the first read pixel
+     * @param length count of read pixels
+     * @param argb destination array
+     */
+    public void readRow(int y, int x, int length, int[] argb) {
+        copyRow(y, x, length, argb, 0, false);
+    }
+
+    /**
+     * Write row fragment given as non-premultiplied ARGB values (gray image stores blue channel).
+     * @param y row index
+     * @param x index of the first written pixel
+     * @param length count of written pixels
+     * @param argb source array
+     */
+    public void writeRow(int y, int x, int length, int[] argb) {
+        copyRow(y, x, length, argb, 0, true);
+    }
+
+    /**
+     * Read region of the image into a new BufferedImage of the {@link #getType()} type.
+     * @param region region in image coordinates (it has to be inside the image)
+     */
+    public BufferedImage readRegion(Rectangle region) {
+        checkRegion(region);
+        BufferedImage image = new BufferedImage(region.width, region.height, type);
+        RasterAccess access = RasterAccess.of(image);
+        int[] row = new int[region.width];
+        for(int y = 0; y < region.height; y++) {
+            readRow(region.y + y, region.x, region.width, row);
+            access.writeRow(y, 0, region.width, row);
+        }
+        return image;
+    }
+
+    /**
+     * Write the whole image to the region with the specified top left corner.
+     * @param image written image (it has to fit into this image)
+     */
+    public void writeRegion(BufferedImage image, int x, int y) {
+        checkRegion(new Rectangle(x, y, image.getWidth(), image.getHeight()));
+        RasterAccess access = RasterAccess.of(supported(image));
+        int[] row = new int[image.getWidth()];
+        for(int j = 0; j < image.getHeight(); j++) {
+            access.readRow(j, 0, image.getWidth(), row);
+            writeRow(y + j, x, image.getWidth(), row);
+        }
+    }
+
+    /**
+     * Return read-only view of this image for image writers ({@link javax.imageio.ImageIO#write(RenderedImage, String, java.io.File)}).
+     * Tiles and regions requested by the writer are read from the scratch file, the whole image requested
+     * by {@link RenderedImage#getData()} is a raster paging pixels from the file, so it is not copied to the heap.
+     */
+    public RenderedImage asRenderedImage() {
+        return new View();
+    }
+
+    /**
+     * Release mappings of the scratch file, the image cannot be used then.
+     */
+    @Override
+    public void close() {
+        intMappings = null;
+        byteMappings = null;
+    }
+
+
+    /**
+     * Copy row fragment between the array and the tiles it crosses.
+     * @param write True to copy from array to tiles, false to copy from tiles to array
+     */
+    private void copyRow(int y, int x, int length, int[] argb, int offset, boolean write) {
+        if(y < 0 || y >= height || x < 0 || length < 0 || x + length > width) {
+            throw new IndexOutOfBoundsException("Row fragment (" + x + ", " + y + ") length " + length
+                    + " is outside of the image " + width + "x" + height);
+        }
+        IntBuffer[] ints = intMappings;
+        ByteBuffer[] bytes = byteMappings;
+        if(ints == null) {
+            throw new IllegalStateException("Tiled image is closed");
+        }
+
+        int row = y / TILE_SIZE;
+        int tileY = y - row * TILE_SIZE;
+        int tileHeight = Math.min(TILE_SIZE, height - row * TILE_SIZE);
+        int end = x + length;
+        while(x < end) {
+            int column = x / TILE_SIZE;
+            int tileX = x - column * TILE_SIZE;
+            int tileWidth = Math.min(TILE_SIZE, width - column * TILE_SIZE);
+            int count = Math.min(end - x, tileWidth - tileX);
+
+            int tile = row * columns + column;
+            int mapping = tile / tilesPerMapping;
+            // index of the pixel in its mapping, tile slots have full size, rows are tileWidth long
+            int index = (tile - mapping * tilesPerMapping) * TILE_SIZE * TILE_SIZE + tileY * tileWidth + tileX;
+            if(bytesPerPixel == Integer.BYTES) {
+                if(write) {
+                    ints[mapping].put(index, argb, offset, count);
+                } else {
+                    ints[mapping].get(index, argb, offset, count);
+                }
+            } else {
+                ByteBuffer buffer = bytes[mapping];
+                if(write) {
+                    for(int n = 0; n < count; n++) {
+                        buffer.put(index + n, (byte) argb[offset + n]);
+                    }
+                } else {
+                    for(int n = 0; n < count; n++) {
+                        int v = buffer.get(index + n) & 0xff;
+                        argb[offset + n] = 0xff000000 | (v << 16) | (v << 8) | v;
+                    }
+                }
+            }
+            x += count;
+            offset += count;
+        }
+    }
+
+    private void checkRegion(Rectangle region) {
+        if(region.isEmpty() || !new Rectangle(0, 0, width, height).contains(region)) {
+            throw new IllegalArgumentException("Region " + region + " is outside of the image " + width + "x" + height);
+        }
+    }
+
+    /**
+     * Return the image itself, if its layout is supported by {@link RasterAccess}, otherwise its INT_RGB
+     * or INT_ARGB copy.
+     */
+    private static BufferedImage supported(BufferedImage image) {
+        if(RasterAccess.isSupported(image)) {
+            return image;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = converted.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return converted;
+    }
+
+    /**
+     * Return type, in which pixels of the image are stored.
+     */
+    static int storageType(BufferedImage image) {
+        if(image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return BufferedImage.TYPE_BYTE_GRAY;
+        }
+        return image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+
+    /**
+     * Read-only RenderedImage with the tile grid of the tiled image.
+     */
+    private final class View implements RenderedImage {
+        private final ColorModel colorModel = new BufferedImage(1, 1, type).getColorModel();
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return colorModel;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return colorModel.createCompatibleSampleModel(TILE_SIZE, TILE_SIZE);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return columns;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return rows;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return TILE_SIZE;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return TILE_SIZE;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+
+        @Override
+        public Raster getTile(int column, int row) {
+            return getData(getTileBounds(column, row));
+        }
+
+        @Override
+        public Raster getData() {
+            if((long) width * height > Integer.MAX_VALUE) {
+                throw new UnsupportedOperationException("Image " + width + "x" + height + " is too large for a single raster");
+            }
+            return Raster.createRaster(colorModel.createCompatibleSampleModel(width, height),
+                    new PagedDataBuffer(), null);
+        }
+
+        @Override
+        public Raster getData(Rectangle region) {
+            Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+            return readRegion(clipped).getRaster().createTranslatedChild(clipped.x, clipped.y);
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if(raster == null) {
+                raster = colorModel.createCompatibleWritableRaster(width, height);
+            }
+            Rectangle region = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+            for(int y = region.y; y < region.y + region.height; y += TILE_SIZE) {
+                raster.setRect(getData(new Rectangle(region.x, y, region.width, Math.min(TILE_SIZE, region.y + region.height - y))));
+            }
+            return raster;
+        }
+    }
+
+    /**
+     * Data buffer of the whole image in row-major order (packed ARGB ints or gray bytes), that reads every
+     * element from the tiles. It is slower than array access, but the image is not copied to the heap.
+     */
+    private final class PagedDataBuffer extends DataBuffer {
+        private final int[] pixel = new int[1];
+
+        PagedDataBuffer() {
+            super(type == BufferedImage.TYPE_BYTE_GRAY ? TYPE_BYTE : TYPE_INT, width * height);
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int y = i / width;
+            synchronized(pixel) {
+                copyRow(y, i - y * width, 1, pixel, 0, false);
+                return type == BufferedImage.TYPE_BYTE_GRAY ? pixel[0] & 0xff : pixel[0];
+            }
+        }
+
+        @Override
+        public void setElem(int bank, int i, int value) {
+            throw new UnsupportedOperationException("Tiled image view is read-only");
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package views;
 
+import utils.EncoderSettings;
+import utils.ImagePyramid;
+import views.viewarea.RegionSource;
+
+import java.awt.*;
 import java.awt.image.BufferedImage;
 
 /**
@@ -23,10 +28,91 @@ public interface MainView {
     String getImageDestinationFromUser();
 
     /**
-     * Displays provided image.
-     * @param image represents edited image that will be displayed
+     * Return encoder settings (format and its parameters) chosen by user in the last image destination dialog.
+     */
+    EncoderSettings getEncoderSettings();
+
+    /**
+     * Show dialog for user to get edit recipe file and return its path.
+     * @return path of the recipe file or null if user cancelled the dialog
+     */
+    String getRecipeSourceFromUser();
+
+    /**
+     * Show dialog for user to get destination of edit recipe file and return its path.
+     * @return path of the recipe file or null if user cancelled the dialog
+     */
+    String getRecipeDestinationFromUser();
+
+    /**
+     * Show error message for user.
+     * @param title title of the message
+     * @param message description of the error
+     */
+    void showError(String title, String message);
+
+    /**
+     * Displays provided image, zoomed out image is drawn from reduced levels of the pyramid.
+     * @param pyramid pyramid of edited image that will be displayed
+     */
+    void displayImage(ImagePyramid pyramid);
+
+    /**
+     * Displays reduced preview of the image too large for the heap, full resolution regions are drawn
+     * when the preview is zoomed in.
+     * @param pyramid pyramid of the preview
+     * @param downsampling factor by which preview is smaller than the full resolution image
+     * @param fullResolution source of full resolution regions
+     */
+    void displayImage(ImagePyramid pyramid, int downsampling, RegionSource fullResolution);
+
+    /**
+     * Displays downsampled preview in place of the full resolution image (with the same size on the screen).
+     * @param preview downsampled image
+     * @param downsampling factor by which preview is smaller than the full resolution image
+     */
+    void displayPreview(BufferedImage preview, int downsampling);
+
+    /**
+     * Displays image over the part of the displayed image (e.g. preview of the operation on the visible region).
+     * The overlay is removed when other image is displayed.
+     * @param overlay image drawn over the displayed image, null to remove the overlay
+     * @param region region of the full resolution image covered by the overlay (the overlay is scaled to it)
      */
-    void displayImage(BufferedImage image);
+    void displayOverlay(BufferedImage overlay, Rectangle region);
+
+    /**
+     * Return region of the full resolution image, which is visible on the screen (it can exceed the image).
+     */
+    Rectangle getVisibleImageRegion();
+
+    /**
+     * Return current zoom of the displayed image (count of screen pixels per image pixel).
+     */
+    float getZoom();
+
+    /**
+     * Return size of the area visible on the screen where image is displayed.
+     */
+    Dimension getViewportSize();
+
+    /**
+     * Show short information for user (e.g. in the status bar).
+     * @param message text to show
+     */
+    void showStatus(String message);
+
+    /**
+     * Show progress of the background loading or saving together with possibility to cancel it.
+     * @param description description of the running task
+     * @param percent completed part in percents (0 - 100)
+     */
+    void showProgress(String description, int percent);
+
+    /**
+     * Hide progress of the background loading or saving (all tasks are finished).
+     */
+    void hideProgress();
 
     /**
      * Hide displayed image.
@@ -51,4 +137,9 @@ public interface MainView {
      * @param enable True to enable, false to disable the "Redo" functionality.
      */
     void enableRedo(boolean enable);
+
+    /**
+     * Disables all actions before exit, progress of pending saves stays visible and can be cancelled.
+     */
+    void disableActions();
 }
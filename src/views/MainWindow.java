@@ -1,9 +1,13 @@
 package views;
 
 import controller.AppController;
+import utils.EncoderSettings;
+import utils.ImagePyramid;
 import views.modals.ColorAdjustDialog;
+import views.modals.EncoderSettingsPanel;
 import views.modals.FiltrationDialog;
 import views.viewarea.MouseEventsListener;
+import views.viewarea.RegionSource;
 import views.viewarea.ViewArea;
 
 import javax.swing.*;
@@ -20,6 +24,8 @@ import java.awt.image.BufferedImage;
  */
 public class MainWindow extends JFrame implements MainView {
 
+    private static final String RECIPE_EXTENSION = "recipe";
+
     /**
      * Controller used for handling user interactions.
      */
@@ -29,9 +35,13 @@ public class MainWindow extends JFrame implements MainView {
     private final MainWindowToolbar toolbar;
 
     private final ViewArea viewArea;
+    private final JLabel statusBar;
+    private final JProgressBar progressBar;
+    private final JButton cancelTransferButton;
 
     private final FiltrationDialog filtrationDialog;
     private final ColorAdjustDialog colorAdjustDialog;
+    private final EncoderSettingsPanel encoderSettingsPanel;
 
 
     public MainWindow(AppController appController) {
@@ -40,14 +50,19 @@ public class MainWindow extends JFrame implements MainView {
         this.menubar = new MainWindowMenubar();
         this.toolbar = new MainWindowToolbar();
         this.viewArea = new ViewArea();
+        this.statusBar = new JLabel(" ");
+        this.progressBar = new JProgressBar(0, 100);
+        this.cancelTransferButton = new JButton("Cancel");
 
         MouseEventsListener mouseEventsListener = new MouseEventsListener(this.viewArea);
         this.viewArea.addMouseListener(mouseEventsListener);
         this.viewArea.addMouseMotionListener(mouseEventsListener);
         this.viewArea.addMouseWheelListener(mouseEventsListener);
+        this.viewArea.setStatusListener(this::showStatus);
 
         this.filtrationDialog = new FiltrationDialog(this, true);
         this.colorAdjustDialog = new ColorAdjustDialog(this, true);
+        this.encoderSettingsPanel = new EncoderSettingsPanel();
 
         actionsSetup();
         filtrationDialogSetup();
@@ -76,14 +91,41 @@ public class MainWindow extends JFrame implements MainView {
     }
 
     /**
-     * Show dialog for user to set  user's path for saving edited image.
+     * Show dialog for user to set  user's path for saving edited image together with encoder settings.
      * @return String object that is the absolute path to the selected directory and filename
-     * or null if user close dialog.
+     * (without extension of the format) or null if user close dialog.
      */
     @Override
     public String getImageDestinationFromUser() {
         JFileChooser fileChooser = new JFileChooser(".");
+        fileChooser.setAccessory(encoderSettingsPanel);
         int response = fileChooser.showSaveDialog(this);
+        if(response != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+        String path = fileChooser.getSelectedFile().getAbsolutePath();
+        String extension = "." + getEncoderSettings().getExtension();
+        return path.toLowerCase().endsWith(extension) ? path.substring(0, path.length() - extension.length()) : path;
+    }
+
+    /**
+     * Return encoder settings chosen in the last image destination dialog (they are kept for the next dialog).
+     */
+    @Override
+    public EncoderSettings getEncoderSettings() {
+        return encoderSettingsPanel.getSettings();
+    }
+
+    /**
+     * Show dialog for user to choose edit recipe file.
+     * @return absolute path to the selected file or null if user close dialog.
+     */
+    @Override
+    public String getRecipeSourceFromUser() {
+        JFileChooser fileChooser = new JFileChooser(".");
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Edit recipes", RECIPE_EXTENSION));
+
+        int response = fileChooser.showOpenDialog(this);
         if(response == JFileChooser.APPROVE_OPTION) {
             return fileChooser.getSelectedFile().getAbsolutePath();
         } else {
@@ -91,13 +133,99 @@ public class MainWindow extends JFrame implements MainView {
         }
     }
 
+    /**
+     * Show dialog for user to set path of saved edit recipe (recipe extension is added if it is missing).
+     * @return absolute path to the recipe file or null if user close dialog.
+     */
+    @Override
+    public String getRecipeDestinationFromUser() {
+        JFileChooser fileChooser = new JFileChooser(".");
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Edit recipes", RECIPE_EXTENSION));
+
+        int response = fileChooser.showSaveDialog(this);
+        if(response != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+        String path = fileChooser.getSelectedFile().getAbsolutePath();
+        return path.endsWith("." + RECIPE_EXTENSION) ? path : path + "." + RECIPE_EXTENSION;
+    }
+
+    @Override
+    public void showError(String title, String message) {
+        JOptionPane.showMessageDialog(this, message, title, JOptionPane.ERROR_MESSAGE);
+    }
+
 
     /**
      * Display provided image in the view area.
      */
     @Override
-    public void displayImage(BufferedImage image) {
-        viewArea.setDisplayedImage(image);
+    public void displayImage(ImagePyramid pyramid) {
+        viewArea.setDisplayedImage(pyramid);
+    }
+
+    /**
+     * Display reduced preview of the large image in the view area.
+     */
+    @Override
+    public void displayImage(ImagePyramid pyramid, int downsampling, RegionSource fullResolution) {
+        viewArea.setDisplayedImage(pyramid, downsampling, fullResolution);
+    }
+
+    /**
+     * Display downsampled preview in the view area.
+     */
+    @Override
+    public void displayPreview(BufferedImage preview, int downsampling) {
+        viewArea.setDisplayedImage(preview, downsampling);
+    }
+
+    /**
+     * Display image over the part of the displayed image in the view area.
+     */
+    @Override
+    public void displayOverlay(BufferedImage overlay, Rectangle region) {
+        viewArea.setOverlay(overlay, region);
+    }
+
+    @Override
+    public Rectangle getVisibleImageRegion() {
+        return viewArea.getVisibleImageRegion();
+    }
+
+    @Override
+    public float getZoom() {
+        return viewArea.getZoom();
+    }
+
+    @Override
+    public Dimension getViewportSize() {
+        return viewArea.getViewportSize();
+    }
+
+    /**
+     * Show message in the status bar.
+     */
+    @Override
+    public void showStatus(String message) {
+        statusBar.setText(message);
+    }
+
+    /**
+     * Show progress bar and cancel button next to the status bar.
+     */
+    @Override
+    public void showProgress(String description, int percent) {
+        progressBar.setString(description + " " + percent + " %");
+        progressBar.setValue(percent);
+        progressBar.setVisible(true);
+        cancelTransferButton.setVisible(true);
+    }
+
+    @Override
+    public void hideProgress() {
+        progressBar.setVisible(false);
+        cancelTransferButton.setVisible(false);
     }
 
     /**
@@ -105,7 +233,7 @@ public class MainWindow extends JFrame implements MainView {
      */
     @Override
     public void hideImage() {
-        viewArea.setDisplayedImage(null);
+        viewArea.setDisplayedImage((BufferedImage) null);
     }
 
 
@@ -120,6 +248,8 @@ public class MainWindow extends JFrame implements MainView {
         toolbar.adjustColorButton.setEnabled(imageIsLoaded);
 
         menubar.save.setEnabled(imageIsLoaded);
+        menubar.openRecipe.setEnabled(imageIsLoaded);
+        menubar.saveRecipe.setEnabled(imageIsLoaded);
     }
 
     /**
@@ -140,6 +270,20 @@ public class MainWindow extends JFrame implements MainView {
         menubar.redo.setEnabled(enable);
     }
 
+    /**
+     * Disable menus and toolbar buttons, cancel button of the transfer stays enabled.
+     */
+    @Override
+    public void disableActions() {
+        for(int i = 0; i < menubar.getMenuCount(); i++) {
+            menubar.getMenu(i).setEnabled(false);
+        }
+        for(Component component : toolbar.getComponents()) {
+            component.setEnabled(false);
+        }
+        showStatus("Finishing pending saves before exit...");
+    }
+
 
 
 
@@ -147,18 +291,33 @@ public class MainWindow extends JFrame implements MainView {
      * Connect filtration dialog actions with controller.
      */
     private void filtrationDialogSetup() {
+        filtrationDialog.setKernelListener(appController::handleFiltrationPreview);
         filtrationDialog.runButton.addActionListener(e -> {
             appController.handleFiltration(filtrationDialog.getKernel());
             filtrationDialog.dispose();
         });
+
+        filtrationDialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                super.windowClosed(e);
+                appController.closedFiltrationDialog();
+            }
+        });
     }
 
     /**
      * Connect color adjustment dialog with controller.
      */
     private void colorAdjustmentDialogSetup() {
-        colorAdjustDialog.brightnessSlider.addChangeListener(e -> appController.handleBrightness(colorAdjustDialog.brightnessSlider.getValue()));
-        colorAdjustDialog.contrastSlider.addChangeListener(e -> appController.handleContrast(colorAdjustDialog.getContrastValue()));
+        colorAdjustDialog.brightnessSlider.addChangeListener(e -> appController.handleBrightness(
+                colorAdjustDialog.brightnessSlider.getValue(),
+                colorAdjustDialog.brightnessSlider.getValueIsAdjusting()
+        ));
+        colorAdjustDialog.contrastSlider.addChangeListener(e -> appController.handleContrast(
+                colorAdjustDialog.getContrastValue(),
+                colorAdjustDialog.contrastSlider.getValueIsAdjusting()
+        ));
         colorAdjustDialog.submitButton.addActionListener(e -> {
             appController.applyChanges();
             colorAdjustDialog.dispose();
@@ -181,7 +340,10 @@ public class MainWindow extends JFrame implements MainView {
     private void actionsSetup() {
         menubar.open.addActionListener(e -> appController.handleLoadImage());
         menubar.save.addActionListener(e -> appController.handleSaveImage());
+        menubar.openRecipe.addActionListener(e -> appController.handleLoadRecipe());
+        menubar.saveRecipe.addActionListener(e -> appController.handleSaveRecipe());
         menubar.exit.addActionListener(e -> appController.exit());
+        cancelTransferButton.addActionListener(e -> appController.handleCancelTransfer());
 
         menubar.undo.addActionListener(e -> appController.handleUndo());
         menubar.redo.addActionListener(e -> appController.handleRedo());
@@ -196,7 +358,13 @@ public class MainWindow extends JFrame implements MainView {
      * Setup main window design.
      */
     private void mainWindowSetup() {
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                appController.exit();
+            }
+        });
         setMinimumSize(new Dimension(500, 500));
         setLocation(200, 100);
 
@@ -207,6 +375,16 @@ public class MainWindow extends JFrame implements MainView {
         Container windowPane = getContentPane();
         windowPane.add(new JScrollPane(viewArea), BorderLayout.CENTER);
         windowPane.add(toolbar, BorderLayout.NORTH);
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 10, 2, 10));
+        progressBar.setStringPainted(true);
+        JPanel progressPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        progressPanel.add(progressBar);
+        progressPanel.add(cancelTransferButton);
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(statusBar, BorderLayout.CENTER);
+        statusPanel.add(progressPanel, BorderLayout.EAST);
+        windowPane.add(statusPanel, BorderLayout.SOUTH);
+        hideProgress();
 
         setViewMode(false);
         enableUndo(false);
@@ -5,11 +5,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 
 /**
- * Class for menubar, that contains file and edit actions (open, save, exit, undo, redo)
+ * Class for menubar, that contains file and edit actions (open, save, recipes, exit, undo, redo)
  */
 public class MainWindowMenubar extends JMenuBar {
     public JMenuItem open;
     public JMenuItem save;
+    public JMenuItem openRecipe;
+    public JMenuItem saveRecipe;
     public JMenuItem exit;
 
     public JMenuItem undo;
@@ -25,6 +27,8 @@ public class MainWindowMenubar extends JMenuBar {
 
         open = new JMenuItem("Open...", UIManager.getIcon("FileView.directoryIcon"));
         save = new JMenuItem("Save As...", UIManager.getIcon("FileView.floppyDriveIcon"));
+        openRecipe = new JMenuItem("Apply Recipe...");
+        saveRecipe = new JMenuItem("Save Recipe As...");
         exit = new JMenuItem("Exit");
 
         save.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, ActionEvent.CTRL_MASK));
@@ -32,6 +36,9 @@ public class MainWindowMenubar extends JMenuBar {
         fileMenu.add(open);
         fileMenu.add(save);
         fileMenu.add(new JSeparator());
+        fileMenu.add(openRecipe);
+        fileMenu.add(saveRecipe);
+        fileMenu.add(new JSeparator());
         fileMenu.add(exit);
 
         return fileMenu;
@@ -0,0 +1,83 @@
+package views.modals;
+
+import utils.EncoderSettings;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Panel with encoder settings shown next to the file chooser of the saved image:
+ * output format, JPEG quality and progressive mode, PNG compression level.
+ * Only settings of the selected format are enabled.
+ */
+public class EncoderSettingsPanel extends JPanel {
+
+    public JComboBox<EncoderSettings.Format> formatBox;
+    public JSlider qualitySlider;
+    public JCheckBox progressiveBox;
+    public JSlider compressionSlider;
+
+    public EncoderSettingsPanel() {
+        panelSetup();
+    }
+
+
+    /**
+     * Return settings chosen in the panel.
+     */
+    public EncoderSettings getSettings() {
+        EncoderSettings.Format format = (EncoderSettings.Format) formatBox.getSelectedItem();
+        switch (format) {
+            case JPEG:
+                return EncoderSettings.jpeg(qualitySlider.getValue() / 100f, progressiveBox.isSelected());
+            case PNG:
+                return EncoderSettings.png(compressionSlider.getValue());
+            default:
+                return EncoderSettings.of(format);
+        }
+    }
+
+
+    private void panelSetup() {
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 0));
+
+        formatBox = new JComboBox<>(EncoderSettings.Format.values());
+        formatBox.setMaximumSize(new Dimension(Integer.MAX_VALUE, 30));
+
+        qualitySlider = new JSlider(0, 100, Math.round(EncoderSettings.DEFAULT_JPEG_QUALITY * 100));
+        qualitySlider.setMajorTickSpacing(25);
+        qualitySlider.setPaintLabels(true);
+        progressiveBox = new JCheckBox("Progressive");
+
+        compressionSlider = new JSlider(0, 9, EncoderSettings.DEFAULT_PNG_COMPRESSION);
+        compressionSlider.setMajorTickSpacing(3);
+        compressionSlider.setMinorTickSpacing(1);
+        compressionSlider.setSnapToTicks(true);
+        compressionSlider.setPaintLabels(true);
+
+        add(createLabel("Format"));
+        add(formatBox);
+        add(createLabel("JPEG quality"));
+        add(qualitySlider);
+        add(progressiveBox);
+        add(createLabel("PNG compression"));
+        add(compressionSlider);
+
+        formatBox.addActionListener(e -> updateEnabled());
+        updateEnabled();
+    }
+
+    private void updateEnabled() {
+        EncoderSettings.Format format = (EncoderSettings.Format) formatBox.getSelectedItem();
+        qualitySlider.setEnabled(format == EncoderSettings.Format.JPEG);
+        progressiveBox.setEnabled(format == EncoderSettings.Format.JPEG);
+        compressionSlider.setEnabled(format == EncoderSettings.Format.PNG);
+    }
+
+    private static JLabel createLabel(String text) {
+        JLabel label = new JLabel(text);
+        label.setBorder(BorderFactory.createEmptyBorder(8, 0, 2, 0));
+        return label;
+    }
+}
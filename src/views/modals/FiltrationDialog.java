@@ -1,17 +1,33 @@
 package views.modals;
 
+import utils.ConvolutionKernel;
+
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 
 /**
- * Represents the window for specifying parameters of 3x3 filter kernel
- * used for linear filtration
+ * Represents the window for specifying parameters of NxN filter kernel
+ * used for linear filtration. Kernel listener is notified whenever the kernel changes (cell edit, size or preset),
+ * so the filter can be previewed before it is applied.
  */
 public class FiltrationDialog extends JDialog {
 
+    /** Sizes of kernel grid that user can edit */
+    private static final Integer[] GRID_SIZES = { 3, 5, 7, 9 };
+    /** Sizes of generated Gaussian blur presets (too large for edited grid) */
+    private static final int[] GAUSSIAN_SIZES = { 15, 31, 61 };
+
+    private JPanel leftPanel;
     private JTextField[] kernelCells;
+    private int kernelSize = 3;
+    private JComboBox<Integer> sizePicker;
     private JComboBox<String> filterPicker;
     public JButton runButton;
 
@@ -19,22 +35,42 @@ public class FiltrationDialog extends JDialog {
      * Map of preset kernels (key - name, value - table of kernel cells)
      */
     private TreeMap<String, float[]> presetKernels;
+    /**
+     * Map of generated presets, which are not shown in the grid (key - name, value - kernel)
+     */
+    private TreeMap<String, ConvolutionKernel> generatedKernels;
+    /** Chosen generated preset, null if kernel is taken from the grid */
+    private ConvolutionKernel generatedKernel;
+
+    /** Listener notified with the changed kernel (null if none) */
+    private Consumer<ConvolutionKernel> kernelListener;
+    /** True while the dialog fills the cells, listener is notified once after the whole change */
+    private boolean updatingCells = false;
 
 
     public FiltrationDialog(Frame parent, boolean modal) {
         super(parent, "Filtration settings", modal);
-        loadKernelPresets();
+        presetKernels = createPresetKernels();
+        generatedKernels = createGeneratedKernels();
         dialogSetup(parent);
     }
 
 
+    /**
+     * Set listener notified with the kernel, whenever user changes it (kernels with invalid cells are skipped).
+     */
+    public void setKernelListener(Consumer<ConvolutionKernel> kernelListener) {
+        this.kernelListener = kernelListener;
+    }
+
+
     /**
      * Setup dialog window layout.
      * @param parent JFrame parent of window dialog.
      */
     private void dialogSetup(Frame parent) {
         setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
-        setSize(500, 200);
+        setSize(640, 360);
         setResizable(false);
         setLocationRelativeTo(parent);
 
@@ -49,22 +85,61 @@ public class FiltrationDialog extends JDialog {
 
 
     /**
-     * Create and returns JPanel which contains 3x3 text fields grid where user can input kernel cells values.
+     * Create and returns JPanel which contains NxN text fields grid where user can input kernel cells values.
      */
     private JPanel createLeftPanel() {
-        int KERNEL_X_SIZE = 3;
-        int KERNEL_Y_SIZE = 3;
-        JPanel leftPanel = new JPanel(new GridLayout(KERNEL_X_SIZE, KERNEL_Y_SIZE));
+        leftPanel = new JPanel();
         leftPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 50));
+        setKernelSize(kernelSize);
+        return leftPanel;
+    }
+
+    /**
+     * Rebuild the grid of text fields with specified size, the grid is filled with identity kernel.
+     */
+    private void setKernelSize(int size) {
+        kernelSize = size;
+        generatedKernel = null;
+        leftPanel.removeAll();
+        leftPanel.setLayout(new GridLayout(size, size));
 
-        kernelCells =  new JTextField[KERNEL_X_SIZE * KERNEL_Y_SIZE];
+        kernelCells = new JTextField[size * size];
         for(int i = 0; i < kernelCells.length; i++) {
-            kernelCells[i] = new JTextField();
+            kernelCells[i] = new JTextField(i == kernelCells.length / 2 ? "1.0" : "0.0");
             kernelCells[i].setHorizontalAlignment(JTextField.CENTER);
+            kernelCells[i].getDocument().addDocumentListener(new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent e) {
+                    kernelChanged();
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e) {
+                    kernelChanged();
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e) {
+                    kernelChanged();
+                }
+            });
             leftPanel.add(kernelCells[i]);
         }
+        leftPanel.revalidate();
+        leftPanel.repaint();
+    }
 
-        return leftPanel;
+    /**
+     * Replace the grid with description of generated kernel.
+     */
+    private void showGeneratedKernel(String name, ConvolutionKernel kernel) {
+        generatedKernel = kernel;
+        leftPanel.removeAll();
+        leftPanel.setLayout(new BorderLayout());
+        JLabel description = new JLabel(name + " (" + kernel.getWidth() + "x" + kernel.getHeight() + ")", SwingConstants.CENTER);
+        leftPanel.add(description, BorderLayout.CENTER);
+        leftPanel.revalidate();
+        leftPanel.repaint();
     }
 
     /**
@@ -76,22 +151,51 @@ public class FiltrationDialog extends JDialog {
         rightPanel.setBorder(BorderFactory.createEmptyBorder(40, 10, 20, 10));
 
 
+        sizePicker = new JComboBox<>(GRID_SIZES);
+        sizePicker.setMaximumSize(new Dimension(Integer.MAX_VALUE, 30));
+        sizePicker.addActionListener(e -> {
+            int size = (Integer) sizePicker.getSelectedItem();
+            if(size != kernelSize || generatedKernel != null) {
+                setKernelSize(size);
+                filterPicker.setSelectedItem("");
+            }
+        });
+
         filterPicker = new JComboBox<>();
-        filterPicker.setPreferredSize(new Dimension(20, -5));
+        filterPicker.setMaximumSize(new Dimension(Integer.MAX_VALUE, 30));
         for(String preset : presetKernels.keySet()) {
             filterPicker.addItem(preset);
         }
+        for(String preset : generatedKernels.keySet()) {
+            filterPicker.addItem(preset);
+        }
         filterPicker.addActionListener(e -> {
             String chosenFilter = (String) filterPicker.getSelectedItem();
-            setKernelCellsValues(presetKernels.get(chosenFilter));
+            if("".equals(chosenFilter)) {
+                setKernelSize(kernelSize);
+            } else if(generatedKernels.containsKey(chosenFilter)) {
+                showGeneratedKernel(chosenFilter, generatedKernels.get(chosenFilter));
+            } else if(presetKernels.containsKey(chosenFilter)) {
+                float[] cells = presetKernels.get(chosenFilter);
+                int size = (int) Math.round(Math.sqrt(cells.length));
+                setKernelSize(size);
+                sizePicker.setSelectedItem(size);
+                setKernelCellsValues(cells);
+            }
+            kernelChanged();
         });
-        filterPicker.setSelectedItem("");
 
 
         runButton = new JButton("APPLY");
         runButton.setAlignmentX(Component.CENTER_ALIGNMENT);
 
 
+        filterPicker.setSelectedItem("");
+
+        rightPanel.add(new JLabel("Kernel size"));
+        rightPanel.add(sizePicker);
+        rightPanel.add(Box.createVerticalStrut(10));
+        rightPanel.add(new JLabel("Preset"));
         rightPanel.add(filterPicker);
         rightPanel.add(Box.createVerticalGlue());
         rightPanel.add(runButton);
@@ -104,36 +208,73 @@ public class FiltrationDialog extends JDialog {
      * Set text fields with specified kernel cells values
      */
     private void setKernelCellsValues(float[] kernelCellsValues) {
+        updatingCells = true;
         for(int i = 0; i < kernelCells.length; i++) {
             JTextField cell = kernelCells[i];
             cell.setText(String.valueOf(kernelCellsValues[i]));
         }
+        updatingCells = false;
     }
 
     /**
-     * Return array of kernel cells values from text fields
+     * Notify listener with the current kernel, unless the cells are being filled or some cell is not a number.
      */
-    public float[] getKernel() {
-        float[] cellsValues = new float[9];
-        float sum = 0;
+    private void kernelChanged() {
+        if(kernelListener == null || updatingCells) {
+            return;
+        }
+        ConvolutionKernel kernel;
+        try {
+            kernel = getKernel();
+        } catch (NumberFormatException e) {
+            // user has not finished typing the value
+            return;
+        }
+        kernelListener.accept(kernel);
+    }
+
+    /**
+     * Return kernel from text fields (normalized by the sum of cells) or chosen generated kernel
+     */
+    public ConvolutionKernel getKernel() {
+        if(generatedKernel != null) {
+            return generatedKernel;
+        }
+
+        float[] cellsValues = new float[kernelCells.length];
         for(int i = 0; i < kernelCells.length; i++) {
             JTextField cell = kernelCells[i];
             cellsValues[i] = Float.parseFloat(cell.getText());
-            sum += cellsValues[i];
-        }
-        if(sum == 0) {
-            sum = 1;
-        }
-        for(int i = 0; i < cellsValues.length; i++) {
-            cellsValues[i] *= 1/sum;
         }
+        return ConvolutionKernel.square(cellsValues).normalized();
+    }
 
-        return cellsValues;
+    /**
+     * Return all named presets (grid and generated ones) as kernels, in the same form as {@link #getKernel()}
+     * returns them. Used also outside the dialog (benchmarks).
+     */
+    public static Map<String, ConvolutionKernel> getPresetKernels() {
+        Map<String, ConvolutionKernel> kernels = new LinkedHashMap<>();
+        createPresetKernels().forEach((name, cells) -> {
+            if(!name.isEmpty()) {
+                kernels.put(name, ConvolutionKernel.square(cells).normalized());
+            }
+        });
+        kernels.putAll(createGeneratedKernels());
+        return kernels;
     }
 
 
-    private void loadKernelPresets() {
-        presetKernels = new TreeMap<>();
+    private static TreeMap<String, ConvolutionKernel> createGeneratedKernels() {
+        TreeMap<String, ConvolutionKernel> generatedKernels = new TreeMap<>();
+        for(int size : GAUSSIAN_SIZES) {
+            generatedKernels.put("Gaussian Blur " + size + "x" + size, ConvolutionKernel.gaussian(size));
+        }
+        return generatedKernels;
+    }
+
+    private static TreeMap<String, float[]> createPresetKernels() {
+        TreeMap<String, float[]> presetKernels = new TreeMap<>();
 
         presetKernels.put(
                 "",
@@ -183,5 +324,6 @@ public class FiltrationDialog extends JDialog {
                         1f, -4f, 1f,
                         0, 1f, 0 }
         );
+        return presetKernels;
     }
 }
\ No newline at end of file
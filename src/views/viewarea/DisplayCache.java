@@ -0,0 +1,99 @@
+package views.viewarea;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Images in the pixel format of the screen. Drawing image of other format (e.g. TYPE_3BYTE_BGR produced
+ * by decoders or custom types) converts every drawn pixel, so displayed images are converted once
+ * into the format compatible with the {@link GraphicsConfiguration} and copies are kept until the image changes
+ * (the displayed image and its pyramid levels).
+ * <p>
+ * Tiles are created as {@link VolatileImage} if the configuration supports accelerated volatile images,
+ * otherwise (software pipelines, headless rendering) as compatible BufferedImage.
+ * Without configuration (component is not displayable) INT_RGB and INT_ARGB are used.
+ */
+class DisplayCache {
+
+    /** Converted copies of images (or images themselves if they are compatible) */
+    private final Map<BufferedImage, BufferedImage> converted = new IdentityHashMap<>();
+
+    private GraphicsConfiguration configuration = null;
+    private boolean accelerated = false;
+
+
+    /**
+     * Return copy of image in the compatible format (image itself if it is compatible already).
+     */
+    BufferedImage compatible(BufferedImage image, GraphicsConfiguration gc) {
+        BufferedImage cached = converted.get(image);
+        if(cached != null) {
+            return cached;
+        }
+        int transparency = image.getColorModel().getTransparency();
+        BufferedImage result = image;
+        if(image.getType() == BufferedImage.TYPE_CUSTOM || image.getType() != compatibleType(gc, transparency)) {
+            result = createImage(gc, image.getWidth(), image.getHeight(), transparency);
+            Graphics2D g2d = result.createGraphics();
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+        }
+        converted.put(image, result);
+        return result;
+    }
+
+    /**
+     * Create image for tile of the specified size, which is volatile if the configuration accelerates it.
+     */
+    Image createTile(GraphicsConfiguration gc, int width, int height, int transparency) {
+        if(isAccelerated(gc)) {
+            VolatileImage tile = gc.createCompatibleVolatileImage(width, height, transparency);
+            if(tile != null) {
+                return tile;
+            }
+        }
+        return createImage(gc, width, height, transparency);
+    }
+
+    /**
+     * Forget converted images (displayed image changed).
+     */
+    void clear() {
+        converted.clear();
+    }
+
+
+    private boolean isAccelerated(GraphicsConfiguration gc) {
+        if(gc == null || GraphicsEnvironment.isHeadless()) {
+            return false;
+        }
+        if(gc != configuration) {
+            configuration = gc;
+            VolatileImage probe = gc.createCompatibleVolatileImage(1, 1);
+            accelerated = probe != null && probe.getCapabilities().isAccelerated();
+            if(probe != null) {
+                probe.flush();
+            }
+        }
+        return accelerated;
+    }
+
+    private static BufferedImage createImage(GraphicsConfiguration gc, int width, int height, int transparency) {
+        if(gc != null) {
+            return gc.createCompatibleImage(width, height, transparency);
+        }
+        return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+
+    private static int compatibleType(GraphicsConfiguration gc, int transparency) {
+        if(gc != null) {
+            return gc.createCompatibleImage(1, 1, transparency).getType();
+        }
+        return transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+    }
+}
@@ -0,0 +1,25 @@
+package views.viewarea;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Source of full resolution regions of the displayed image, which is too large to be displayed as a whole.
+ * The view shows reduced preview and requests regions when zoomed in beyond the preview resolution.
+ */
+public interface RegionSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Return region of the image with every subsampling-th pixel in both directions, pixel (x, y) of the result
+     * is pixel (region.x + x * subsampling, region.y + y * subsampling) of the image.
+     * It is called on background thread.
+     * @param region region in full resolution coordinates (it is clipped to the image)
+     * @param subsampling pixel step in both directions
+     */
+    BufferedImage readRegion(Rectangle region, int subsampling) throws IOException;
+}
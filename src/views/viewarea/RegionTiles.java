@@ -0,0 +1,137 @@
+package views.viewarea;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Blocks of {@link RegionSource} decoded on demand. Blocks are squares of {@link #BLOCK_SIZE} decoded pixels
+ * in the grid of the subsampling, they are decoded on background thread and kept in {@link TileCache}
+ * with memory limit, so memory does not depend on the image size.
+ * <p>
+ * The newest requests are decoded first (they belong to the currently visible area) and only
+ * {@link #MAX_PENDING} requests are queued, older ones are dropped. Methods are called on the event dispatch thread.
+ */
+class RegionTiles {
+
+    /** Size of decoded block in decoded pixels */
+    static final int BLOCK_SIZE = 512;
+    private static final int MAX_PENDING = 64;
+
+    private static final ExecutorService DECODER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "region-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RegionSource source;
+    private final TileCache blocks;
+    private final Runnable onBlockDecoded;
+    private final Consumer<String> onDecodeFailed;
+
+    /** Requested blocks, which are not decoded yet */
+    private final Set<TileCache.Key> requested = new HashSet<>();
+    /** Blocks failed to decode, they are not requested again */
+    private final Set<TileCache.Key> failed = new HashSet<>();
+    /** Queue of requests (newest first), shared with the decoder thread */
+    private final Deque<TileCache.Key> pending = new ArrayDeque<>();
+    private volatile boolean cancelled = false;
+
+
+    /**
+     * @param source source of regions
+     * @param capacityBytes memory limit of decoded blocks
+     * @param onBlockDecoded called on the event dispatch thread when a block is decoded
+     * @param onDecodeFailed called on the event dispatch thread with error message when a block fails to decode
+     */
+    RegionTiles(RegionSource source, long capacityBytes, Runnable onBlockDecoded, Consumer<String> onDecodeFailed) {
+        this.source = source;
+        this.blocks = new TileCache(capacityBytes);
+        this.onBlockDecoded = onBlockDecoded;
+        this.onDecodeFailed = onDecodeFailed;
+    }
+
+
+    RegionSource getSource() {
+        return source;
+    }
+
+    /**
+     * Return decoded block or null, if it is not decoded yet (then it is requested).
+     * @param subsampling pixel step of the block
+     * @param column block column in the grid of blocks with size BLOCK_SIZE * subsampling full resolution pixels
+     * @param row block row
+     */
+    BufferedImage getBlock(int subsampling, int column, int row) {
+        Image block = blocks.get(subsampling, 1, column, row);
+        if(block != null) {
+            return (BufferedImage) block;
+        }
+        TileCache.Key key = new TileCache.Key(subsampling, 1, column, row);
+        if(!failed.contains(key) && requested.add(key)) {
+            synchronized(pending) {
+                pending.addFirst(key);
+                while(pending.size() > MAX_PENDING) {
+                    requested.remove(pending.removeLast());
+                }
+            }
+            DECODER.execute(this::decodeNext);
+        }
+        return null;
+    }
+
+    /**
+     * Stop decoding and release decoded blocks (source is not displayed anymore).
+     */
+    void cancel() {
+        cancelled = true;
+        synchronized(pending) {
+            pending.clear();
+        }
+        blocks.clear();
+    }
+
+
+    private void decodeNext() {
+        TileCache.Key key;
+        synchronized(pending) {
+            key = pending.pollFirst();
+        }
+        if(key == null || cancelled) {
+            return;
+        }
+        int span = BLOCK_SIZE * key.level;
+        Rectangle region = new Rectangle(key.column * span, key.row * span, span, span);
+        BufferedImage block = null;
+        String error = null;
+        try {
+            block = source.readRegion(region, key.level);
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            error = "Failed to decode region " + region.x + "," + region.y + " " + region.width + "x" + region.height
+                    + ": " + e.getMessage();
+        }
+        BufferedImage decoded = block;
+        String message = error;
+        SwingUtilities.invokeLater(() -> {
+            requested.remove(key);
+            if(cancelled) {
+                return;
+            }
+            if(decoded == null) {
+                failed.add(key);
+                onDecodeFailed.accept(message);
+                return;
+            }
+            blocks.put(key.level, 1, key.column, key.row, decoded);
+            onBlockDecoded.run();
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package views.viewarea;
+
+import java.awt.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * LRU cache of scaled image tiles with memory limit. Tiles are identified by pyramid level they are drawn from,
+ * zoom level and position in the tile grid, so tiles of several zoom levels can be cached at once.
+ * Least recently drawn tiles are evicted, when memory of all tiles exceeds the capacity.
+ * <p>
+ * Cache is used on the event dispatch thread only, so it is not synchronized.
+ */
+class TileCache {
+
+    private final long capacityBytes;
+    private long sizeBytes = 0;
+
+    /** Tiles in access order (least recently used first) */
+    private final LinkedHashMap<Key, Image> tiles = new LinkedHashMap<>(64, 0.75f, true);
+
+
+    /**
+     * @param capacityBytes max memory of cached tiles in bytes
+     */
+    TileCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+
+    /**
+     * Return cached tile or null, if tile is not cached.
+     */
+    Image get(int level, float scale, int column, int row) {
+        return tiles.get(new Key(level, scale, column, row));
+    }
+
+    /**
+     * Add tile to the cache and evict least recently used tiles over capacity.
+     */
+    void put(int level, float scale, int column, int row, Image tile) {
+        Image previous = tiles.put(new Key(level, scale, column, row), tile);
+        if(previous != null) {
+            sizeBytes -= bytes(previous);
+            if(previous != tile) {
+                previous.flush();
+            }
+        }
+        sizeBytes += bytes(tile);
+
+        Iterator<Map.Entry<Key, Image>> eldest = tiles.entrySet().iterator();
+        while(sizeBytes > capacityBytes && eldest.hasNext()) {
+            Image evicted = eldest.next().getValue();
+            if(evicted == tile) {
+                // the newest tile is kept even if it alone exceeds the capacity
+                break;
+            }
+            sizeBytes -= bytes(evicted);
+            evicted.flush();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Remove all tiles (e.g. when displayed image changes).
+     */
+    void clear() {
+        for(Image tile : tiles.values()) {
+            tile.flush();
+        }
+        tiles.clear();
+        sizeBytes = 0;
+    }
+
+    private static long bytes(Image tile) {
+        return (long) tile.getWidth(null) * tile.getHeight(null) * Integer.BYTES;
+    }
+
+
+    /**
+     * Identifier of cached tile.
+     */
+    static final class Key {
+        final int level;
+        final float scale;
+        final int column;
+        final int row;
+
+        Key(int level, float scale, int column, int row) {
+            this.level = level;
+            this.scale = scale;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return level == key.level && Float.compare(key.scale, scale) == 0 && column == key.column && row == key.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(level, scale, column, row);
+        }
+    }
+}
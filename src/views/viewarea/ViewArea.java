@@ -1,52 +1,455 @@
 package views.viewarea;
 
+import utils.ImagePyramid;
+
 import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Locale;
+import java.util.function.Consumer;
 
 /**
  * Represents scrollable and draggable area, that stores image and allows user to interact with it  (pan and zoom).
  * It includes 2 coordinates systems:
  *  - original - (0, 0) anchored with upper left of JPanel (x-axis go right, y-axis goes down)
  *  - transformed - (0, 0) anchored with upper left of image (x-axis go right, y-axis goes down)
+ * <p>
+ * Image is drawn in square tiles of the scaled image. Only tiles intersecting the clip are drawn and scaled tiles
+ * are cached by {@link TileCache}, so panning only copies cached tiles and zoom resamples visible part of the image.
+ * Zoomed out image is drawn from the level of {@link ImagePyramid} nearest to the zoom, until the level is built
+ * in the background the finest built level is drawn. Images are converted to the screen format once
+ * and tiles are volatile images on accelerated pipelines ({@link DisplayCache}).
+ * <p>
+ * Images too large for the heap are displayed as reduced preview with {@link RegionSource} of full resolution regions:
+ * when zoomed in beyond the preview resolution, regions covering visible tiles are decoded in the background
+ * ({@link RegionTiles}) and the preview is drawn until they are ready.
+ * <p>
+ * Image drawn over the region of the displayed image (overlay, e.g. preview of the filter on the visible part)
+ * is scaled to the region and is not cached, it is removed when the displayed image changes.
+ * <p>
+ * Paint times are measured, with system property photoeditor.paintStatistics=true they are shown over the image.
  */
 public class ViewArea extends JPanel {
 
+    /** Size of scaled image tile in screen pixels */
+    private static final int TILE_SIZE = 256;
+    /** Memory limit of cached tiles, can be changed by photoeditor.tileCacheMegabytes system property */
+    private static final long TILE_CACHE_BYTES = Integer.getInteger("photoeditor.tileCacheMegabytes", 64) * 1024L * 1024L;
+    /** Memory limit of decoded full resolution regions, can be changed by photoeditor.regionCacheMegabytes */
+    private static final long REGION_CACHE_BYTES = Integer.getInteger("photoeditor.regionCacheMegabytes", 128) * 1024L * 1024L;
+    private static final boolean SHOW_PAINT_STATISTICS = Boolean.getBoolean("photoeditor.paintStatistics");
+
     protected BufferedImage displayedImage = null;
     protected final Point translation = new Point(0, 0);
     protected float scaling = 1;
 
+    /** Factor by which displayed image is smaller than the full resolution image (preview) */
+    protected int downsampling = 1;
+
+    /** Reduced levels of the displayed image (null for previews) */
+    private ImagePyramid pyramid = null;
+    /** Full resolution regions of the displayed image, if it is reduced preview of large image (otherwise null) */
+    private RegionTiles regionTiles = null;
+
+    /** Image drawn over the displayed image (null if none) */
+    private BufferedImage overlay = null;
+    /** Region of the full resolution image covered by the overlay */
+    private Rectangle overlayRegion = null;
+
+    private final TileCache tileCache = new TileCache(TILE_CACHE_BYTES);
+    private final DisplayCache displayCache = new DisplayCache();
+
+    /** Consumer of messages about failures of background decoding */
+    private Consumer<String> statusListener = message -> { };
+
+    /** Paint time statistics */
+    private long paintCount = 0;
+    private long totalPaintNanos = 0;
+    private long lastPaintNanos = 0;
+    private long maxPaintNanos = 0;
+    private int renderedTiles = 0;
+
     public ViewArea() {
         setPreferredSize(new Dimension(500, 500));
         setBackground(Color.decode("#111111"));
     }
 
 
+    /**
+     * Set consumer of messages about failures of background decoding (called on the event dispatch thread).
+     */
+    public void setStatusListener(Consumer<String> statusListener) {
+        this.statusListener = statusListener;
+    }
+
     /**
      * Set current displayed image and parameters.
      * @param displayedImage BufferedImage that will be displayed.
      */
     public void setDisplayedImage(BufferedImage displayedImage) {
+        setDisplayedImage(displayedImage, 1);
+    }
+
+    /**
+     * Set current displayed image with its pyramid, zoomed out image is drawn from reduced levels.
+     * @param pyramid pyramid of the image that will be displayed
+     */
+    public void setDisplayedImage(ImagePyramid pyramid) {
+        setDisplayedImage(pyramid, 1, null);
+    }
+
+    /**
+     * Set current displayed image with its pyramid, which can be reduced preview of the large image.
+     * @param pyramid pyramid of the image that will be displayed
+     * @param downsampling factor by which image is smaller than the full resolution image
+     * @param fullResolution source of full resolution regions drawn when zoomed in (null if image is not reduced)
+     */
+    public void setDisplayedImage(ImagePyramid pyramid, int downsampling, RegionSource fullResolution) {
+        setDisplayedImage(pyramid.getImage(), downsampling);
+        this.pyramid = pyramid;
+        pyramid.setListener(() -> SwingUtilities.invokeLater(() -> {
+            if(this.pyramid == pyramid) {
+                repaint();
+            }
+        }));
+        if(fullResolution != null) {
+            regionTiles = new RegionTiles(fullResolution, REGION_CACHE_BYTES, this::repaint,
+                    message -> statusListener.accept(message));
+            setPreferredSize(new Dimension(fullResolution.getWidth(), fullResolution.getHeight()));
+        }
+    }
+
+    /**
+     * Set current displayed image, that is downsampled copy of the full resolution image.
+     * It is drawn with the same size on the screen as the full resolution image.
+     * @param displayedImage BufferedImage that will be displayed.
+     * @param downsampling factor by which image is smaller than the full resolution image
+     */
+    public void setDisplayedImage(BufferedImage displayedImage, int downsampling) {
         this.displayedImage = displayedImage;
+        this.downsampling = downsampling;
+        this.pyramid = null;
+        this.overlay = null;
+        this.overlayRegion = null;
+        if(regionTiles != null) {
+            regionTiles.cancel();
+            regionTiles = null;
+        }
+        tileCache.clear();
+        displayCache.clear();
         if(displayedImage != null) {
-            setPreferredSize(new Dimension(displayedImage.getWidth(), displayedImage.getHeight()));
+            setPreferredSize(new Dimension(displayedImage.getWidth() * downsampling, displayedImage.getHeight() * downsampling));
         }
         repaint();
     }
 
+    /**
+     * Draw image over the region of the displayed image, until other image is displayed.
+     * @param overlay drawn image (null to remove the overlay)
+     * @param region region of the full resolution image, which the overlay is scaled to
+     */
+    public void setOverlay(BufferedImage overlay, Rectangle region) {
+        this.overlay = overlay;
+        this.overlayRegion = overlay == null ? null : new Rectangle(region);
+        repaint();
+    }
+
+    public float getZoom() {
+        return scaling;
+    }
+
+    /**
+     * Return region of the full resolution image covering the visible part of the area (it is not clipped to the image).
+     */
+    public Rectangle getVisibleImageRegion() {
+        Rectangle visible = getVisibleRect();
+        if(visible.isEmpty()) {
+            visible = new Rectangle(getSize());
+        }
+        int fromX = (int) Math.floor((visible.x - translation.x) / scaling);
+        int fromY = (int) Math.floor((visible.y - translation.y) / scaling);
+        int toX = (int) Math.ceil((visible.x + visible.width - translation.x) / scaling);
+        int toY = (int) Math.ceil((visible.y + visible.height - translation.y) / scaling);
+        return new Rectangle(fromX, fromY, toX - fromX, toY - fromY);
+    }
+
+    /**
+     * Return duration of the last paint in milliseconds.
+     */
+    public double getLastPaintMillis() {
+        return lastPaintNanos / 1e6;
+    }
+
+    /**
+     * Return mean duration of all paints in milliseconds.
+     */
+    public double getMeanPaintMillis() {
+        return paintCount == 0 ? 0 : totalPaintNanos / 1e6 / paintCount;
+    }
+
+    /**
+     * Return size of the visible part of the area.
+     */
+    public Dimension getViewportSize() {
+        Rectangle visible = getVisibleRect();
+        if(visible.isEmpty()) {
+            return getSize();
+        }
+        return visible.getSize();
+    }
+
 
     @Override
     protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         Graphics2D g2d = (Graphics2D)g;
         super.paintComponent(g2d);
         g2d.addRenderingHints(new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON));
 
         if(displayedImage != null) {
-            g2d.translate(translation.x, translation.y);
-            g2d.scale(scaling, scaling);
-            g2d.drawImage(displayedImage, null, 0, 0);
+            float scale = scaling * downsampling;
+            int level = 0;
+            BufferedImage source = displayedImage;
+            if(pyramid != null) {
+                level = pyramid.getBuiltLevel(pyramid.levelFor(scale));
+                source = pyramid.getLevel(level);
+                scale *= 1 << level;
+            }
+            paintTiles(g2d, displayCache.compatible(source, getGraphicsConfiguration()), level, scale, detailSubsampling());
+            if(overlay != null) {
+                paintOverlay(g2d);
+            }
+        }
+
+        lastPaintNanos = System.nanoTime() - start;
+        totalPaintNanos += lastPaintNanos;
+        maxPaintNanos = Math.max(maxPaintNanos, lastPaintNanos);
+        paintCount++;
+        if(SHOW_PAINT_STATISTICS) {
+            paintStatistics(g2d);
         }
 
         g2d.dispose();
     }
+
+    private void paintStatistics(Graphics2D g2d) {
+        String text = String.format(Locale.ROOT, "paint %.2f ms, mean %.2f ms, max %.2f ms, rendered tiles %d",
+                getLastPaintMillis(), getMeanPaintMillis(), maxPaintNanos / 1e6, renderedTiles);
+        Rectangle visible = getVisibleRect();
+        g2d.setColor(Color.BLACK);
+        g2d.fillRect(visible.x, visible.y, g2d.getFontMetrics().stringWidth(text) + 8, g2d.getFontMetrics().getHeight() + 4);
+        g2d.setColor(Color.WHITE);
+        g2d.drawString(text, visible.x + 4, visible.y + 2 + g2d.getFontMetrics().getAscent());
+    }
+
+    /**
+     * Draw overlay scaled to its region, clipped to the image.
+     */
+    private void paintOverlay(Graphics2D g2d) {
+        int width = regionTiles != null ? regionTiles.getSource().getWidth() : displayedImage.getWidth() * downsampling;
+        int height = regionTiles != null ? regionTiles.getSource().getHeight() : displayedImage.getHeight() * downsampling;
+        Graphics2D overlayGraphics = (Graphics2D) g2d.create();
+        overlayGraphics.translate(translation.x, translation.y);
+        overlayGraphics.scale(scaling, scaling);
+        overlayGraphics.clip(new Rectangle(0, 0, width, height));
+        if(overlayRegion.width > overlay.getWidth()) {
+            // reduced overlay is interpolated like the reduced levels
+            overlayGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        overlayGraphics.drawImage(overlay, overlayRegion.x, overlayRegion.y, overlayRegion.width, overlayRegion.height, null);
+        overlayGraphics.dispose();
+    }
+
+    /**
+     * Return subsampling of full resolution regions drawn with the current zoom
+     * (power of two not larger than the screen pixel) or 0, if the displayed preview is detailed enough.
+     */
+    private int detailSubsampling() {
+        if(regionTiles == null || scaling * downsampling <= 1) {
+            return 0;
+        }
+        int subsampling = 1;
+        while(subsampling * 2 * scaling <= 1) {
+            subsampling *= 2;
+        }
+        return subsampling < downsampling ? subsampling : 0;
+    }
+
+    /**
+     * Draw tiles of the image scaled by specified factor, which intersect the clip.
+     * @param source displayed image or its pyramid level
+     * @param level pyramid level of source (0 for displayed image)
+     * @param scale count of screen pixels per source pixel
+     * @param detail subsampling of drawn full resolution regions, 0 to draw the source only
+     */
+    private void paintTiles(Graphics2D g2d, BufferedImage source, int level, float scale, int detail) {
+        Rectangle clip = g2d.getClipBounds();
+        if(clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        // screen pixels whose centers lie inside the scaled image
+        long scaledWidth = scaledSize(source.getWidth(), scale);
+        long scaledHeight = scaledSize(source.getHeight(), scale);
+        long detailWidth = detail > 0 ? scaledSize(regionTiles.getSource().getWidth(), scaling) : 0;
+        long detailHeight = detail > 0 ? scaledSize(regionTiles.getSource().getHeight(), scaling) : 0;
+
+        long fromColumn = Math.max(0, Math.floorDiv((long) clip.x - translation.x, TILE_SIZE));
+        long toColumn = Math.min(ceilDiv(Math.max(scaledWidth, detailWidth), TILE_SIZE),
+                Math.floorDiv((long) clip.x + clip.width - 1 - translation.x, TILE_SIZE) + 1);
+        long fromRow = Math.max(0, Math.floorDiv((long) clip.y - translation.y, TILE_SIZE));
+        long toRow = Math.min(ceilDiv(Math.max(scaledHeight, detailHeight), TILE_SIZE),
+                Math.floorDiv((long) clip.y + clip.height - 1 - translation.y, TILE_SIZE) + 1);
+
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        boolean bilinear = level > 0 || downsampling > 1;
+        boolean contentsLost = false;
+        renderedTiles = 0;
+        for(int row = (int) fromRow; row < toRow; row++) {
+            for(int column = (int) fromColumn; column < toColumn; column++) {
+                Image tile = null;
+                if(detail > 0) {
+                    tile = detailTile(gc, detail, column, row, detailWidth, detailHeight);
+                }
+                if(tile == null) {
+                    tile = sourceTile(gc, source, bilinear, level, scale, column, row, scaledWidth, scaledHeight);
+                }
+                if(tile == null) {
+                    continue;
+                }
+                g2d.drawImage(tile, translation.x + column * TILE_SIZE, translation.y + row * TILE_SIZE, null);
+                contentsLost |= tile instanceof VolatileImage && ((VolatileImage) tile).contentsLost();
+            }
+        }
+        if(contentsLost) {
+            // accelerated surfaces were lost during drawing, tiles are restored by the next paint
+            repaint();
+        }
+    }
+
+    /**
+     * Return tile of the scaled source image (null if tile lies outside of the source).
+     */
+    private Image sourceTile(GraphicsConfiguration gc, BufferedImage source, boolean bilinear, int level, float scale,
+                             int column, int row, long scaledWidth, long scaledHeight) {
+        Image tile = cachedTile(gc, level, scale, column, row);
+        if(tile != null) {
+            return tile;
+        }
+        int width = (int) Math.min(TILE_SIZE, scaledWidth - (long) column * TILE_SIZE);
+        int height = (int) Math.min(TILE_SIZE, scaledHeight - (long) row * TILE_SIZE);
+        if(width <= 0 || height <= 0) {
+            return null;
+        }
+        tile = displayCache.createTile(gc, width, height, source.getColorModel().getTransparency());
+        Graphics2D g2d = tileGraphics(tile, source.getColorModel().hasAlpha(), bilinear, column, row);
+        g2d.scale(scale, scale);
+        g2d.drawImage(source, null, 0, 0);
+        g2d.dispose();
+        tileCache.put(level, scale, column, row, tile);
+        renderedTiles++;
+        return tile;
+    }
+
+    /**
+     * Return tile drawn from full resolution regions with the subsampling or null, if some of regions
+     * covered by the tile are not decoded yet (they are requested and the tile is drawn when they are ready).
+     */
+    private Image detailTile(GraphicsConfiguration gc, int subsampling, int column, int row,
+                             long scaledWidth, long scaledHeight) {
+        // detail tiles are distinguished from pyramid levels by negative level
+        int level = -subsampling;
+        Image tile = cachedTile(gc, level, scaling, column, row);
+        if(tile != null) {
+            return tile;
+        }
+        int width = (int) Math.min(TILE_SIZE, scaledWidth - (long) column * TILE_SIZE);
+        int height = (int) Math.min(TILE_SIZE, scaledHeight - (long) row * TILE_SIZE);
+        if(width <= 0 || height <= 0) {
+            return null;
+        }
+
+        RegionSource source = regionTiles.getSource();
+        long span = (long) RegionTiles.BLOCK_SIZE * subsampling;
+        int fromColumn = (int) Math.floor((double) column * TILE_SIZE / scaling / span);
+        int toColumn = (int) Math.min(ceilDiv(source.getWidth(), span),
+                (long) Math.ceil(((double) column * TILE_SIZE + width) / scaling / span));
+        int fromRow = (int) Math.floor((double) row * TILE_SIZE / scaling / span);
+        int toRow = (int) Math.min(ceilDiv(source.getHeight(), span),
+                (long) Math.ceil(((double) row * TILE_SIZE + height) / scaling / span));
+
+        BufferedImage[] blocks = new BufferedImage[(toColumn - fromColumn) * (toRow - fromRow)];
+        boolean missing = false;
+        for(int blockRow = fromRow; blockRow < toRow; blockRow++) {
+            for(int blockColumn = fromColumn; blockColumn < toColumn; blockColumn++) {
+                BufferedImage block = regionTiles.getBlock(subsampling, blockColumn, blockRow);
+                blocks[(blockRow - fromRow) * (toColumn - fromColumn) + blockColumn - fromColumn] = block;
+                missing |= block == null;
+            }
+        }
+        if(missing || blocks.length == 0) {
+            return null;
+        }
+
+        boolean alpha = blocks[0].getColorModel().hasAlpha();
+        tile = displayCache.createTile(gc, width, height, blocks[0].getColorModel().getTransparency());
+        Graphics2D g2d = tileGraphics(tile, alpha, scaling * subsampling < 1, column, row);
+        g2d.scale(scaling, scaling);
+        for(int blockRow = fromRow; blockRow < toRow; blockRow++) {
+            for(int blockColumn = fromColumn; blockColumn < toColumn; blockColumn++) {
+                AffineTransform transform = g2d.getTransform();
+                g2d.translate(blockColumn * span, blockRow * span);
+                g2d.scale(subsampling, subsampling);
+                g2d.drawImage(blocks[(blockRow - fromRow) * (toColumn - fromColumn) + blockColumn - fromColumn], null, 0, 0);
+                g2d.setTransform(transform);
+            }
+        }
+        g2d.dispose();
+        tileCache.put(level, scaling, column, row, tile);
+        renderedTiles++;
+        return tile;
+    }
+
+    /**
+     * Return cached tile or null, if it is not cached or its accelerated surface was lost.
+     */
+    private Image cachedTile(GraphicsConfiguration gc, int level, float scale, int column, int row) {
+        Image tile = tileCache.get(level, scale, column, row);
+        if(tile instanceof VolatileImage && ((VolatileImage) tile).validate(gc) != VolatileImage.IMAGE_OK) {
+            // restored or incompatible surface is rendered again
+            return null;
+        }
+        return tile;
+    }
+
+    /**
+     * Return graphics drawing into the tile in coordinates of the scaled image.
+     * @param bilinear True to interpolate (reduced images), false for nearest neighbour
+     */
+    private static Graphics2D tileGraphics(Image tile, boolean alpha, boolean bilinear, int column, int row) {
+        Graphics2D g2d = (Graphics2D) tile.getGraphics();
+        if(alpha) {
+            // contents of volatile images are undefined
+            g2d.setComposite(AlphaComposite.Clear);
+            g2d.fillRect(0, 0, tile.getWidth(null), tile.getHeight(null));
+            g2d.setComposite(AlphaComposite.SrcOver);
+        }
+        if(bilinear) {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        g2d.translate(-(double) column * TILE_SIZE, -(double) row * TILE_SIZE);
+        return g2d;
+    }
+
+    /**
+     * Return count of screen pixels, whose centers lie inside the image scaled by the factor.
+     */
+    private static long scaledSize(int size, float scale) {
+        return (long) Math.ceil(size * (double) scale - 0.5);
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
 }